@@ -3,6 +3,7 @@ package com.nathanosman.chronosnap.preference;
 import android.content.Context;
 import android.hardware.Camera;
 import android.preference.ListPreference;
+import android.text.TextUtils;
 import android.util.AttributeSet;
 
 import com.nathanosman.chronosnap.R;
@@ -17,6 +18,10 @@ import java.util.List;
  * Since the number and type of hardware cameras can differ from one model to
  * the next, the user needs to be able to select which one to use. Subclassing
  * ListPreference allows us to pick the default value at runtime.
+ *
+ * The value is a comma-separated list of camera IDs. Devices with more than
+ * one camera get an additional entry that captures from all of them on
+ * every tick.
  */
 public class CameraPreference extends ListPreference {
 
@@ -57,6 +62,12 @@ public class CameraPreference extends ListPreference {
             defaultCamera = entryValues.get(0);
         }
 
+        // Offer every camera at once if there is more than one
+        if (entryValues.size() > 1) {
+            entries.add(context.getText(R.string.pref_camera_all));
+            entryValues.add(TextUtils.join(",", entryValues));
+        }
+
         // Add the values to the ListPreference
         setEntries(entries.toArray(new CharSequence[entries.size()]));
         setEntryValues(entryValues.toArray(new CharSequence[entryValues.size()]));
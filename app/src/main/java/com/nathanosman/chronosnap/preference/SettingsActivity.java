@@ -32,10 +32,27 @@ public class SettingsActivity extends PreferenceActivity {
             addPreferencesFromResource(R.xml.preferences);
 
             // Ensure that the summary is updated when preferences change
+            bindPreferenceSummaryToValue(R.string.pref_mode_key, R.string.pref_mode_default);
             bindPreferenceSummaryToValue(R.string.pref_interval_key, R.string.pref_interval_default);
+            bindPreferenceSummaryToValue(R.string.pref_adaptive_key, R.string.pref_adaptive_default);
+            bindPreferenceSummaryToValue(R.string.pref_frame_rate_key, R.string.pref_frame_rate_default);
             bindPreferenceSummaryToValue(R.string.pref_limit_key, R.string.pref_limit_default);
+            bindPreferenceSummaryToValue(R.string.pref_missed_key, R.string.pref_missed_default);
+            bindPreferenceSummaryToValue(R.string.pref_status_interval_key, R.string.pref_status_interval_default);
             bindPreferenceSummaryToValue(R.string.pref_camera_key, R.string.pref_camera_default);
             bindPreferenceSummaryToValue(R.string.pref_focus_key, R.string.pref_focus_default);
+            bindPreferenceSummaryToValue(R.string.pref_refocus_key, R.string.pref_refocus_default);
+            bindPreferenceSummaryToValue(R.string.pref_exposure_key, R.string.pref_exposure_default);
+            bindPreferenceSummaryToValue(R.string.pref_governor_key, R.string.pref_governor_default);
+            bindPreferenceSummaryToValue(R.string.pref_storage_key, R.string.pref_storage_default);
+            bindPreferenceSummaryToValue(R.string.pref_shard_key, R.string.pref_shard_default);
+            bindPreferenceSummaryToValue(R.string.pref_retention_key, R.string.pref_retention_default);
+            bindPreferenceSummaryToValue(R.string.pref_static_key, R.string.pref_static_default);
+            bindPreferenceSummaryToValue(R.string.pref_backpressure_key, R.string.pref_backpressure_default);
+            bindPreferenceSummaryToValue(R.string.pref_durability_key, R.string.pref_durability_default);
+            bindPreferenceSummaryToValue(R.string.pref_preallocate_key, R.string.pref_preallocate_default);
+            bindPreferenceSummaryToValue(R.string.pref_scan_key, R.string.pref_scan_default);
+            bindPreferenceSummaryToValue(R.string.pref_video_key, R.string.pref_video_default);
         }
 
         /**
@@ -0,0 +1,837 @@
+package com.nathanosman.chronosnap.service;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Range;
+import android.util.Rational;
+import android.util.Size;
+import android.view.Surface;
+
+import com.nathanosman.chronosnap.R;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Camera backend using the Camera2 API
+ *
+ * A single capture session is created when the camera is opened and kept
+ * alive until close() is called. A repeating preview request keeps 3A
+ * converged between frames and still captures are delivered through an
+ * ImageReader whose small, fixed ring of JPEG images is reused for every
+ * frame. In preview stream mode the session is rebuilt around a YUV
+ * ImageReader instead and each frame is copied into a pooled NV21 buffer.
+ *
+ * Every callback is delivered on the supplied looper and every method must
+ * be called on that looper's thread as well.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2Backend implements CameraBackend {
+
+    /**
+     * Largest YUV size used for the preview stream
+     */
+    private static final int MAX_STREAM_WIDTH = 1920;
+    private static final int MAX_STREAM_HEIGHT = 1080;
+
+    /**
+     * Time to wait for the lens to lock before giving up on focusing
+     *
+     * Some devices never leave the scanning state when the scene has too
+     * little contrast, so the wait cannot be left open-ended.
+     */
+    private static final long FOCUS_TIMEOUT = 3000;
+
+    /**
+     * Ring of JPEG images that stays alive until every image is released
+     *
+     * Images may still be waiting to be written when the camera is closed,
+     * so the ImageReader is only closed once the last of them is returned.
+     */
+    private static class ImageRing {
+
+        private ImageReader mImageReader;
+        private int mOutstanding;
+        private boolean mClosed;
+
+        ImageRing(ImageReader imageReader) {
+            mImageReader = imageReader;
+        }
+
+        synchronized Image acquire() {
+            Image image = mImageReader.acquireNextImage();
+            if (image != null) {
+                mOutstanding++;
+            }
+            return image;
+        }
+
+        synchronized void release(Image image) {
+            image.close();
+            if (--mOutstanding == 0 && mClosed) {
+                mImageReader.close();
+            }
+        }
+
+        synchronized void close() {
+            mClosed = true;
+            if (mOutstanding == 0) {
+                mImageReader.close();
+            }
+        }
+    }
+
+    // Data initialized in the constructor
+    private CameraManager mCameraManager;
+    private int mCameraIndex;
+    private int mRingSize;
+    private Handler mHandler;
+    private String mCaptureErrorMessage;
+    private String mPicturesWaitingMessage;
+    private String mCameraErrorMessage;
+    private String mDisconnectedMessage;
+    private String mConfigureMessage;
+    private String mMissingMessage;
+    private String mPreviewSizeMessage;
+
+    // Objects that live for as long as the camera is open
+    private CameraDevice mDevice;
+    private CameraCaptureSession mSession;
+    private ImageReader mImageReader;
+    private ImageRing mImageRing;
+    private SurfaceTexture mPreviewTexture;
+    private Surface mPreviewSurface;
+    private CaptureRequest.Builder mPreviewBuilder;
+    private StreamConfigurationMap mStreamConfigurationMap;
+    private boolean mAutofocusSupported;
+    private Size mThumbnailSize;
+
+    // Exposure range of the camera and the settings applied to every request
+    private Range<Integer> mCompensationRange;
+    private Rational mCompensationStep;
+    private boolean mExposureLocked;
+    private int mCompensation;
+    private int mJpegQuality;
+
+    // Objects used by the preview stream
+    private ImageReader mYuvReader;
+    private BlockingQueue<byte[]> mYuvBuffers;
+
+    // State of the picture currently being taken
+    private PictureCallback mPictureCallback;
+    private boolean mAwaitingFocus;
+
+    // Receives stage timings
+    private StageListener mStageListener;
+    private long mStageStart;
+
+    /**
+     * Initialize the backend
+     * @param context calling context
+     * @param cameraId ID of the camera to use for capturing
+     * @param ringSize number of JPEG images in the ImageReader ring (see setPictureLimit())
+     * @param looper looper that the camera is driven from (never the main looper)
+     */
+    public Camera2Backend(Context context, int cameraId, int ringSize, Looper looper) {
+
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mCameraIndex = cameraId;
+        mRingSize = ringSize;
+        mHandler = new Handler(looper);
+        mCaptureErrorMessage = context.getString(R.string.error_capture);
+        mPicturesWaitingMessage = context.getString(R.string.error_pictures_waiting);
+        mCameraErrorMessage = context.getString(R.string.error_camera);
+        mDisconnectedMessage = context.getString(R.string.error_camera_disconnected);
+        mConfigureMessage = context.getString(R.string.error_camera_configure);
+        mMissingMessage = context.getString(R.string.error_camera_missing);
+        mPreviewSizeMessage = context.getString(R.string.error_preview_size);
+    }
+
+    @Override
+    public void setStageListener(StageListener listener) {
+        mStageListener = listener;
+    }
+
+    @Override
+    public void open(final OpenCallback callback) {
+
+        try {
+
+            String cameraId = findCameraId();
+            CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(cameraId);
+            StreamConfigurationMap map = characteristics.get(
+                    CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            mStreamConfigurationMap = map;
+
+            // Pictures are taken at the largest JPEG size while the preview
+            // (which is never displayed) uses the smallest size available
+            Size jpegSize = findSize(map.getOutputSizes(ImageFormat.JPEG), true);
+            Size previewSize = findSize(map.getOutputSizes(SurfaceTexture.class), false);
+
+            // Sequences are browsed using the thumbnail embedded in each picture
+            mThumbnailSize = findSize(characteristics.get(
+                    CameraCharacteristics.JPEG_AVAILABLE_THUMBNAIL_SIZES), true);
+
+            mAutofocusSupported = contains(characteristics.get(
+                    CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES), CaptureRequest.CONTROL_AF_MODE_AUTO);
+
+            mCompensationRange = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_RANGE);
+            mCompensationStep = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_STEP);
+            mExposureLocked = false;
+            mCompensation = 0;
+            mJpegQuality = 0;
+
+            mImageReader = ImageReader.newInstance(jpegSize.getWidth(), jpegSize.getHeight(),
+                    ImageFormat.JPEG, mRingSize);
+            mImageReader.setOnImageAvailableListener(mImageAvailableListener, mHandler);
+            mImageRing = new ImageRing(mImageReader);
+
+            mPreviewTexture = new SurfaceTexture(0);
+            mPreviewTexture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
+            mPreviewSurface = new Surface(mPreviewTexture);
+
+            mStageStart = SystemClock.elapsedRealtime();
+            mCameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
+
+                @Override
+                public void onOpened(CameraDevice camera) {
+
+                    // The backend may have been closed while the camera was opening
+                    if (mImageRing == null) {
+                        camera.close();
+                        return;
+                    }
+
+                    reportStage(CaptureStage.OPEN);
+                    mDevice = camera;
+                    createSession(callback);
+                }
+
+                @Override
+                public void onDisconnected(CameraDevice camera) {
+                    camera.close();
+                    fail(callback, mDisconnectedMessage);
+                }
+
+                @Override
+                public void onError(CameraDevice camera, int error) {
+                    camera.close();
+                    fail(callback, String.format(mCameraErrorMessage, error));
+                }
+            }, mHandler);
+
+        } catch (CameraAccessException | RuntimeException e) {
+
+            close();
+            callback.onError(e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mSession != null;
+    }
+
+    @Override
+    public void takePicture(boolean autofocus, PictureCallback callback) {
+
+        mPictureCallback = callback;
+
+        // If autofocus is requested, trigger a single AF scan and wait for
+        // the lens to lock (see mPreviewCaptureCallback) before capturing
+        if (autofocus && mAutofocusSupported) {
+
+            try {
+                mStageStart = SystemClock.elapsedRealtime();
+                mAwaitingFocus = true;
+                mPreviewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START);
+                mSession.capture(mPreviewBuilder.build(), null, mHandler);
+                mPreviewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+                mHandler.postDelayed(mFocusTimeout, FOCUS_TIMEOUT);
+            } catch (CameraAccessException | RuntimeException e) {
+                mAwaitingFocus = false;
+                deliverError(e.getMessage());
+            }
+
+        } else {
+
+            // Skip to the capture step
+            shutter();
+        }
+    }
+
+    @Override
+    public int getMinExposureCompensation() {
+        return mCompensationRange == null ? 0 : mCompensationRange.getLower();
+    }
+
+    @Override
+    public int getMaxExposureCompensation() {
+        return mCompensationRange == null ? 0 : mCompensationRange.getUpper();
+    }
+
+    @Override
+    public float getExposureCompensationStep() {
+        return mCompensationStep == null ? 0 : mCompensationStep.floatValue();
+    }
+
+    @Override
+    public void setExposure(boolean lock, int compensation) {
+
+        if (lock == mExposureLocked && compensation == mCompensation) {
+            return;
+        }
+
+        mExposureLocked = lock;
+        mCompensation = Math.max(getMinExposureCompensation(),
+                Math.min(getMaxExposureCompensation(), compensation));
+
+        // The preview request carries the lock between pictures - it is
+        // replaced so that the new settings take effect right away
+        if (mPreviewBuilder != null && mSession != null) {
+            try {
+                applyExposure(mPreviewBuilder);
+                mSession.setRepeatingRequest(mPreviewBuilder.build(), mPreviewCaptureCallback, mHandler);
+            } catch (CameraAccessException | RuntimeException e) {
+                // The next picture will report the problem if the camera is unusable
+            }
+        }
+    }
+
+    @Override
+    public void setJpegQuality(int quality) {
+
+        // Only still captures are affected, so there is nothing to replace
+        mJpegQuality = quality;
+    }
+
+    @Override
+    public boolean setPictureLimit(int count) {
+
+        // The ring cannot be resized while the session is using it
+        mRingSize = count;
+        return mImageReader != null && count > mImageReader.getMaxImages();
+    }
+
+    @Override
+    public void startPreviewStream(int bufferCount, final PreviewCallback callback) {
+
+        // Pick the largest YUV size that does not exceed 1080p
+        Size size = null;
+        for (Size s : mStreamConfigurationMap.getOutputSizes(ImageFormat.YUV_420_888)) {
+            if (s.getWidth() <= MAX_STREAM_WIDTH && s.getHeight() <= MAX_STREAM_HEIGHT &&
+                    (size == null || s.getWidth() * s.getHeight() > size.getWidth() * size.getHeight())) {
+                size = s;
+            }
+        }
+        if (size == null) {
+            callback.onError(mPreviewSizeMessage);
+            return;
+        }
+
+        final int width = size.getWidth();
+        final int height = size.getHeight();
+
+        // Allocate the buffer pool up front
+        mYuvBuffers = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; ++i) {
+            mYuvBuffers.add(new byte[width * height * 3 / 2]);
+        }
+
+        final BlockingQueue<byte[]> buffers = mYuvBuffers;
+
+        mYuvReader = ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, 2);
+        mYuvReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+
+                Image image = reader.acquireLatestImage();
+                if (image == null) {
+                    return;
+                }
+
+                // The image is copied out immediately so that the reader
+                // never runs dry - if no buffer is free, the frame is dropped
+                final byte[] data = buffers.poll();
+                if (data != null) {
+                    copyToNv21(image, data);
+                }
+                image.close();
+
+                if (data != null) {
+                    callback.onPreviewFrame(new PreviewFrame(data, width, height) {
+
+                        @Override
+                        public void release() {
+                            buffers.offer(data);
+                        }
+                    });
+                }
+            }
+        }, mHandler);
+
+        // Replace the session with one that streams into the YUV reader
+        mSession.close();
+        mSession = null;
+
+        try {
+
+            mStageStart = SystemClock.elapsedRealtime();
+            mDevice.createCaptureSession(Collections.singletonList(mYuvReader.getSurface()),
+                    new CameraCaptureSession.StateCallback() {
+
+                        @Override
+                        public void onConfigured(CameraCaptureSession session) {
+
+                            if (mDevice == null) {
+                                return;
+                            }
+
+                            mSession = session;
+
+                            try {
+                                CaptureRequest.Builder builder = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+                                builder.addTarget(mYuvReader.getSurface());
+                                mSession.setRepeatingRequest(builder.build(), null, mHandler);
+                            } catch (CameraAccessException | RuntimeException e) {
+                                callback.onError(e.getMessage());
+                                return;
+                            }
+
+                            reportStage(CaptureStage.PREVIEW);
+                        }
+
+                        @Override
+                        public void onConfigureFailed(CameraCaptureSession session) {
+                            callback.onError(mConfigureMessage);
+                        }
+                    }, mHandler);
+
+        } catch (CameraAccessException | RuntimeException e) {
+            callback.onError(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+
+        mPictureCallback = null;
+        mAwaitingFocus = false;
+        mHandler.removeCallbacks(mFocusTimeout);
+
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+        if (mDevice != null) {
+            mDevice.close();
+            mDevice = null;
+        }
+        if (mImageRing != null) {
+            mImageReader.setOnImageAvailableListener(null, null);
+            mImageRing.close();
+            mImageRing = null;
+            mImageReader = null;
+        }
+        if (mYuvReader != null) {
+            mYuvReader.close();
+            mYuvReader = null;
+            mYuvBuffers = null;
+        }
+        if (mPreviewSurface != null) {
+            mPreviewSurface.release();
+            mPreviewSurface = null;
+        }
+        if (mPreviewTexture != null) {
+            mPreviewTexture.release();
+            mPreviewTexture = null;
+        }
+    }
+
+    /**
+     * Create the long-lived capture session and start the preview
+     * @param callback callback for open events
+     */
+    private void createSession(final OpenCallback callback) {
+
+        try {
+
+            mStageStart = SystemClock.elapsedRealtime();
+            mDevice.createCaptureSession(Arrays.asList(mPreviewSurface, mImageReader.getSurface()),
+                    new CameraCaptureSession.StateCallback() {
+
+                        @Override
+                        public void onConfigured(CameraCaptureSession session) {
+
+                            // The camera may have been closed in the meantime
+                            if (mDevice == null) {
+                                return;
+                            }
+
+                            mSession = session;
+
+                            // Start the repeating preview request so that
+                            // exposure and white balance remain converged
+                            try {
+                                mPreviewBuilder = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                                mPreviewBuilder.addTarget(mPreviewSurface);
+                                if (mAutofocusSupported) {
+                                    mPreviewBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_AUTO);
+                                }
+                                applyExposure(mPreviewBuilder);
+                                mSession.setRepeatingRequest(mPreviewBuilder.build(),
+                                        mPreviewCaptureCallback, mHandler);
+                            } catch (CameraAccessException | RuntimeException e) {
+                                fail(callback, e.getMessage());
+                                return;
+                            }
+
+                            reportStage(CaptureStage.PREVIEW);
+                            callback.onOpened();
+                        }
+
+                        @Override
+                        public void onConfigureFailed(CameraCaptureSession session) {
+                            fail(callback, mConfigureMessage);
+                        }
+                    }, mHandler);
+
+        } catch (CameraAccessException | RuntimeException e) {
+            fail(callback, e.getMessage());
+        }
+    }
+
+    /**
+     * Submit the still capture request
+     */
+    private void shutter() {
+
+        try {
+
+            CaptureRequest.Builder builder = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            builder.addTarget(mImageReader.getSurface());
+            builder.set(CaptureRequest.JPEG_THUMBNAIL_SIZE, mThumbnailSize);
+            if (mJpegQuality > 0) {
+                builder.set(CaptureRequest.JPEG_QUALITY, (byte) mJpegQuality);
+            }
+            if (mAutofocusSupported) {
+                builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_AUTO);
+            }
+            applyExposure(builder);
+
+            mStageStart = SystemClock.elapsedRealtime();
+            mSession.capture(builder.build(), new CameraCaptureSession.CaptureCallback() {
+
+                @Override
+                public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request,
+                                            CaptureFailure failure) {
+
+                    deliverError(mCaptureErrorMessage);
+                }
+            }, mHandler);
+
+        } catch (CameraAccessException | RuntimeException e) {
+            deliverError(e.getMessage());
+        }
+    }
+
+    /**
+     * Add the current exposure settings to a request
+     * @param builder request being built
+     */
+    private void applyExposure(CaptureRequest.Builder builder) {
+        builder.set(CaptureRequest.CONTROL_AE_LOCK, mExposureLocked);
+        builder.set(CaptureRequest.CONTROL_AWB_LOCK, mExposureLocked);
+        builder.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, mCompensation);
+    }
+
+    /**
+     * Release the AF lock so that the next picture triggers a fresh scan
+     *
+     * In AF_MODE_AUTO the lens stays where it is until the next trigger, so
+     * pictures taken without autofocus keep the last focus.
+     */
+    private void unlockFocus() {
+
+        if (!mAutofocusSupported || mSession == null) {
+            return;
+        }
+
+        try {
+            mPreviewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
+            mSession.capture(mPreviewBuilder.build(), null, mHandler);
+            mPreviewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+        } catch (CameraAccessException | RuntimeException e) {
+            // The next picture will report the problem if the camera is unusable
+        }
+    }
+
+    /**
+     * Stop waiting for the lens and report that it could not be focused
+     */
+    private void focusFailed() {
+
+        mAwaitingFocus = false;
+        mHandler.removeCallbacks(mFocusTimeout);
+        unlockFocus();
+
+        PictureCallback callback = mPictureCallback;
+        mPictureCallback = null;
+        if (callback != null) {
+            callback.onFocusFailed();
+        }
+    }
+
+    /**
+     * Watches the AF state while waiting for the lens to lock
+     */
+    private CameraCaptureSession.CaptureCallback mPreviewCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                       TotalCaptureResult result) {
+
+            if (!mAwaitingFocus) {
+                return;
+            }
+
+            Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+
+            // A null state means that the device cannot report AF progress
+            if (afState == null || afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED) {
+
+                mAwaitingFocus = false;
+                mHandler.removeCallbacks(mFocusTimeout);
+                reportStage(CaptureStage.FOCUS);
+                shutter();
+
+            } else if (afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
+                focusFailed();
+            }
+        }
+    };
+
+    /**
+     * Gives up on a lens that has not locked within FOCUS_TIMEOUT
+     */
+    private Runnable mFocusTimeout = new Runnable() {
+
+        @Override
+        public void run() {
+            if (mAwaitingFocus) {
+                focusFailed();
+            }
+        }
+    };
+
+    /**
+     * Hands JPEG images from the ring to the pending picture callback
+     */
+    private ImageReader.OnImageAvailableListener mImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+
+            final ImageRing imageRing = mImageRing;
+            if (imageRing == null) {
+                return;
+            }
+
+            // Every image in the ring may still be waiting to be written, in
+            // which case the picture is dropped rather than the camera thread
+            final Image image;
+            try {
+                image = imageRing.acquire();
+            } catch (IllegalStateException e) {
+                unlockFocus();
+                deliverError(mPicturesWaitingMessage);
+                return;
+            }
+            if (image == null) {
+                return;
+            }
+
+            // Images that arrive without anyone waiting for them are returned immediately
+            PictureCallback callback = mPictureCallback;
+            mPictureCallback = null;
+            if (callback == null) {
+                imageRing.release(image);
+                return;
+            }
+
+            unlockFocus();
+            reportStage(CaptureStage.SHUTTER);
+
+            callback.onPictureTaken(new JpegFrame() {
+
+                @Override
+                public ByteBuffer getData() {
+                    return image.getPlanes()[0].getBuffer();
+                }
+
+                @Override
+                public void release() {
+                    imageRing.release(image);
+                }
+            });
+        }
+    };
+
+    /**
+     * Report the time elapsed since mStageStart to the listener (if any)
+     */
+    private void reportStage(CaptureStage stage) {
+        if (mStageListener != null) {
+            mStageListener.onStageComplete(stage, SystemClock.elapsedRealtime() - mStageStart);
+        }
+    }
+
+    /**
+     * Report an error to the pending picture callback (if any)
+     * @param errorMessage human-readable description of the error
+     */
+    private void deliverError(String errorMessage) {
+
+        PictureCallback callback = mPictureCallback;
+        mPictureCallback = null;
+        if (callback != null) {
+            callback.onError(errorMessage);
+        }
+    }
+
+    /**
+     * Close the camera and report an error to whoever is waiting on it
+     * @param callback callback for open events
+     * @param errorMessage human-readable description of the error
+     */
+    private void fail(OpenCallback callback, String errorMessage) {
+
+        // If the camera was already open, the error belongs to the picture
+        boolean wasOpen = isOpen();
+
+        if (wasOpen) {
+            deliverError(errorMessage);
+        }
+        close();
+        if (!wasOpen) {
+            callback.onError(errorMessage);
+        }
+    }
+
+    /**
+     * Copy a YUV_420_888 image into an NV21 buffer
+     * @param image source image
+     * @param data destination buffer (width * height * 3 / 2 bytes)
+     */
+    private static void copyToNv21(Image image, byte[] data) {
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Image.Plane[] planes = image.getPlanes();
+
+        // Copy the luma plane row by row to drop any row padding
+        ByteBuffer y = planes[0].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        int pos = 0;
+        for (int row = 0; row < height; ++row) {
+            y.position(row * yRowStride);
+            y.get(data, pos, width);
+            pos += width;
+        }
+
+        // Interleave the chroma planes in V, U order
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int uvRowStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+        for (int row = 0; row < height / 2; ++row) {
+            for (int col = 0; col < width / 2; ++col) {
+                int i = row * uvRowStride + col * uvPixelStride;
+                data[pos++] = v.get(i);
+                data[pos++] = u.get(i);
+            }
+        }
+    }
+
+    /**
+     * Map the numerical camera index onto a Camera2 camera ID
+     * @return camera ID
+     */
+    private String findCameraId() throws CameraAccessException {
+
+        String[] cameraIds = mCameraManager.getCameraIdList();
+        String cameraId = String.valueOf(mCameraIndex);
+
+        // Camera2 IDs normally match the legacy indices but fall back to
+        // the position in the list if they don't
+        for (String id : cameraIds) {
+            if (id.equals(cameraId)) {
+                return id;
+            }
+        }
+        if (mCameraIndex < cameraIds.length) {
+            return cameraIds[mCameraIndex];
+        }
+
+        throw new IllegalArgumentException(String.format(mMissingMessage, cameraId));
+    }
+
+    /**
+     * Find the largest or smallest size in a list
+     * @param sizes list of sizes
+     * @param largest true for the largest size, false for the smallest
+     * @return selected size
+     */
+    private static Size findSize(Size[] sizes, boolean largest) {
+
+        Size selected = sizes[0];
+        for (Size size : sizes) {
+            long area = (long) size.getWidth() * size.getHeight();
+            long selectedArea = (long) selected.getWidth() * selected.getHeight();
+            if (largest ? area > selectedArea : area < selectedArea) {
+                selected = size;
+            }
+        }
+
+        return selected;
+    }
+
+    /**
+     * Determine whether an array contains a value
+     */
+    private static boolean contains(int[] values, int value) {
+
+        if (values != null) {
+            for (int v : values) {
+                if (v == value) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,34 @@
+package com.nathanosman.chronosnap.service;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+
+/**
+ * Looper thread that every camera is driven from
+ *
+ * Both camera APIs deliver their callbacks on the looper that they are used
+ * from. Giving the cameras a thread of their own keeps focus and shutter
+ * callbacks from queueing up behind whatever the main thread is doing. The
+ * thread is started the first time it is needed and lives as long as the
+ * process.
+ */
+public class CameraThread {
+
+    private static HandlerThread sThread;
+
+    private CameraThread() {
+    }
+
+    /**
+     * Retrieve the looper of the camera thread, starting it if necessary
+     */
+    public static synchronized Looper getLooper() {
+        if (sThread == null) {
+            sThread = new HandlerThread("camera", Process.THREAD_PRIORITY_FOREGROUND);
+            sThread.start();
+        }
+        return sThread.getLooper();
+    }
+}
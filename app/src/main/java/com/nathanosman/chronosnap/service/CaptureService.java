@@ -5,32 +5,74 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.os.BatteryManager;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.PowerManager;
+import android.os.RemoteException;
 import android.os.SystemClock;
-import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import com.nathanosman.chronosnap.R;
 import com.nathanosman.chronosnap.ui.MainActivity;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 
 /**
  * Captures images at the predefined interval
  *
- * Capture parameters are initialized at the beginning of the capture.
+ * Capture parameters are initialized at the beginning of each sequence.
+ * Any number of sequences may run at the same time, sharing the camera:
+ * captures that fall close together are taken in a single wakeup and
+ * sequences with matching camera settings share a single picture. A
+ * sequence may also be captured from several cameras at once, in which case
+ * each camera records its own copy of the sequence and the cameras are
+ * driven in parallel where the device allows it. A sequence captured from
+ * the preview stream needs the camera to itself and runs alone.
+ *
+ * The service runs in its own process so that the UI never competes with
+ * it for the heap. Clients bind to it and register a Messenger to receive
+ * status updates, which are coalesced to a configurable maximum rate.
  */
 public class CaptureService extends Service {
 
     /**
-     * Broadcast the current status of the capture
+     * Register the Messenger in replyTo for status updates
+     * <p/>
+     * The current status is sent back immediately.
+     */
+    public static final int MSG_REGISTER_CLIENT = 1;
+
+    /**
+     * Stop sending status updates to the Messenger in replyTo
+     */
+    public static final int MSG_UNREGISTER_CLIENT = 2;
+
+    /**
+     * Status update sent to registered clients
+     * <p/>
+     * The data bundle contains the EXTRA_* values below.
      */
-    public static final String ACTION_BROADCAST_STATUS = "com.nathanosman.chronosnap.action.BROADCAST_STATUS";
+    public static final int MSG_STATUS = 3;
 
     /**
      * Start capturing a sequence
@@ -39,6 +81,9 @@ public class CaptureService extends Service {
 
     /**
      * Explicitly stop capturing a sequence
+     * <p/>
+     * If EXTRA_SEQUENCE_NAME is supplied, only that sequence is stopped,
+     * otherwise every sequence is stopped.
      */
     public static final String ACTION_STOP_CAPTURE = "com.nathanosman.chronoshap.action.STOP_CAPTURE";
 
@@ -51,15 +96,32 @@ public class CaptureService extends Service {
     private static final String ACTION_CAPTURE = "com.nathanosman.chronosnap.action.CAPTURE";
 
     /**
-     * Broadcast containing capture status
+     * Open the camera ahead of the next capture
+     * <p/>
+     * This action is triggered by an alarm set shortly before a capture
+     * whenever the camera was closed after the previous one.
      */
-    public static final String BROADCAST_STATUS = "com.nathanosman.chronosnap.broadcast.STATUS";
+    private static final String ACTION_WARM_UP = "com.nathanosman.chronosnap.action.WARM_UP";
 
     /**
      * Sequence name
      */
     public static final String EXTRA_SEQUENCE_NAME = "com.nathanosman.chronosnap.extra.SEQUENCE_NAME";
 
+    /**
+     * Names of the sequences being captured
+     * <p/>
+     * This and the following extra are arrays with an element for each
+     * sequence in the order they were started. The remaining extras
+     * describe the oldest sequence.
+     */
+    public static final String EXTRA_SEQUENCE_NAMES = "com.nathanosman.chronosnap.extra.SEQUENCE_NAMES";
+
+    /**
+     * Number of images captured so far by each sequence
+     */
+    public static final String EXTRA_SEQUENCE_IMAGES = "com.nathanosman.chronosnap.extra.SEQUENCE_IMAGES";
+
     /**
      * Start time of the capture
      */
@@ -75,24 +137,217 @@ public class CaptureService extends Service {
      */
     public static final String EXTRA_IMAGES_REMAINING = "com.nathanosman.chronosnap.extra.IMAGES_REMAINING";
 
+    /**
+     * Current time between captures in milliseconds
+     * <p/>
+     * This only differs from the configured interval when it adapts to the scene.
+     */
+    public static final String EXTRA_CAPTURE_INTERVAL = "com.nathanosman.chronosnap.extra.CAPTURE_INTERVAL";
+
+    /**
+     * Number of captured images that were not stored because the scene had not changed
+     */
+    public static final String EXTRA_IMAGES_SKIPPED = "com.nathanosman.chronosnap.extra.IMAGES_SKIPPED";
+
+    /**
+     * Scheduling error of the most recent capture in milliseconds
+     */
+    public static final String EXTRA_SCHEDULE_ERROR = "com.nathanosman.chronosnap.extra.SCHEDULE_ERROR";
+
+    /**
+     * Largest scheduling error seen during the capture in milliseconds
+     */
+    public static final String EXTRA_SCHEDULE_ERROR_MAX = "com.nathanosman.chronosnap.extra.SCHEDULE_ERROR_MAX";
+
+    /**
+     * Spread between the cameras' capture times for the most recent image in milliseconds
+     * <p/>
+     * This is only set when the sequence is captured from several cameras.
+     */
+    public static final String EXTRA_CAMERA_SKEW = "com.nathanosman.chronosnap.extra.CAMERA_SKEW";
+
+    /**
+     * Total size in bytes of the images kept on storage
+     */
+    public static final String EXTRA_STORAGE_USED = "com.nathanosman.chronosnap.extra.STORAGE_USED";
+
+    /**
+     * Projected time until storage is full in milliseconds
+     * <p/>
+     * This covers every sequence being captured and is -1 if storage is
+     * not expected to fill up (or if nothing has been written yet).
+     */
+    public static final String EXTRA_TIME_TO_FULL = "com.nathanosman.chronosnap.extra.TIME_TO_FULL";
+
+    /**
+     * Bytes of the heap budget held by images waiting to be written and pooled buffers
+     * <p/>
+     * This and the following three extras cover every sequence being captured.
+     */
+    public static final String EXTRA_MEMORY_USED = "com.nathanosman.chronosnap.extra.MEMORY_USED";
+
+    /**
+     * Current heap budget in bytes (lowered while the system is short of memory)
+     */
+    public static final String EXTRA_MEMORY_LIMIT = "com.nathanosman.chronosnap.extra.MEMORY_LIMIT";
+
+    /**
+     * Number of times an image or buffer did not fit within the heap budget
+     */
+    public static final String EXTRA_MEMORY_HITS = "com.nathanosman.chronosnap.extra.MEMORY_HITS";
+
+    /**
+     * Number of captured images dropped before they were written (leaving gaps in the numbering)
+     */
+    public static final String EXTRA_IMAGES_DROPPED = "com.nathanosman.chronosnap.extra.IMAGES_DROPPED";
+
+    /**
+     * Name of the PowerGovernor.Level that every sequence is being captured at
+     */
+    public static final String EXTRA_POWER_LEVEL = "com.nathanosman.chronosnap.extra.POWER_LEVEL";
+
+    /**
+     * Median duration of each capture stage in milliseconds
+     * <p/>
+     * This and the following extras are arrays of longs indexed by
+     * CaptureStage.ordinal().
+     */
+    public static final String EXTRA_STAGE_P50 = "com.nathanosman.chronosnap.extra.STAGE_P50";
+
+    /**
+     * 90th percentile duration of each capture stage in milliseconds
+     */
+    public static final String EXTRA_STAGE_P90 = "com.nathanosman.chronosnap.extra.STAGE_P90";
+
+    /**
+     * 99th percentile duration of each capture stage in milliseconds
+     */
+    public static final String EXTRA_STAGE_P99 = "com.nathanosman.chronosnap.extra.STAGE_P99";
+
+    /**
+     * Maximum time a capture may be brought forward to share a wakeup with another one
+     */
+    private static final long MERGE_WINDOW = 1000;
+
+    /**
+     * Amount the heap budget is divided by when memory is low and when it is critical
+     */
+    private static final int LOW_MEMORY_DIVISOR = 2;
+    private static final int CRITICAL_MEMORY_DIVISOR = 4;
+
+    /**
+     * Time without memory warnings after which the heap budget is restored
+     */
+    private static final long MEMORY_RECOVERY_TIME = 60 * 1000;
+
+    /**
+     * Amount the boot epoch of a journal may differ by and still belong to the current boot
+     * <p/>
+     * The epoch is derived from the wall clock, which drifts and may be
+     * corrected by the network while the device is running.
+     */
+    private static final long BOOT_EPOCH_TOLERANCE = 10 * 1000;
+
+    /**
+     * Sequence being captured along with everything needed to capture it
+     */
+    private static class Sequence {
+
+        // Data initialized when the sequence begins
+        private int mId;
+        private CharSequence mName;
+        private long mStartTime;
+        private long mInterval;
+        private int mLimit;
+        private boolean mStreaming;
+        private int mIndex;
+
+        // Camera used, the number of cameras capturing the sequence, and
+        // how far apart they captured the most recent image
+        private int mCameraId;
+        private int mCameraCount;
+        private long mLastSkew;
+
+        // Sequences with the same key use the same camera settings
+        private String mGroupKey;
+
+        // Used for timing, capturing, and recording the images
+        private CaptureJournal mJournal;
+        private CaptureScheduler mCaptureScheduler;
+        private AdaptiveInterval mAdaptiveInterval;
+        private ImageCapturer mImageCapturer;
+
+        // Time at which the most recent capture started (0 if none has yet)
+        private long mLastCaptureStart;
+
+        // Used for tracking stop requests and errors during a capture
+        private boolean mStopRequested = false;
+        private String mPendingError = null;
+    }
+
+    /**
+     * Groups of a batch that are captured one after another
+     */
+    private static class Lane {
+
+        private List<List<Sequence>> mGroups;
+        private int mNext = 0;
+
+        // Groups that failed while the cameras were being used in parallel
+        private List<List<Sequence>> mFailed = new ArrayList<>();
+
+        Lane(List<List<Sequence>> groups) {
+            mGroups = groups;
+        }
+    }
+
     // Data initialized in the constructor
     private AlarmManager mAlarmManager;
     private SharedPreferences mSharedPreferences;
     private PendingIntent mCaptureIntent;
-
-    // Data initialized when the capture begins
-    private long mStartTime;
-    private long mInterval;
-    private int mIndex;
-    private int mLimit;
-
-    // Used for capturing the images
-    private ImageCapturer mImageCapturer;
+    private PendingIntent mWarmUpIntent;
+    private PowerManager.WakeLock mWakeLock;
+    private Handler mHandler;
+
+    // Clients registered for status updates and the latest status
+    private final List<Messenger> mClients = new ArrayList<>();
+    private Bundle mStatus;
+    private StatusThrottle mStatusThrottle;
+
+    // Each sequence records its progress in a journal in this directory so
+    // that it can be resumed after a restart
+    private File mJournalDirectory;
+
+    // Decides whether the camera stays open between captures and whether
+    // several cameras are used at the same time
+    private CameraWarmupPolicy mWarmupPolicy = new CameraWarmupPolicy();
+    private CameraConcurrencyPolicy mConcurrencyPolicy = new CameraConcurrencyPolicy();
+
+    // Backs off the capture as the battery runs down or the device heats up
+    private PowerGovernor mPowerGovernor;
+    private boolean mBatteryReceiverRegistered = false;
+
+    // Sequences being captured and the camera backends they share
+    private MultiSequenceScheduler<Sequence> mScheduler =
+            new MultiSequenceScheduler<>(ElapsedRealtimeClock.INSTANCE);
+    private Map<Integer, CameraBackend> mCameraBackends = new HashMap<>();
+    private boolean mStreaming = false;
+
+    // Captures currently being taken (grouped by shared picture), the
+    // lanes they are taken in, and the sequences that captured an image
+    private List<List<Sequence>> mBatch;
+    private List<Lane> mLanes;
+    private int mLanesRemaining;
+    private boolean mParallel;
+    private List<Sequence> mCaptured;
 
     // Used for tracking stop requests
     private boolean mCaptureInProgress = false;
     private boolean mPendingShutdown = false;
 
+    // Set when a camera has to be reopened once the current batch is done
+    private boolean mReopenCameras = false;
+
     /**
      * Reimplementation of Service.onCreate()
      */
@@ -100,9 +355,18 @@ public class CaptureService extends Service {
     public void onCreate() {
 
         mAlarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-        mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        mHandler = new Handler();
+        reloadPreferences();
         mCaptureIntent = PendingIntent.getService(this, 0,
                 new Intent(this, CaptureService.class).setAction(ACTION_CAPTURE), 0);
+        mWarmUpIntent = PendingIntent.getService(this, 0,
+                new Intent(this, CaptureService.class).setAction(ACTION_WARM_UP), 0);
+        mWakeLock = ((PowerManager) getSystemService(Context.POWER_SERVICE)).newWakeLock(
+                PowerManager.PARTIAL_WAKE_LOCK, CaptureService.class.getSimpleName());
+        mJournalDirectory = new File(getFilesDir(), "journals");
+        mJournalDirectory.mkdirs();
+        StorageDirectory.setErrorMessage(getString(R.string.error_storage_dir));
+        mStatus = buildStatus();
     }
 
     /**
@@ -116,174 +380,1272 @@ public class CaptureService extends Service {
             // Dispatch the command to the appropriate method
             final String action = intent.getAction();
             switch (action) {
-                case ACTION_BROADCAST_STATUS:
-                    broadcastStatus();
-                    break;
                 case ACTION_START_CAPTURE:
-                    CharSequence sequenceName = intent.getCharSequenceExtra(EXTRA_SEQUENCE_NAME);
-                    startCapture(sequenceName);
+                    startCapture(intent.getCharSequenceExtra(EXTRA_SEQUENCE_NAME));
                     break;
                 case ACTION_STOP_CAPTURE:
-                    stopCapture();
+                    stopCapture(intent.getCharSequenceExtra(EXTRA_SEQUENCE_NAME));
                     break;
                 case ACTION_CAPTURE:
                     capture();
                     break;
+                case ACTION_WARM_UP:
+                    warmUp();
+                    break;
             }
+
+        } else {
+
+            // The process was killed and the service restarted
+            resumeCapture();
         }
 
         return START_STICKY;
     }
 
     /**
-     * Not implemented
+     * Reimplementation of Service.onBind()
      */
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return mMessenger.getBinder();
     }
 
     /**
-     * Send a broadcast with the current capture status
+     * Reimplementation of Service.onTrimMemory()
+     */
+    @Override
+    public void onTrimMemory(int level) {
+
+        // The service has no UI to hide
+        if (level == TRIM_MEMORY_UI_HIDDEN) {
+            return;
+        }
+
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimMemory(CRITICAL_MEMORY_DIVISOR, true);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimMemory(LOW_MEMORY_DIVISOR, false);
+        } else {
+            PipelineMemory.getBufferPool().trim();
+        }
+    }
+
+    /**
+     * Reimplementation of Service.onLowMemory()
+     */
+    @Override
+    public void onLowMemory() {
+        trimMemory(CRITICAL_MEMORY_DIVISOR, true);
+    }
+
+    /**
+     * Build a snapshot of the current capture status
      *
-     * Status currently includes the start time, current index, and remaining
-     * image count (0 if no limit).
+     * Status currently includes the name and image count of every
+     * sequence, and the start time, current index, remaining image count
+     * (0 if no limit), current interval, skipped image count, scheduling
+     * error, camera skew, storage used, and stage percentiles of the oldest
+     * sequence, along with the projected time until storage is full. The
+     * use of the heap budget and the power governor level are always
+     * included. A start time of 0 means that nothing is being captured.
      */
-    private void broadcastStatus() {
+    private Bundle buildStatus() {
+
+        List<Sequence> sequences = mScheduler.getSequences();
+        String[] names = new String[sequences.size()];
+        int[] images = new int[sequences.size()];
+        for (int i = 0; i < sequences.size(); ++i) {
+            Sequence sequence = sequences.get(i);
+            names[i] = sequence.mName.toString();
+            if (sequence.mCameraCount > 1) {
+                names[i] += " (camera " + String.valueOf(sequence.mCameraId) + ")";
+            }
+            images[i] = sequence.mIndex;
+        }
+
+        Bundle status = new Bundle();
+        status.putStringArray(EXTRA_SEQUENCE_NAMES, names);
+        status.putIntArray(EXTRA_SEQUENCE_IMAGES, images);
+        if (!sequences.isEmpty()) {
+
+            Sequence sequence = sequences.get(0);
+            status.putLong(EXTRA_START_TIME, sequence.mStartTime);
+            status.putInt(EXTRA_IMAGES_CAPTURED, sequence.mIndex);
+            status.putInt(EXTRA_IMAGES_REMAINING, sequence.mLimit == 0 ? 0 : sequence.mLimit - sequence.mIndex);
+            status.putLong(EXTRA_CAPTURE_INTERVAL, sequence.mCaptureScheduler.getInterval());
+            status.putInt(EXTRA_IMAGES_SKIPPED, sequence.mImageCapturer.getSkippedCount());
+            status.putLong(EXTRA_SCHEDULE_ERROR, sequence.mCaptureScheduler.getLastError());
+            status.putLong(EXTRA_SCHEDULE_ERROR_MAX, sequence.mCaptureScheduler.getMaxError());
+            if (sequence.mCameraCount > 1) {
+                status.putLong(EXTRA_CAMERA_SKEW, sequence.mLastSkew);
+            }
+
+            status.putLong(EXTRA_STORAGE_USED,
+                    sequence.mImageCapturer.getRetentionSink().getByteCount());
+            status.putLong(EXTRA_TIME_TO_FULL, getTimeToFull(sequences));
+
+            CaptureMetrics metrics = sequence.mImageCapturer.getMetrics();
+            status.putLongArray(EXTRA_STAGE_P50, metrics.getPercentiles(0.5));
+            status.putLongArray(EXTRA_STAGE_P90, metrics.getPercentiles(0.9));
+            status.putLongArray(EXTRA_STAGE_P99, metrics.getPercentiles(0.99));
+        }
 
-        Intent intent = new Intent(BROADCAST_STATUS);
-        intent.putExtra(EXTRA_START_TIME, mStartTime);
-        intent.putExtra(EXTRA_IMAGES_CAPTURED, mIndex);
-        intent.putExtra(EXTRA_IMAGES_REMAINING, mLimit == 0 ? 0 : mLimit - mIndex);
+        MemoryBudget budget = PipelineMemory.getBudget();
+        status.putLong(EXTRA_MEMORY_USED, budget.getUsed());
+        status.putLong(EXTRA_MEMORY_LIMIT, budget.getLimit());
+        status.putLong(EXTRA_MEMORY_HITS, budget.getHitCount());
 
-        // Send the broadcast
-        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+        // Images are dropped when the budget runs short, so this covers
+        // every sequence as well
+        int dropped = 0;
+        for (Sequence sequence : sequences) {
+            dropped += sequence.mImageCapturer.getMetrics().getDropCount();
+        }
+        status.putInt(EXTRA_IMAGES_DROPPED, dropped);
+        status.putString(EXTRA_POWER_LEVEL, mPowerGovernor.getLevel().name());
+        return status;
+    }
+
+    /**
+     * Project how long the sequences can be captured before storage is full
+     *
+     * All sequences are written to the same storage, so the free space of
+     * the first is shared by all of them.
+     * @return time in milliseconds or -1 if storage is not expected to fill up
+     */
+    private long getTimeToFull(List<Sequence> sequences) {
+
+        StorageForecast forecast = new StorageForecast();
+        for (Sequence sequence : sequences) {
+            RetentionSink retentionSink = sequence.mImageCapturer.getRetentionSink();
+            forecast.add(retentionSink.getMeanFrameSize(), sequence.mCaptureScheduler.getInterval(),
+                    retentionSink.getHeadroom());
+        }
+
+        // The directory is not created until the first image is written
+        File path = sequences.get(0).mImageCapturer.getSequencePath();
+        while (path != null && !path.exists()) {
+            path = path.getParentFile();
+        }
+        if (path == null) {
+            return -1;
+        }
+
+        return forecast.getTimeToFull(path.getUsableSpace());
+    }
+
+    /**
+     * Update the status snapshot and schedule delivery to the clients
+     *
+     * Changes that arrive faster than the configured rate are coalesced and
+     * only the latest snapshot is sent.
+     */
+    private void publishStatus() {
+
+        mStatus = buildStatus();
+
+        long delay = mStatusThrottle.onChanged();
+        if (delay >= 0) {
+            mHandler.postDelayed(mDeliverStatus, delay);
+        }
+    }
+
+    /**
+     * Send the status snapshot to a single client
+     * @param client client to send the status to
+     * @return false if the client has gone away
+     */
+    private boolean sendStatus(Messenger client) {
+
+        Message message = Message.obtain(null, MSG_STATUS);
+        message.setData(mStatus);
+        try {
+            client.send(message);
+            return true;
+        } catch (RemoteException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Shrink the memory held by the capture pipeline
+     * @param divisor amount the heap budget is divided by
+     * @param critical true to also discard images waiting to be written
+     *
+     * Idle buffers are freed and scene analysis is paused. Everything is
+     * restored once MEMORY_RECOVERY_TIME passes without another warning.
+     */
+    private void trimMemory(int divisor, boolean critical) {
+
+        log("Memory is low - reducing the heap budget to 1/" + String.valueOf(divisor) + ".");
+
+        PipelineMemory.getBudget().shrink(divisor);
+        PipelineMemory.getBufferPool().trim();
+        for (Sequence sequence : mScheduler.getSequences()) {
+            sequence.mImageCapturer.trimMemory(critical);
+        }
+
+        mHandler.removeCallbacks(mRestoreMemory);
+        mHandler.postDelayed(mRestoreMemory, MEMORY_RECOVERY_TIME);
+        publishStatus();
     }
 
+    /**
+     * Restores the heap budget once memory warnings have stopped
+     */
+    private Runnable mRestoreMemory = new Runnable() {
+
+        @Override
+        public void run() {
+
+            log("Restoring the heap budget.");
+
+            PipelineMemory.getBudget().restore();
+            for (Sequence sequence : mScheduler.getSequences()) {
+                sequence.mImageCapturer.restoreMemory();
+            }
+            publishStatus();
+        }
+    };
+
+    /**
+     * Passes battery changes on to the power governor
+     *
+     * The battery temperature stands in for the thermal status of the
+     * device, which is not available on the API levels supported.
+     */
+    private BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            int batteryPercent = level >= 0 && scale > 0 ? level * 100 / scale : -1;
+
+            int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING ||
+                    status == BatteryManager.BATTERY_STATUS_FULL;
+
+            // The temperature is reported in tenths of a degree
+            int temperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, Integer.MIN_VALUE);
+            double celsius = temperature == Integer.MIN_VALUE ? Double.NaN : temperature / 10.0;
+
+            PowerGovernor.Level previous = mPowerGovernor.getLevel();
+            PowerGovernor.Level current = mPowerGovernor.update(batteryPercent, charging, celsius);
+            if (current == previous) {
+                return;
+            }
+
+            // Include the position of every sequence so that the change can
+            // be matched up with the images
+            StringBuilder positions = new StringBuilder();
+            for (Sequence sequence : mScheduler.getSequences()) {
+                positions.append(positions.length() == 0 ? "" : ", ");
+                positions.append("\"").append(sequence.mName).append("\" at image #")
+                        .append(sequence.mIndex);
+            }
+            log(String.format(Locale.US, "Power governor changed from %s to %s " +
+                            "(battery %d%%%s, %.1f C) with %s.", previous.name(), current.name(),
+                    batteryPercent, charging ? " and charging" : "", celsius, positions));
+
+            for (Sequence sequence : mScheduler.getSequences()) {
+                sequence.mImageCapturer.setJpegQuality(mPowerGovernor.getJpegQuality());
+            }
+
+            // A camera that is open right now is closed at the end of the next batch
+            publishStatus();
+        }
+    };
+
+    /**
+     * Delivers the latest status snapshot to every registered client
+     */
+    private Runnable mDeliverStatus = new Runnable() {
+
+        @Override
+        public void run() {
+
+            mStatusThrottle.onDelivered();
+            for (int i = mClients.size() - 1; i >= 0; --i) {
+                if (!sendStatus(mClients.get(i))) {
+                    mClients.remove(i);
+                }
+            }
+        }
+    };
+
+    /**
+     * Handles messages from bound clients
+     */
+    private final Messenger mMessenger = new Messenger(new Handler(new Handler.Callback() {
+
+        @Override
+        public boolean handleMessage(Message message) {
+            switch (message.what) {
+                case MSG_REGISTER_CLIENT:
+                    if (message.replyTo != null && sendStatus(message.replyTo)) {
+                        mClients.add(message.replyTo);
+                    }
+                    return true;
+                case MSG_UNREGISTER_CLIENT:
+                    mClients.remove(message.replyTo);
+                    return true;
+            }
+            return false;
+        }
+    }));
+
     /**
      * Start capturing a sequence of images
      * @param sequenceName name selected for the sequence
+     *
+     * The sequence runs alongside any that are already being captured
+     * unless either of them captures from the preview stream. If several
+     * cameras are selected, each of them captures the sequence into its
+     * own directory on the same grid.
      */
     private void startCapture(CharSequence sequenceName) {
 
-        // Prevent a new capture from being started if one is in progress
-        if (mStartTime != 0) {
+        // The settings may have been changed since the service was created
+        reloadPreferences();
+        boolean streaming = pref(R.string.pref_mode_key, R.string.pref_mode_default).equals("preview");
+
+        // The preview stream cannot share the camera and two sequences
+        // cannot share a directory
+        if (mStreaming || streaming && !mScheduler.isEmpty()) {
+            log("Unable to start \"" + sequenceName + "\" while another sequence uses the preview stream.");
+            return;
+        }
+        if (!findSequences(sequenceName).isEmpty()) {
+            log("Sequence \"" + sequenceName + "\" is already being captured.");
+            return;
+        }
+
+        int[] cameraIds = parseCameraIds(pref(R.string.pref_camera_key, R.string.pref_camera_default));
+        if (streaming && cameraIds.length > 1) {
+            log("The preview stream can only be captured from a single camera.");
+            cameraIds = new int[] { cameraIds[0] };
+        }
+
+        log("Starting image capture for \"" + sequenceName + "\".");
+
+        // Every camera shares the start time so that their grids line up
+        long startTime = SystemClock.elapsedRealtime();
+        for (int cameraId : cameraIds) {
+
+            // Set the start time and reset the index
+            Sequence sequence = new Sequence();
+            sequence.mId = allocateSequenceId();
+            sequence.mName = sequenceName;
+            sequence.mStartTime = startTime;
+            sequence.mIndex = 0;
+            sequence.mCameraId = cameraId;
+            sequence.mCameraCount = cameraIds.length;
+
+            // Load the current settings - in preview mode the interval is
+            // derived from the frame rate instead
+            sequence.mStreaming = streaming;
+            if (streaming) {
+                sequence.mInterval = 1000 / Integer.parseInt(
+                        pref(R.string.pref_frame_rate_key, R.string.pref_frame_rate_default));
+            } else {
+                sequence.mInterval = Long.parseLong(
+                        pref(R.string.pref_interval_key, R.string.pref_interval_default));
+            }
+            sequence.mLimit = Integer.parseInt(pref(R.string.pref_limit_key, R.string.pref_limit_default));
+
+            // Record the sequence so that it can be resumed if the process is
+            // killed - capture goes ahead without the journal if it fails
+            // (it then stays closed and ignores every record)
+            CaptureJournal.State state = new CaptureJournal.State();
+            state.sequenceName = sequenceName;
+            state.startTime = sequence.mStartTime;
+            state.interval = sequence.mInterval;
+            state.limit = sequence.mLimit;
+            state.streaming = streaming;
+            state.cameraId = cameraId;
+            state.cameraCount = cameraIds.length;
+            state.bootEpoch = getBootEpoch();
+            sequence.mJournal = new CaptureJournal(getJournalFile(sequence.mId));
+            try {
+                sequence.mJournal.begin(state);
+            } catch (IOException e) {
+                log("Unable to create journal: " + e.getMessage());
+            }
+
+            beginCapture(sequence, null);
+        }
+    }
+
+    /**
+     * Resume the sequences recorded in the journals after the service was restarted
+     *
+     * This does nothing if a capture is already running. The service stops
+     * itself if no journal contains an unfinished sequence.
+     */
+    private void resumeCapture() {
+
+        if (!mScheduler.isEmpty()) {
+            return;
+        }
+
+        File[] files = mJournalDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                resumeSequence(file);
+            }
+        }
+
+        if (mScheduler.isEmpty()) {
+            stopSelf();
+        }
+    }
+
+    /**
+     * Resume a single sequence from its journal
+     * @param file journal of the sequence
+     */
+    private void resumeSequence(File file) {
+
+        // Journals are named after the ID of their sequence
+        String name = file.getName();
+        int id;
+        try {
+            id = Integer.parseInt(name.substring(0, name.indexOf('.')));
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return;
+        }
+
+        CaptureJournal journal = new CaptureJournal(file);
+        CaptureJournal.State state;
+        try {
+            state = journal.resume();
+        } catch (IOException e) {
+            log("Unable to read journal: " + e.getMessage());
+            state = null;
+        }
+
+        // A journal from before the last reboot cannot be resumed since the
+        // grid is based on elapsed time, and neither can a finished sequence
+        // (nor a second sequence using the preview stream) - journals that
+        // predate the boot epoch can only be caught by their start time
+        if (state == null || state.bootEpoch != 0 &&
+                Math.abs(state.bootEpoch - getBootEpoch()) > BOOT_EPOCH_TOLERANCE ||
+                state.startTime > SystemClock.elapsedRealtime() ||
+                state.limit != 0 && state.index + 1 >= state.limit ||
+                (state.streaming || mStreaming) && !mScheduler.isEmpty()) {
+            journal.end();
             return;
         }
 
-        // TODO: this method needs heavy refactoring
+        log("Resuming \"" + state.sequenceName + "\" at image #" + String.valueOf(state.index + 1) + ".");
 
-        log("Starting image capture.");
+        Sequence sequence = new Sequence();
+        sequence.mId = id;
+        sequence.mName = state.sequenceName;
+        sequence.mStartTime = state.startTime;
+        sequence.mInterval = state.interval;
+        sequence.mLimit = state.limit;
+        sequence.mStreaming = state.streaming;
+        sequence.mIndex = state.index + 1;
+        sequence.mJournal = journal;
+
+        // Journals written before the camera was recorded use the current setting
+        sequence.mCameraId = state.cameraId >= 0 ? state.cameraId :
+                parseCameraIds(pref(R.string.pref_camera_key, R.string.pref_camera_default))[0];
+        sequence.mCameraCount = state.cameraCount;
+
+        beginCapture(sequence, state);
+    }
+
+    /**
+     * Create the scheduler and capturer for a sequence and start capturing
+     * @param sequence sequence to capture
+     * @param resumeState progress recorded in the journal or null for a new sequence
+     *
+     * The ID, name, start time, interval, limit, mode, index, camera, and
+     * journal of the sequence must be set before this is called.
+     */
+    private void beginCapture(final Sequence sequence, CaptureJournal.State resumeState) {
 
         displayPersistentNotification();
 
-        // Set the start time and reset the index
-        mStartTime = SystemClock.elapsedRealtime();
-        mIndex = 0;
+        CaptureScheduler.MissedSlotPolicy missedSlotPolicy = CaptureScheduler.MissedSlotPolicy.valueOf(
+                pref(R.string.pref_missed_key, R.string.pref_missed_default));
 
-        // Load the current settings
-        mInterval = Long.parseLong(pref(R.string.pref_interval_key, R.string.pref_interval_default));
-        mLimit = Integer.parseInt(pref(R.string.pref_limit_key, R.string.pref_limit_default));
+        // Frames are anchored to a grid starting at the start time
+        sequence.mCaptureScheduler = new CaptureScheduler(ElapsedRealtimeClock.INSTANCE,
+                sequence.mStartTime, sequence.mInterval, missedSlotPolicy);
 
-        // Load the camera and focus settings
-        int cameraId = Integer.parseInt(pref(R.string.pref_camera_key, R.string.pref_camera_default));
-        boolean autofocus = pref(R.string.pref_focus_key, R.string.pref_focus_default).equals("auto");
+        // Still photos may be taken further apart while the scene is static
+        if (sequence.mStreaming) {
+            sequence.mAdaptiveInterval = AdaptiveInterval.fixed(sequence.mInterval);
+        } else {
+            sequence.mAdaptiveInterval = AdaptiveInterval.parse(
+                    pref(R.string.pref_adaptive_key, R.string.pref_adaptive_default), sequence.mInterval);
+        }
+
+        // When resuming, move on to the slot after the last one captured
+        // (journals that predate the interval changing use the original one)
+        if (resumeState != null && resumeState.index >= 0) {
+            if (resumeState.slotInterval > 0) {
+                sequence.mCaptureScheduler.restore(resumeState.anchor, resumeState.slot,
+                        resumeState.slotInterval);
+                sequence.mAdaptiveInterval.restore(resumeState.slotInterval);
+            } else {
+                sequence.mCaptureScheduler.restore(resumeState.anchor, resumeState.slot);
+            }
+            sequence.mCaptureScheduler.scheduleNext();
+        }
+
+        // Load the focus and exposure settings
+        ImageCapturer.Settings settings = new ImageCapturer.Settings();
+        settings.focus = ImageCapturer.Focus.valueOf(
+                pref(R.string.pref_focus_key, R.string.pref_focus_default).toUpperCase(Locale.US));
+        settings.refocusInterval = Integer.parseInt(
+                pref(R.string.pref_refocus_key, R.string.pref_refocus_default));
+        settings.exposure = ImageCapturer.Exposure.valueOf(
+                pref(R.string.pref_exposure_key, R.string.pref_exposure_default).toUpperCase(Locale.US));
+
+        // Sequences that would take identical pictures share them
+        sequence.mGroupKey = String.valueOf(sequence.mCameraId) + "/" + settings.focus + "/" +
+                String.valueOf(settings.refocusInterval) + "/" + settings.exposure;
+
+        // Load the storage settings
+        settings.storage = ImageCapturer.Storage.valueOf(
+                pref(R.string.pref_storage_key, R.string.pref_storage_default));
+        settings.limit = sequence.mLimit;
+        settings.shardSize = Integer.parseInt(pref(R.string.pref_shard_key, R.string.pref_shard_default));
+        settings.backpressure = FrameWriter.Backpressure.valueOf(
+                pref(R.string.pref_backpressure_key, R.string.pref_backpressure_default));
+        settings.durability = DurabilityPolicy.parse(
+                pref(R.string.pref_durability_key, R.string.pref_durability_default));
+        settings.preallocateSize = 1024L * 1024 * Integer.parseInt(
+                pref(R.string.pref_preallocate_key, R.string.pref_preallocate_default));
+        settings.retention = RetentionPolicy.parse(
+                pref(R.string.pref_retention_key, R.string.pref_retention_default));
+        settings.staticFrames = StaticFrameDetector.parse(
+                pref(R.string.pref_static_key, R.string.pref_static_default));
+        settings.measureSceneChange = sequence.mAdaptiveInterval.isEnabled();
+        settings.scanPolicy = MediaScanPolicy.parse(
+                pref(R.string.pref_scan_key, R.string.pref_scan_default));
+        settings.buildVideo = pref(R.string.pref_video_key, R.string.pref_video_default).equals("avi");
 
         // Initialize the capturer
-        mImageCapturer = new ImageCapturer(this, cameraId, autofocus, sequenceName);
+        sequence.mImageCapturer = new ImageCapturer(this, getCameraBackend(sequence.mCameraId),
+                getSequencePath(sequence), settings);
+        sequence.mImageCapturer.setErrorListener(new ImageCapturer.ErrorListener() {
+
+            @Override
+            public void onError(String errorMessage) {
+                abortCapture(sequence, errorMessage);
+            }
+        });
+        sequence.mImageCapturer.setStageListener(new CameraBackend.StageListener() {
 
-        // Broadcast the new status (that the capture has started) and set an alarm
-        broadcastStatus();
-        setAlarm(mStartTime + mInterval);
+            @Override
+            public void onStageComplete(CaptureStage stage, long durationMillis) {
+                mWarmupPolicy.record(stage, durationMillis);
+            }
+        });
+        sequence.mImageCapturer.setJpegQuality(mPowerGovernor.getJpegQuality());
+
+        // The current battery state is delivered right away and then on every change
+        if (!mBatteryReceiverRegistered) {
+            registerReceiver(mBatteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            mBatteryReceiverRegistered = true;
+        }
+
+        mScheduler.add(sequence, sequence.mCaptureScheduler, sequence.mGroupKey);
+        updatePictureLimit(sequence.mCameraId);
+
+        // Publish the new status (that the capture has started) and
+        // either start the stream or set an alarm
+        publishStatus();
+        if (sequence.mStreaming) {
+            startStream(sequence);
+        } else if (!mCaptureInProgress) {
+            setAlarm(mCaptureIntent, mScheduler.getNextTime());
+        }
     }
 
     /**
-     * Stop capturing a sequence of images
+     * Stop capturing one or all sequences
+     * @param sequenceName name of the sequence to stop or null for all of them
      *
-     * This may not actually stop the capture immediately since it is
-     * currently not possible to interrupt an individual image capture in
-     * progress.
+     * Pictures in progress that are no longer needed by any sequence are
+     * cancelled. The sequences are ended once the batch has finished.
      */
-    private void stopCapture() {
+    private void stopCapture(CharSequence sequenceName) {
 
         log("Stopping image capture.");
 
-        // If a capture is in progress, set a flag to shutdown after the
-        // capture completes - otherwise, immediately shut down
-        if (mCaptureInProgress) {
-            mPendingShutdown = true;
+        List<Sequence> sequences;
+        if (sequenceName == null) {
+            sequences = mScheduler.getSequences();
         } else {
+            sequences = findSequences(sequenceName);
+        }
 
-            mImageCapturer.close();
-            shutdown();
+        // If a capture is in progress, set a flag to stop once it completes
+        // - otherwise, immediately stop
+        for (Sequence sequence : sequences) {
+            if (mCaptureInProgress) {
+                sequence.mStopRequested = true;
+            } else {
+                endSequence(sequence, null, false);
+            }
+        }
+        if (sequenceName == null && mCaptureInProgress) {
+            mPendingShutdown = true;
+        }
+
+        // Don't wait for the camera to finish pictures that nobody wants
+        if (mCaptureInProgress) {
+            for (List<Sequence> group : mBatch) {
+                if (isStopped(group)) {
+                    group.get(0).mImageCapturer.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine whether every sequence sharing a picture has been stopped
+     * @param group sequences that share the picture
+     */
+    private boolean isStopped(List<Sequence> group) {
+
+        if (mPendingShutdown) {
+            return true;
+        }
+        for (Sequence sequence : group) {
+            if (!sequence.mStopRequested) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
-     * Capture a single image
+     * Stop capturing a sequence because of an error
+     * @param sequence sequence that failed
+     * @param errorMessage human-readable description of the error
      *
-     * The capture process is performed asynchronously and the results are
-     * provided through the two callbacks.
+     * This is used for errors that occur outside of an individual capture
+     * (such as failing to write an image that was captured earlier).
+     */
+    private void abortCapture(Sequence sequence, String errorMessage) {
+
+        log("Error: " + errorMessage);
+
+        // Ignore errors that arrive after the sequence has already ended
+        if (!mScheduler.getSequences().contains(sequence)) {
+            return;
+        }
+
+        // If a capture is in progress, the error is reported once it completes
+        if (mCaptureInProgress) {
+            sequence.mPendingError = errorMessage;
+        } else {
+            endSequence(sequence, errorMessage, true);
+        }
+    }
+
+    /**
+     * Capture the images of every sequence that is due
+     *
+     * Sequences whose slots fall within MERGE_WINDOW of now are captured
+     * together. Each group of sequences with matching camera settings
+     * shares a single picture. Groups for the same camera are taken one
+     * after another while the camera stays open; different cameras are
+     * driven in parallel if the device allows it and are switched between
+     * otherwise.
      */
     private void capture() {
 
-        // Grab the current time for calculating the next alarm interval later
-        final long captureTime = SystemClock.elapsedRealtime();
+        // The alarm may be delivered to a new process after the old one was killed
+        if (mScheduler.isEmpty()) {
+            resumeCapture();
+            return;
+        }
 
-        log("Capturing image #" + String.valueOf(mIndex) + " @ " + String.valueOf(captureTime) + ".");
+        // Captures already underway pick up anything due once they finish
+        if (mCaptureInProgress) {
+            return;
+        }
+
+        mBatch = mScheduler.takeDue(MERGE_WINDOW);
+        if (mBatch.isEmpty()) {
+            setAlarm(mCaptureIntent, mScheduler.getNextTime());
+            return;
+        }
 
         // Signal that the capture is in progress
         mCaptureInProgress = true;
+        mCaptured = new ArrayList<>();
+
+        // Split the groups up by camera (groups are already sorted by camera)
+        Map<Integer, Lane> lanes = new LinkedHashMap<>();
+        for (List<Sequence> group : mBatch) {
+            int cameraId = group.get(0).mCameraId;
+            if (!lanes.containsKey(cameraId)) {
+                lanes.put(cameraId, new Lane(new ArrayList<List<Sequence>>()));
+            }
+            lanes.get(cameraId).mGroups.add(group);
+        }
 
-        // Begin the capture
-        mImageCapturer.startCapture(mIndex, new ImageCapturer.CaptureCallback() {
+        mParallel = mConcurrencyPolicy.shouldCaptureInParallel(lanes.size());
+        if (mParallel) {
+            runLanes(new ArrayList<>(lanes.values()));
+        } else {
+            runLanes(Collections.singletonList(new Lane(mBatch)));
+        }
+    }
 
-            @Override
-            public void onComplete(String errorMessage) {
+    /**
+     * Start capturing every lane at once
+     * @param lanes lanes to capture
+     */
+    private void runLanes(List<Lane> lanes) {
 
-                // Log the status of the capture
-                if (errorMessage == null) {
-                    log("Image #" + String.valueOf(mIndex) + " captured.");
-                } else {
-                    log("Error: " + errorMessage);
+        mLanes = lanes;
+        mLanesRemaining = lanes.size();
+        for (Lane lane : lanes) {
+            captureNext(lane);
+        }
+    }
+
+    /**
+     * Take the picture for the next group in a lane
+     * @param lane lane to continue
+     *
+     * Once every lane is done, the batch is finished.
+     */
+    private void captureNext(Lane lane) {
+
+        // Move on to the next group, passing over any that were stopped
+        while (lane.mNext < lane.mGroups.size() && isStopped(lane.mGroups.get(lane.mNext))) {
+            lane.mNext++;
+        }
+        if (lane.mNext < lane.mGroups.size()) {
+            captureGroup(lane, lane.mGroups.get(lane.mNext++));
+        } else if (--mLanesRemaining == 0) {
+            onLanesFinished();
+        }
+    }
+
+    /**
+     * Take the picture for a group in a lane
+     * @param lane lane the group belongs to
+     * @param group sequences that share the picture
+     */
+    private void captureGroup(final Lane lane, final List<Sequence> group) {
+
+        Sequence lead = group.get(0);
+
+        // Unless the cameras are used in parallel, only one can be open at a time
+        if (!mParallel) {
+            for (Sequence sequence : mScheduler.getSequences()) {
+                if (sequence.mCameraId != lead.mCameraId) {
+                    sequence.mImageCapturer.close();
                 }
+            }
+        }
 
-                // Capture is no longer in progress
-                mCaptureInProgress = false;
+        // Every sequence in the group receives the picture taken for the first
+        List<ImageCapturer> followers = new ArrayList<>();
+        int[] followerIndices = new int[group.size() - 1];
+        for (Sequence sequence : group) {
+
+            // Record how far from its slot on the grid this capture is starting
+            long scheduleError = sequence.mCaptureScheduler.onCaptureStarted();
+            sequence.mImageCapturer.getMetrics().record(CaptureStage.SCHEDULE, sequence.mIndex,
+                    Math.abs(scheduleError));
+
+            // The actual time since the previous capture is kept for playback
+            long now = SystemClock.elapsedRealtime();
+            if (sequence.mLastCaptureStart != 0) {
+                sequence.mImageCapturer.getMetrics().record(CaptureStage.INTERVAL, sequence.mIndex,
+                        now - sequence.mLastCaptureStart);
+            }
+            sequence.mLastCaptureStart = now;
 
-                // Shutdown the capture if one of the following occurred:
-                // - the capture was stopped (mPendingShutdown)
-                // - an error message was supplied
-                // - a limit was supplied and it has been reached
-                if (mPendingShutdown || errorMessage != null || mLimit != 0 && (mIndex + 1) == mLimit) {
+            log("Capturing image #" + String.valueOf(sequence.mIndex) + " of \"" + sequence.mName +
+                    "\" (" + String.valueOf(scheduleError) + " ms from schedule).");
 
-                    // Close the camera since it won't be needed anymore
-                    mImageCapturer.close();
+            if (sequence != lead) {
+                followerIndices[followers.size()] = sequence.mIndex;
+                followers.add(sequence.mImageCapturer);
+            }
+        }
 
-                    // Display a notification unless the capture was stopped
-                    if (!mPendingShutdown) {
-                        displayCompletionNotification(errorMessage);
+        // Begin the capture
+        lead.mImageCapturer.startCapture(lead.mIndex, followers, followerIndices,
+                new ImageCapturer.CaptureCallback() {
+
+                    @Override
+                    public void onComplete(String errorMessage) {
+
+                        // A picture cancelled by a stop request has nothing to record
+                        if (errorMessage != null && isStopped(group)) {
+                            captureNext(lane);
+                            return;
+                        }
+
+                        // A failure while the cameras are used in parallel
+                        // may only mean that the device can't do that, so
+                        // the group is retried later on its own
+                        if (mParallel && errorMessage != null) {
+                            log("Error: " + errorMessage);
+                            lane.mFailed.add(group);
+                        } else {
+                            for (Sequence sequence : group) {
+                                onCaptureComplete(sequence, errorMessage);
+                                if (sequence.mPendingError == null) {
+                                    mCaptured.add(sequence);
+                                }
+                            }
+                        }
+
+                        captureNext(lane);
                     }
+                });
+    }
+
+    /**
+     * Finish the batch once every lane is done
+     *
+     * If any group failed while the cameras were used in parallel, those
+     * groups are captured again one camera at a time before the batch is
+     * finished.
+     */
+    private void onLanesFinished() {
+
+        if (mParallel) {
+
+            List<List<Sequence>> failed = new ArrayList<>();
+            for (Lane lane : mLanes) {
+                failed.addAll(lane.mFailed);
+            }
+
+            mConcurrencyPolicy.onParallelCapture(failed.isEmpty());
+            if (!failed.isEmpty()) {
+                log("Unable to capture from the cameras in parallel - switching between them instead.");
+                closeCameras();
+                mParallel = false;
+                runLanes(Collections.singletonList(new Lane(failed)));
+                return;
+            }
+        }
+
+        reportSkew();
+        finishBatch();
+    }
+
+    /**
+     * Record how far apart the cameras of each sequence captured their images
+     *
+     * The skew is recorded against the image in each camera's copy of the
+     * sequence.
+     */
+    private void reportSkew() {
+
+        Map<String, List<Sequence>> sequences = new HashMap<>();
+        for (Sequence sequence : mCaptured) {
+            if (sequence.mCameraCount > 1) {
+                String name = sequence.mName.toString();
+                if (!sequences.containsKey(name)) {
+                    sequences.put(name, new ArrayList<Sequence>());
+                }
+                sequences.get(name).add(sequence);
+            }
+        }
+
+        for (Map.Entry<String, List<Sequence>> entry : sequences.entrySet()) {
+
+            List<Sequence> cameras = entry.getValue();
+            if (cameras.size() < 2) {
+                continue;
+            }
 
-                    mPendingShutdown = false;
-                    shutdown();
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (Sequence sequence : cameras) {
+                first = Math.min(first, sequence.mImageCapturer.getCaptureTime());
+                last = Math.max(last, sequence.mImageCapturer.getCaptureTime());
+            }
 
-                } else {
+            long skew = last - first;
+            for (Sequence sequence : cameras) {
+                sequence.mLastSkew = skew;
+                sequence.mImageCapturer.getMetrics().record(CaptureStage.SKEW, sequence.mIndex - 1, skew);
+            }
 
-                    // Increment the counter and broadcast the status
-                    mIndex++;
-                    broadcastStatus();
+            log("Cameras for \"" + entry.getKey() + "\" captured " + String.valueOf(skew) + " ms apart.");
+        }
+    }
 
-                    // If the interval is greater than 10s, close the camera - otherwise keep it open
-                    if (mInterval > 10000) {
-                        mImageCapturer.close();
+    /**
+     * Finish the current batch and schedule the next one
+     *
+     * Sequences that were stopped, failed, or reached their limit while the
+     * batch was in progress are ended here.
+     */
+    private void finishBatch() {
+
+        // Capture is no longer in progress
+        mCaptureInProgress = false;
+        List<List<Sequence>> batch = mBatch;
+        mBatch = null;
+        mLanes = null;
+        mCaptured = null;
+
+        // End the sequences that are done - the user has already seen the
+        // ones that were stopped, so they don't get a notification
+        boolean pendingShutdown = mPendingShutdown;
+        mPendingShutdown = false;
+        for (Sequence sequence : mScheduler.getSequences()) {
+            boolean stopped = pendingShutdown || sequence.mStopRequested;
+            if (stopped || sequence.mPendingError != null || isComplete(sequence)) {
+                endSequence(sequence, sequence.mPendingError, !stopped);
+            }
+        }
+        if (mScheduler.isEmpty()) {
+            return;
+        }
+
+        // Return the remaining sequences to the queue at their next slot
+        for (List<Sequence> group : batch) {
+            for (Sequence sequence : group) {
+                mScheduler.reschedule(sequence);
+            }
+        }
+
+        // Set an alarm for the next slot on any grid
+        long nextSlotTime = mScheduler.getNextTime();
+        setAlarm(mCaptureIntent, nextSlotTime);
+
+        // Close the camera if it will be idle long enough to be worth it (or
+        // if it must be reopened for a new sequence to share it) and arrange
+        // for it to be reopened in time
+        long idleTime = nextSlotTime - SystemClock.elapsedRealtime();
+        boolean reopenCameras = mReopenCameras;
+        mReopenCameras = false;
+        if (reopenCameras || !mWarmupPolicy.shouldKeepOpen(idleTime) ||
+                mPowerGovernor.shouldCloseCamera()) {
+
+            closeCameras();
+
+            long warmUpTime = nextSlotTime - mWarmupPolicy.getLeadTime();
+            if (warmUpTime > SystemClock.elapsedRealtime()) {
+                setAlarm(mWarmUpIntent, warmUpTime);
+            }
+        }
+    }
+
+    /**
+     * Start capturing frames from the preview stream
+     * @param sequence sequence to capture
+     *
+     * Instead of alarms, frames are taken from the stream whenever a slot
+     * is due and onCaptureComplete() is invoked for each of them. A wake
+     * lock keeps the CPU running for as long as the stream does.
+     */
+    private void startStream(final Sequence sequence) {
+
+        log("Capturing from the preview stream.");
+
+        mStreaming = true;
+        mWakeLock.acquire();
+
+        sequence.mImageCapturer.startStream(sequence.mIndex, sequence.mCaptureScheduler,
+                new ImageCapturer.CaptureCallback() {
+
+                    @Override
+                    public void onComplete(String errorMessage) {
+
+                        onCaptureComplete(sequence, errorMessage);
+
+                        // Frames keep arriving, so the sequence ends right away
+                        if (sequence.mPendingError != null || isComplete(sequence)) {
+                            endSequence(sequence, sequence.mPendingError, true);
+                        }
                     }
+                });
+    }
+
+    /**
+     * Process the result of a single capture for a sequence
+     * @param sequence sequence the image was captured for
+     * @param errorMessage descriptive message if an error occurred or null
+     *
+     * Errors are stored in the sequence and acted upon by the caller.
+     */
+    private void onCaptureComplete(Sequence sequence, String errorMessage) {
+
+        // An error reported while the capture was in progress takes effect now
+        if (errorMessage == null) {
+            errorMessage = sequence.mPendingError;
+        }
+        sequence.mPendingError = errorMessage;
+
+        // Log the status of the capture
+        if (errorMessage != null) {
+            log("Error: " + errorMessage);
+            return;
+        }
+        log("Image #" + String.valueOf(sequence.mIndex) + " of \"" + sequence.mName + "\" captured.");
+
+        // Adjust the time until the next capture to the scene - this has to
+        // happen before the sequence is rescheduled
+        long interval = sequence.mAdaptiveInterval.onSceneChange(
+                sequence.mImageCapturer.getSceneChange()) * mPowerGovernor.getIntervalFactor();
+        if (interval != sequence.mCaptureScheduler.getInterval()) {
+            log("Interval of \"" + sequence.mName + "\" changed to " + String.valueOf(interval) + " ms.");
+            sequence.mCaptureScheduler.setInterval(interval);
+        }
+
+        // Record the capture so that the sequence can resume after it
+        try {
+            sequence.mJournal.append(sequence.mIndex, sequence.mCaptureScheduler.getAnchor(),
+                    sequence.mCaptureScheduler.getLastSlot(), sequence.mCaptureScheduler.getInterval());
+        } catch (IOException e) {
+            log("Unable to update journal: " + e.getMessage());
+        }
+
+        // Increment the counter and publish the status
+        sequence.mIndex++;
+        publishStatus();
+    }
+
+    /**
+     * Open the camera ahead of the next capture
+     */
+    private void warmUp() {
+
+        // The alarm may be delivered after the capture was stopped or to a
+        // new process after the old one was killed
+        if (mScheduler.isEmpty()) {
+            resumeCapture();
+            return;
+        }
+
+        Sequence next = mScheduler.peek();
+        if (mCaptureInProgress || next == null) {
+            return;
+        }
+
+        log("Opening camera " + String.valueOf(mWarmupPolicy.getLeadTime()) + " ms ahead of capture.");
+
+        next.mImageCapturer.prepare();
+
+        // Cameras that are known to work in parallel can all be opened
+        if (mConcurrencyPolicy.getMode() == CameraConcurrencyPolicy.Mode.PARALLEL) {
+            for (Sequence sequence : mScheduler.getSequences()) {
+                sequence.mImageCapturer.prepare();
+            }
+        }
+    }
+
+    /**
+     * End a sequence and shut down the service if it was the last one
+     * @param sequence sequence to end
+     * @param errorMessage description of the error that ended it or null
+     * @param notify true to display a completion notification
+     *
+     * This should never be called while a capture is in progress.
+     */
+    private void endSequence(Sequence sequence, String errorMessage, boolean notify) {
+
+        log("Ending \"" + sequence.mName + "\".");
+
+        mScheduler.remove(sequence);
+
+        // Images already captured continue to be written in the background -
+        // a camera that other sequences still use is left for finishBatch()
+        // to close when the warm-up policy says so
+        boolean cameraInUse = false;
+        for (Sequence other : mScheduler.getSequences()) {
+            if (other.mCameraId == sequence.mCameraId) {
+                cameraInUse = true;
+            }
+        }
+        sequence.mImageCapturer.shutdown(!cameraInUse);
+
+        // The sequence is over and must not be resumed
+        sequence.mJournal.end();
+
+        if (notify) {
+            displayCompletionNotification(sequence, errorMessage);
+        }
+
+        if (mScheduler.isEmpty()) {
+            shutdown();
+        } else {
+            publishStatus();
+        }
+    }
+
+    /**
+     * Determine whether a sequence has captured all of its images
+     */
+    private boolean isComplete(Sequence sequence) {
+        return sequence.mLimit != 0 && sequence.mIndex >= sequence.mLimit;
+    }
+
+    /**
+     * Find the running sequences with a name (one for each camera)
+     * @return sequences or an empty list if no sequence has that name
+     */
+    private List<Sequence> findSequences(CharSequence sequenceName) {
+        List<Sequence> sequences = new ArrayList<>();
+        for (Sequence sequence : mScheduler.getSequences()) {
+            if (sequence.mName.toString().equals(sequenceName.toString())) {
+                sequences.add(sequence);
+            }
+        }
+        return sequences;
+    }
+
+    /**
+     * Parse the camera preference
+     * @param value comma-separated list of camera IDs
+     * @return camera IDs
+     */
+    private static int[] parseCameraIds(String value) {
+        String[] parts = value.split(",");
+        int[] cameraIds = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            cameraIds[i] = Integer.parseInt(parts[i].trim());
+        }
+        return cameraIds;
+    }
 
-                    // Set an alarm for the next capture
-                    setAlarm(captureTime + mInterval);
+    /**
+     * Determine the directory that a sequence's images are written to
+     *
+     * A sequence captured from several cameras has a subdirectory for each.
+     */
+    private static File getSequencePath(Sequence sequence) {
+        File path = ImageCapturer.getSequencePath(sequence.mName);
+        if (sequence.mCameraCount > 1) {
+            path = new File(path, "camera" + String.valueOf(sequence.mCameraId));
+        }
+        return path;
+    }
+
+    /**
+     * Find the lowest ID not in use by a running sequence
+     */
+    private int allocateSequenceId() {
+        int id = 0;
+        for (boolean used = true; used; ) {
+            used = false;
+            for (Sequence sequence : mScheduler.getSequences()) {
+                if (sequence.mId == id) {
+                    used = true;
+                    id++;
+                    break;
                 }
             }
-        });
+        }
+        return id;
+    }
+
+    /**
+     * Determine the wall clock time at which the device booted
+     */
+    private static long getBootEpoch() {
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Retrieve the journal for a sequence
+     * @param id ID of the sequence
+     */
+    private File getJournalFile(int id) {
+        return new File(mJournalDirectory, String.valueOf(id) + ".journal");
+    }
+
+    /**
+     * Retrieve the backend for a camera, creating it the first time
+     * @param cameraId ID of the camera
+     * @return backend shared by every sequence using the camera
+     */
+    private CameraBackend getCameraBackend(int cameraId) {
+        CameraBackend backend = mCameraBackends.get(cameraId);
+        if (backend == null) {
+            backend = new SharedCameraBackend(ImageCapturer.createCameraBackend(this, cameraId));
+            mCameraBackends.put(cameraId, backend);
+        }
+        return backend;
+    }
+
+    /**
+     * Let a camera hold pictures for every sequence that shares it
+     * @param cameraId ID of the camera
+     *
+     * A camera that is already open only picks up the new limit when it is
+     * reopened, so it is closed right away or once the current batch is done.
+     */
+    private void updatePictureLimit(int cameraId) {
+
+        int capturers = 0;
+        for (Sequence sequence : mScheduler.getSequences()) {
+            if (sequence.mCameraId == cameraId) {
+                capturers++;
+            }
+        }
+
+        if (getCameraBackend(cameraId).setPictureLimit(ImageCapturer.getPictureLimit(capturers))) {
+            if (mCaptureInProgress) {
+                mReopenCameras = true;
+            } else {
+                closeCameras();
+            }
+        }
+    }
+
+    /**
+     * Close the camera for every sequence
+     *
+     * Each capturer is closed so that none of them is left waiting for a
+     * camera that is no longer being opened.
+     */
+    private void closeCameras() {
+        for (Sequence sequence : mScheduler.getSequences()) {
+            sequence.mImageCapturer.close();
+        }
+    }
+
+    /**
+     * Reload the preferences written by the settings activity
+     *
+     * The activity runs in a different process, so the copy cached by this
+     * process has to be refreshed explicitly.
+     */
+    @SuppressWarnings("deprecation")
+    private void reloadPreferences() {
+        mSharedPreferences = getSharedPreferences(getPackageName() + "_preferences",
+                Context.MODE_MULTI_PROCESS);
+
+        // The throttle is kept so that a delivery already scheduled still counts
+        long statusInterval = Long.parseLong(
+                pref(R.string.pref_status_interval_key, R.string.pref_status_interval_default));
+        if (mStatusThrottle == null) {
+            mStatusThrottle = new StatusThrottle(ElapsedRealtimeClock.INSTANCE, statusInterval);
+        } else {
+            mStatusThrottle.setMinInterval(statusInterval);
+        }
+
+        // The governor keeps its level for as long as anything is being captured
+        if (mScheduler.isEmpty()) {
+            mPowerGovernor = PowerGovernor.parse(
+                    pref(R.string.pref_governor_key, R.string.pref_governor_default));
+        }
     }
 
     /**
@@ -338,10 +1700,11 @@ public class CaptureService extends Service {
     }
 
     /**
-     * Display a notification once the transfer is complete
+     * Display a notification once a sequence is complete
+     * @param sequence sequence that completed
      * @param errorMessage a description of the error message or null if no error occurred
      */
-    private void displayCompletionNotification(String errorMessage) {
+    private void displayCompletionNotification(Sequence sequence, String errorMessage) {
 
         // TODO: error message is not localized
 
@@ -352,6 +1715,7 @@ public class CaptureService extends Service {
                         getText(R.string.notification_status_complete) :
                         "Error: " + errorMessage)
                 .setContentTitle(getText(R.string.notification_title))
+                .setSubText(sequence.mName)
                 .setSmallIcon(R.drawable.ic_stat_notify)
                 .build();
 
@@ -359,23 +1723,25 @@ public class CaptureService extends Service {
         NotificationManager notificationManager =
                 (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
 
-        notificationManager.notify(0, notification);
+        // Each sequence gets its own notification
+        notificationManager.notify(sequence.mName.toString(), 0, notification);
     }
 
     /**
-     * Set the alarm for the next capture
-     * @param triggerAtMillis time at which to capture the next image
+     * Set an alarm for the next capture or warm up
+     * @param operation intent to deliver when the alarm goes off
+     * @param triggerAtMillis time at which to deliver the intent
      */
-    private void setAlarm(long triggerAtMillis) {
+    private void setAlarm(PendingIntent operation, long triggerAtMillis) {
 
         log("Setting alarm for " + String.valueOf(triggerAtMillis) + ".");
 
         // For KitKat and newer devices, we need to use setExact or we don't
         // end up with the same level of precision as earlier versions
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            mAlarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, mCaptureIntent);
+            mAlarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, operation);
         } else {
-            mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, mCaptureIntent);
+            mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, operation);
         }
     }
 
@@ -383,8 +1749,8 @@ public class CaptureService extends Service {
      * Completely abort the capture
      *
      * All alarms are canceled, the service is pulled out of the foreground,
-     * variables are reset, and the status is broadcast one last time. This
-     * should never be called while a single image capture is in progress.
+     * and the status is published one last time. This is called once the
+     * last sequence has ended.
      */
     private void shutdown() {
 
@@ -392,10 +1758,20 @@ public class CaptureService extends Service {
 
         // Cancel any pending alarms and leave the foreground
         mAlarmManager.cancel(mCaptureIntent);
+        mAlarmManager.cancel(mWarmUpIntent);
         stopForeground(true);
 
-        // Reset the start time and broadcast this status
-        mStartTime = 0;
-        broadcastStatus();
+        if (mWakeLock.isHeld()) {
+            mWakeLock.release();
+        }
+
+        if (mBatteryReceiverRegistered) {
+            unregisterReceiver(mBatteryReceiver);
+            mBatteryReceiverRegistered = false;
+        }
+
+        // Publish the status (that nothing is being captured)
+        mStreaming = false;
+        publishStatus();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,20 @@
+package com.nathanosman.chronosnap.service;
+
+import android.os.SystemClock;
+
+
+/**
+ * Clock backed by SystemClock.elapsedRealtime()
+ */
+public class ElapsedRealtimeClock implements Clock {
+
+    /**
+     * Shared instance (the clock has no state)
+     */
+    public static final Clock INSTANCE = new ElapsedRealtimeClock();
+
+    @Override
+    public long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -0,0 +1,46 @@
+package com.nathanosman.chronosnap.service;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+/**
+ * Preallocator backed by posix_fallocate()
+ *
+ * Unlike extending the file, this allocates the blocks up front. Some
+ * filesystems (such as the FAT filesystems used on SD cards) do not support
+ * it, in which case the file is simply extended instead.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class FallocatePreallocator implements Preallocator {
+
+    /**
+     * Shared instance (the preallocator has no state)
+     */
+    public static final Preallocator INSTANCE = new FallocatePreallocator();
+
+    @Override
+    public void preallocate(RandomAccessFile file, long length) throws IOException {
+
+        long size = file.length();
+        if (length <= size) {
+            return;
+        }
+
+        try {
+            Os.posix_fallocate(file.getFD(), size, length - size);
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.EOPNOTSUPP || e.errno == OsConstants.ENOSYS) {
+                file.setLength(length);
+            } else {
+                throw new IOException(e.getMessage());
+            }
+        }
+    }
+}
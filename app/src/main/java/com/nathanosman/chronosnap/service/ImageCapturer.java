@@ -1,27 +1,164 @@
 package com.nathanosman.chronosnap.service;
 
 import android.content.Context;
-import android.graphics.SurfaceTexture;
-import android.hardware.Camera;
-import android.media.MediaScannerConnection;
-import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.nathanosman.chronosnap.R;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 
 /**
  * Abstracts the process of capturing an image
  *
  * This class takes care of initializing the camera, applying any settings that are required,
- * attempting to auto-focus if requested, taking the picture, and writing it to disk.
+ * attempting to auto-focus if requested, taking the picture, and handing it off to be written
+ * to disk. The camera itself is driven through a CameraBackend so that Camera2 can be used
+ * where it is available.
+ *
+ * Everything that touches the camera runs on the camera thread (see CameraThread), where a
+ * CameraController takes the camera through each capture, so that focus and shutter
+ * callbacks are never held up by the main thread. The public methods are called from the
+ * main thread and results are delivered there.
  */
 public class ImageCapturer {
 
+    /**
+     * Largest number of frames waiting to be written to disk
+     */
+    private static final int MAX_WRITE_QUEUE_CAPACITY = 4;
+
+    /**
+     * Size assumed for a full-resolution frame when sizing the write queue
+     */
+    private static final long ESTIMATED_FRAME_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Number of buffers in the preview stream pool
+     */
+    private static final int STREAM_BUFFER_COUNT = 4;
+
+    /**
+     * JPEG quality used when encoding preview frames
+     */
+    private static final int STREAM_JPEG_QUALITY = 90;
+
+    /**
+     * Name of the file in the sequence directory that stage timings are logged to
+     */
+    private static final String TIMINGS_FILENAME = "timings.csv";
+
+    /**
+     * Playback frame rate of the video built during capture
+     */
+    private static final int VIDEO_FRAME_RATE = 30;
+
+    /**
+     * Focus behavior before each capture
+     */
+    public enum Focus {
+
+        /**
+         * Never focus
+         */
+        NONE,
+
+        /**
+         * Run a full autofocus cycle before every capture
+         */
+        AUTO,
+
+        /**
+         * Focus once and refocus only when the scene changes or the image gets soft
+         */
+        LOCK
+    }
+
+    /**
+     * Exposure behavior across the sequence
+     */
+    public enum Exposure {
+
+        /**
+         * Let the camera meter every capture on its own
+         */
+        AUTO,
+
+        /**
+         * Meter once and lock exposure and white balance
+         */
+        LOCK,
+
+        /**
+         * Lock exposure and white balance and ramp compensation as the light changes
+         */
+        RAMP
+    }
+
+    /**
+     * Format used for storing the frames of the sequence
+     */
+    public enum Storage {
+
+        /**
+         * Store each frame as an individual JPEG file
+         */
+        FILES,
+
+        /**
+         * Append every frame to a single indexed container file
+         */
+        CONTAINER
+    }
+
+    /**
+     * Settings that stay fixed for as long as a sequence is captured
+     *
+     * The defaults capture individual files without focusing, analyzing,
+     * or limiting anything.
+     */
+    public static class Settings {
+
+        // Camera behavior before each capture (refocusInterval is the
+        // number of images after which a locked focus is refreshed)
+        public Focus focus = Focus.NONE;
+        public int refocusInterval;
+        public Exposure exposure = Exposure.AUTO;
+
+        // Format of the images, number of images in the sequence (0 for no
+        // limit), and number of images in each directory (0 for a single
+        // directory)
+        public Storage storage = Storage.FILES;
+        public int limit;
+        public int shardSize;
+
+        // How often written images are synced, bytes reserved at a time for
+        // the container (0 for none), how many of the newest images are
+        // kept, and how often they are added to the media store
+        public DurabilityPolicy durability = DurabilityPolicy.none();
+        public long preallocateSize;
+        public RetentionPolicy retention = RetentionPolicy.unlimited();
+        public MediaScanPolicy scanPolicy = MediaScanPolicy.perFrame();
+
+        // Behavior when images are captured faster than they can be written
+        public FrameWriter.Backpressure backpressure = FrameWriter.Backpressure.BLOCK;
+
+        // Which images are skipped as nearly identical to an earlier one,
+        // whether the change between images is measured, and whether an
+        // MJPEG AVI video is built alongside the images
+        public StaticFrameDetector staticFrames = StaticFrameDetector.none();
+        public boolean measureSceneChange;
+        public boolean buildVideo;
+    }
+
     /**
      * Callback interface used to provide notification of capture state
      *
@@ -35,42 +172,310 @@ public class ImageCapturer {
          * @param errorMessage descriptive message if an error occurred or null
          *
          * errorMessage will be null if no error has occurred. Otherwise it
-         * contains a human-readable description of the error.
+         * contains a human-readable description of the error. Completion
+         * means that the image was queued for writing, not that it has
+         * reached the disk.
          */
         void onComplete(String errorMessage);
     }
 
+    /**
+     * Callback interface used to report errors that occur after a capture completes
+     */
+    public interface ErrorListener {
+
+        /**
+         * Called when a previously captured image could not be written
+         * @param errorMessage human-readable description of the error
+         */
+        void onError(String errorMessage);
+    }
+
     // Data initialized in the constructor
-    private Context mContext;
-    private int mCameraId;
-    private boolean mAutofocus;
+    private CameraBackend mCameraBackend;
+    private Focus mFocus;
+    private FocusLockPolicy mFocusLockPolicy;
+    private ExposureController mExposureController;
     private File mSequencePath;
-
-    // Data initialized by startCapture()
+    private JpegFileSink mJpegFileSink;
+    private AviFrameSink mAviFrameSink;
+    private RetentionSink mRetentionSink;
+    private FrameWriter mFrameWriter;
+    private MediaScanBatcher mMediaScanBatcher;
+    private ThumbnailSink mThumbnailSink;
+    private CaptureMetrics mMetrics;
+    private String mCancelledMessage;
+    private Handler mHandler;
+    private Handler mCameraHandler;
+    private CameraController mCameraController;
+
+    // Data initialized by startCapture() (used on the camera thread)
     private int mIndex;
+    private List<ImageCapturer> mFollowers;
+    private int[] mFollowerIndices;
     private CaptureCallback mCaptureCallback;
 
-    // Connection to the camera (may be maintained for multiple captures)
-    // Because this app works on 4.0.4+, we can't easily use the Camera2 API
-    @SuppressWarnings("deprecation")
-    private Camera mCamera;
+    // JPEG quality requested by setJpegQuality() (used on the camera thread)
+    private int mJpegQuality;
+
+    // Time at which the most recent image was taken
+    private volatile long mCaptureTime;
+
+    // Number of images skipped by the filter and the change between the
+    // two most recent images analyzed (updated on the writer thread)
+    private volatile int mSkippedCount;
+    private volatile double mSceneChange = -1;
+    private Thumbnail mLastThumbnail;
+
+    // Changes whenever the capturer is closed so that results still on
+    // their way to the main thread are dropped (used on the main thread)
+    private int mGeneration;
+
+    // Data initialized by startStream() (used on the camera thread)
+    private CaptureScheduler mCaptureScheduler;
+    private PreviewFrameEncoder mPreviewFrameEncoder;
+
+    // Receives write errors and stage timings
+    private ErrorListener mErrorListener;
+    private CameraBackend.StageListener mStageListener;
 
     /**
      * Initialize the capturer
      * @param context calling context
      * @param cameraId ID of the camera to use for capturing
-     * @param autofocus true to force the camera to focus before capture
      * @param sequenceName user-supplied name for the sequence
+     * @param settings settings for the sequence
      */
-    public ImageCapturer(Context context, int cameraId, boolean autofocus, CharSequence sequenceName) {
+    public ImageCapturer(Context context, int cameraId, CharSequence sequenceName,
+                         Settings settings) {
+        this(context, createCameraBackend(context, cameraId), getSequencePath(sequenceName),
+                settings);
+    }
+
+    /**
+     * Initialize the capturer with an explicit camera backend
+     * @param context calling context
+     * @param cameraBackend backend used to drive the camera
+     * @param sequencePath directory that images are written to
+     * @param settings settings for the sequence
+     */
+    ImageCapturer(Context context, CameraBackend cameraBackend, File sequencePath,
+                  Settings settings) {
+
+        mCameraBackend = cameraBackend;
+        mFocus = settings.focus;
+        mSequencePath = sequencePath;
+        mCancelledMessage = context.getString(R.string.error_cancelled);
+        mMetrics = new CaptureMetrics(ElapsedRealtimeClock.INSTANCE, new File(sequencePath, TIMINGS_FILENAME));
+        mMediaScanBatcher = new MediaScanBatcher(context, settings.scanPolicy, mMetrics);
+
+        // Every frame is stored in the chosen format and optionally appended to the video
+        List<FrameSink> sinks = new ArrayList<>();
+        switch (settings.storage) {
+            case FILES:
+                mJpegFileSink = new JpegFileSink(new FrameNaming(sequencePath, settings.limit,
+                        settings.shardSize), settings.durability);
+                sinks.add(mJpegFileSink);
+                break;
+            case CONTAINER:
+                sinks.add(new SequenceContainerSink(sequencePath, settings.durability,
+                        settings.preallocateSize, createPreallocator()));
+                break;
+        }
+        if (settings.buildVideo) {
+            mAviFrameSink = new AviFrameSink(sequencePath, VIDEO_FRAME_RATE);
+            sinks.add(mAviFrameSink);
+        }
+
+        // Only individual files can be evicted, but the size of every frame is tracked
+        if (settings.retention.isLimited() && mJpegFileSink == null) {
+            log("Old images can only be removed when they are stored as individual files.");
+        }
+        mRetentionSink = new RetentionSink(settings.retention, mJpegFileSink, mRetentionListener);
+        sinks.add(mRetentionSink);
+
+        // A locked focus and exposure, as well as the change in the scene, are
+        // checked against a thumbnail of every frame (decoded only once even
+        // if static frames are left out as well)
+        ThumbnailDecoder thumbnailDecoder = new ThumbnailDecoder();
+        if (settings.focus == Focus.LOCK) {
+            mFocusLockPolicy = new FocusLockPolicy(settings.refocusInterval);
+        }
+        if (settings.exposure != Exposure.AUTO) {
+            mExposureController = new ExposureController(settings.exposure == Exposure.RAMP);
+        }
+        if (mFocusLockPolicy != null || mExposureController != null ||
+                settings.measureSceneChange) {
+            mThumbnailSink = new ThumbnailSink(thumbnailDecoder, new ThumbnailSink.Listener() {
 
-        mContext = context;
-        mCameraId = cameraId;
-        mAutofocus = autofocus;
-        mSequencePath = new File(
-                Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM),
-                "ChronoSnap" + File.separator + sequenceName
-        );
+                @Override
+                public void onThumbnail(int index, Thumbnail thumbnail) {
+                    if (mLastThumbnail != null) {
+                        mSceneChange = mLastThumbnail.getDifference(thumbnail);
+                    }
+                    mLastThumbnail = thumbnail;
+                    if (mFocusLockPolicy != null) {
+                        mFocusLockPolicy.onFrameAnalyzed(index, thumbnail);
+                    }
+                    if (mExposureController != null) {
+                        mExposureController.onFrameAnalyzed(index, thumbnail);
+                    }
+                }
+            });
+            sinks.add(mThumbnailSink);
+        }
+
+        // Images of a static scene are left out before they reach any of the sinks
+        FrameFilter filter = null;
+        if (settings.staticFrames.isEnabled()) {
+            filter = new StaticFrameFilter(settings.staticFrames, thumbnailDecoder);
+        }
+
+        mFrameWriter = new FrameWriter(getWriteQueueCapacity(), settings.backpressure, sinks, filter,
+                PipelineMemory.getBudget(), mWriterListener);
+        mHandler = new Handler(Looper.getMainLooper());
+        mCameraHandler = new Handler(CameraThread.getLooper());
+        mCameraController = new CameraController(cameraBackend, mControllerListener);
+    }
+
+    /**
+     * Determine the directory that images for a sequence are written to
+     * @param sequenceName user-supplied name for the sequence
+     * @return directory within DCIM
+     */
+    static File getSequencePath(CharSequence sequenceName) {
+        return new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM),
+                "ChronoSnap" + File.separator + sequenceName);
+    }
+
+    /**
+     * Create the most capable camera backend for the current device
+     * @param context calling context
+     * @param cameraId ID of the camera to use for capturing
+     * @return camera backend driven from the camera thread
+     */
+    static CameraBackend createCameraBackend(Context context, int cameraId) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return new Camera2Backend(context, cameraId, getPictureLimit(1),
+                    CameraThread.getLooper());
+        } else {
+            return new LegacyCameraBackend(context, cameraId, CameraThread.getLooper());
+        }
+    }
+
+    /**
+     * Work out how many pictures a camera may need to hold at once
+     * @param capturers number of capturers sharing the camera
+     *
+     * Each capturer may have a full queue plus the frame being written (a
+     * frame shared between capturers counts against each of them until
+     * every one has written it) and one more picture may be on its way.
+     */
+    static int getPictureLimit(int capturers) {
+        return capturers * (getWriteQueueCapacity() + 1) + 1;
+    }
+
+    /**
+     * Work out how many frames may wait to be written from the size of the heap
+     */
+    private static int getWriteQueueCapacity() {
+        return PipelineMemory.getBudget().getQueueCapacity(ESTIMATED_FRAME_SIZE,
+                MAX_WRITE_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Create the most capable preallocator for the current device
+     * @return preallocator or null if the file can only be extended
+     */
+    private static Preallocator createPreallocator() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return FallocatePreallocator.INSTANCE;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Set the listener for errors that occur after a capture has completed
+     * @param errorListener listener invoked on the main thread
+     */
+    public void setErrorListener(ErrorListener errorListener) {
+        mErrorListener = errorListener;
+    }
+
+    /**
+     * Set the listener for stage timings reported by the camera
+     * @param stageListener listener invoked on the main thread
+     */
+    public void setStageListener(CameraBackend.StageListener stageListener) {
+        mStageListener = stageListener;
+    }
+
+    /**
+     * Retrieve the timings collected for the sequence
+     */
+    public CaptureMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Retrieve the directory that images are written to
+     */
+    public File getSequencePath() {
+        return mSequencePath;
+    }
+
+    /**
+     * Retrieve how much the scene changed between the two most recent images analyzed
+     * @return mean absolute luma difference or -1 if not known yet
+     *
+     * Images are analyzed once they have been written, so this usually
+     * lags the most recent capture by one image.
+     */
+    public double getSceneChange() {
+        return mSceneChange;
+    }
+
+    /**
+     * Retrieve the number of images skipped as nearly identical to an earlier one
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Retrieve the running index of the images kept on storage
+     */
+    public RetentionSink getRetentionSink() {
+        return mRetentionSink;
+    }
+
+    /**
+     * Retrieve the time at which the most recent image was taken
+     *
+     * For an image shared by another capturer, this is the time that the
+     * other capturer took it.
+     */
+    public long getCaptureTime() {
+        return mCaptureTime;
+    }
+
+    /**
+     * Open the camera ahead of the next capture
+     *
+     * This does nothing if the camera is already open or being opened.
+     * Errors are not reported here; they resurface when startCapture()
+     * attempts to open the camera again.
+     */
+    public void prepare() {
+        mCameraHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                mCameraBackend.setStageListener(mBackendStageListener);
+                mCameraController.prepare();
+            }
+        });
     }
 
     /**
@@ -79,152 +484,493 @@ public class ImageCapturer {
      * @param captureCallback callback for capture events
      */
     public void startCapture(int index, CaptureCallback captureCallback) {
+        startCapture(index, Collections.<ImageCapturer>emptyList(), new int[0], captureCallback);
+    }
+
+    /**
+     * Start capture of an image that is shared with other capturers
+     * @param index numerical index of the image in this capturer's sequence
+     * @param followers capturers that receive the same image
+     * @param followerIndices index of the image in each follower's sequence
+     * @param captureCallback callback for capture events
+     *
+     * The image is taken once using this capturer's camera and settings and
+     * then queued for writing by this capturer and every follower. The
+     * first error encountered while queueing it is reported.
+     */
+    public void startCapture(final int index, final List<ImageCapturer> followers,
+                             final int[] followerIndices, CaptureCallback captureCallback) {
 
-        mIndex = index;
-        mCaptureCallback = captureCallback;
+        final CaptureCallback callback = postToMainThread(captureCallback);
+        mCameraHandler.post(new Runnable() {
 
-        // If the camera is already open, we can skip immediately to the
-        // setup step, otherwise, we need to open the camera. It needs to be
-        // done in a separate thread since it may block
-        if (mCamera != null) {
+            @Override
+            public void run() {
 
-            setup();
+                mIndex = index;
+                mFollowers = followers;
+                mFollowerIndices = followerIndices;
+                mCaptureCallback = callback;
 
-        } else {
+                // The camera may be shared, so make sure timings are reported here
+                mCameraBackend.setStageListener(mBackendStageListener);
+                mCameraController.startCapture();
+            }
+        });
+    }
 
-            new AsyncTask<Void, Void, String>() {
+    /**
+     * Start capturing frames from the preview stream
+     * @param index numerical index of the first image to capture
+     * @param captureScheduler determines which frames are captured
+     * @param captureCallback callback invoked once for every captured frame
+     *
+     * Frames are taken from the stream whenever a slot is due and encoded
+     * on a pool of worker threads. Capture continues until close() or
+     * shutdown() is called.
+     */
+    public void startStream(final int index, final CaptureScheduler captureScheduler,
+                            CaptureCallback captureCallback) {
 
-                @Override
-                @SuppressWarnings("deprecation")
-                protected String doInBackground(Void... params) {
-
-                    // Camera.open() throws whenever the camera can't be opened
-                    // and Camera.setPreviewTexture() may throw an error as well
-                    try {
-                        mCamera = Camera.open(mCameraId);
-                        mCamera.setPreviewTexture(new SurfaceTexture(0));
-                        return null;
-                    } catch (RuntimeException | IOException e) {
-                        return e.getMessage();
-                    }
-                }
+        final CaptureCallback callback = postToMainThread(captureCallback);
+        mCameraHandler.post(new Runnable() {
 
-                @Override
-                protected void onPostExecute(String message) {
-
-                    // If message is non-null, then pass along the error message,
-                    // otherwise start the camera preview and begin autofocus
-                    if (message != null) {
-                        mCaptureCallback.onComplete(message);
-                    } else {
-                        setup();
-                    }
-                }
-            }.execute();
-        }
+            @Override
+            public void run() {
+
+                mIndex = index;
+                mCaptureCallback = callback;
+                mCaptureScheduler = captureScheduler;
+                mCameraBackend.setStageListener(mBackendStageListener);
+
+                // Leave one core for the camera and the writer where possible
+                int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+                mPreviewFrameEncoder = new PreviewFrameEncoder(threads, getStreamJpegQuality(),
+                        mEncoderListener);
+                mCameraController.startStream();
+            }
+        });
     }
 
     /**
      * Close the camera
      *
      * Calling this method will require the camera to be re-initialized the
-     * next time that startCapture() is called.
+     * next time that startCapture() is called. This also stops the preview
+     * stream. A capture in progress is abandoned without its callback being
+     * invoked.
      */
     public void close() {
-        if (mCamera != null) {
-            mCamera.release();
-            mCamera = null;
-        }
+        mGeneration++;
+        mCameraHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                mCameraController.close();
+            }
+        });
     }
 
     /**
-     * Setup the camera in preparation for image capture
+     * Abandon the capture in progress and close the camera
      *
-     * Currently, this step is limited to autofocus.
+     * Instead of waiting for the camera to finish, the capture callback is
+     * invoked with an error right away. Nothing happens if the capture has
+     * already completed by the time the request reaches the camera thread
+     * or if frames are being taken from the preview stream.
      */
-    @SuppressWarnings("deprecation")
-    private void setup() {
+    public void cancel() {
+        mCameraHandler.post(new Runnable() {
 
-        // The preview needs to be started after each capture
-        mCamera.startPreview();
+            @Override
+            public void run() {
+                if (mCameraController.cancel()) {
+                    log("Cancelled capture of image #" + String.valueOf(mIndex) + ".");
+                    mCaptureCallback.onComplete(mCancelledMessage);
+                }
+            }
+        });
+    }
 
-        if (mAutofocus) {
+    /**
+     * Stop accepting images for writing
+     * @param closeCamera false to leave a shared camera open for the other capturers using it
+     *
+     * Images that were already captured continue to be encoded and written
+     * in the background and are added to the media store once the last one
+     * has been written. The preview stream is always stopped. The capturer
+     * cannot be used after this method is called.
+     */
+    public void shutdown(final boolean closeCamera) {
+        mGeneration++;
+        mCameraHandler.post(new Runnable() {
 
-            // If autofocus is requested, it needs to be completed before the capture
-            mCamera.autoFocus(new Camera.AutoFocusCallback() {
+            @Override
+            public void run() {
 
-                @Override
-                public void onAutoFocus(boolean success, Camera camera) {
+                if (closeCamera || mCameraController.isStreaming()) {
+                    mCameraController.close();
+                } else {
+                    mCameraController.detach();
+                }
 
-                    // TODO: error message needs to be localized
+                // The writer is shut down by the encoder once it has drained
+                if (mPreviewFrameEncoder != null) {
+                    mPreviewFrameEncoder.shutdown();
+                } else {
+                    mFrameWriter.shutdown();
+                }
+            }
+        });
+    }
 
-                    // If the camera was unable to focus, report the error
-                    if (!success) {
-                        mCaptureCallback.onComplete("Unable to focus.");
-                    } else {
-                        capture();
-                    }
+    /**
+     * Set the JPEG quality of following images
+     * @param quality quality between 1 and 100 or 0 for the default
+     *
+     * The default is the camera's own quality for pictures and
+     * STREAM_JPEG_QUALITY for frames from the preview stream.
+     */
+    public void setJpegQuality(final int quality) {
+        mCameraHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                mJpegQuality = quality;
+                if (mPreviewFrameEncoder != null) {
+                    mPreviewFrameEncoder.setQuality(getStreamJpegQuality());
                 }
-            });
+            }
+        });
+    }
 
-        } else {
+    /**
+     * Reduce the memory held by the capturer while the system is short of it
+     * @param critical true to also discard images waiting to be written
+     *
+     * Scene analysis is paused until restoreMemory() is called, which
+     * leaves a locked focus and exposure where they are. Images are only
+     * discarded if the backpressure policy allows images to be dropped.
+     */
+    public void trimMemory(boolean critical) {
+
+        if (mThumbnailSink != null) {
+            mThumbnailSink.setPaused(true);
+            mSceneChange = -1;
+        }
+
+        if (critical) {
+            int discarded = mFrameWriter.trim();
+            if (discarded > 0) {
+                log("Discarded " + String.valueOf(discarded) + " images waiting to be written.");
+            }
+        }
+    }
 
-            // Skip to the capture step
-            capture();
+    /**
+     * Resume the work paused by trimMemory()
+     */
+    public void restoreMemory() {
+        if (mThumbnailSink != null) {
+            mThumbnailSink.setPaused(false);
         }
     }
 
     /**
-     * Capture an image
+     * Retrieve the quality that preview frames are encoded at
+     */
+    private int getStreamJpegQuality() {
+        return mJpegQuality == 0 ? STREAM_JPEG_QUALITY : mJpegQuality;
+    }
+
+    /**
+     * Wrap a callback so that it is invoked on the main thread
+     * @param captureCallback callback supplied by the caller
+     * @return callback that can be invoked on the camera thread
+     *
+     * Results are dropped if the capturer is closed before they arrive.
      */
-    @SuppressWarnings("deprecation")
-    private void capture() {
+    private CaptureCallback postToMainThread(final CaptureCallback captureCallback) {
 
-        mCamera.takePicture(null, null, new Camera.PictureCallback() {
+        final int generation = mGeneration;
+        return new CaptureCallback() {
 
             @Override
-            public void onPictureTaken(byte[] data, Camera camera) {
+            public void onComplete(final String errorMessage) {
+                mHandler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            captureCallback.onComplete(errorMessage);
+                        }
+                    }
+                });
+            }
+        };
+    }
 
-                // Ensure that the destination directory exists and create it otherwise
-                if (!mSequencePath.exists()) {
+    /**
+     * Apply the settings for the next picture
+     * @return true to focus before the picture is taken
+     */
+    private boolean configureCapture() {
+
+        boolean autofocus;
+        switch (mFocus) {
+            case AUTO:
+                autofocus = true;
+                break;
+            case LOCK:
+                autofocus = mFocusLockPolicy.shouldFocus();
+                break;
+            default:
+                autofocus = false;
+                break;
+        }
 
-                    // TODO: error message needs to be localized
+        // Exposure carries over from the previous frames so that the camera
+        // does not need to meter again
+        if (mExposureController != null) {
+            mExposureController.setRange(mCameraBackend.getMinExposureCompensation(),
+                    mCameraBackend.getMaxExposureCompensation(),
+                    mCameraBackend.getExposureCompensationStep());
+            ExposureController.Settings settings = mExposureController.onCaptureStarted(mIndex);
+            mCameraBackend.setExposure(settings.isLocked(), settings.getCompensation());
+        }
 
-                    // Report an error if the directory could not be created
-                    if (!mSequencePath.mkdirs()) {
-                        mCaptureCallback.onComplete("Unable to create storage directory.");
-                        return;
-                    }
-                }
+        // The quality is lost whenever the camera is closed
+        mCameraBackend.setJpegQuality(mJpegQuality);
 
-                // Create the file that will be used for storing the image
-                File jpegFile = new File(mSequencePath, String.format("%04d", mIndex) + ".jpg");
+        return autofocus;
+    }
 
-                // Write the data to disk - note that this can fail and result in an error
-                try {
+    /**
+     * Start the preview stream and pick frames from it as slots fall due
+     */
+    private void stream() {
 
-                    OutputStream outputStream = new FileOutputStream(jpegFile);
-                    outputStream.write(data);
-                    outputStream.close();
+        mCameraBackend.startPreviewStream(STREAM_BUFFER_COUNT, new CameraBackend.PreviewCallback() {
 
-                } catch (IOException e) {
+            @Override
+            public void onPreviewFrame(PreviewFrame frame) {
 
-                    mCaptureCallback.onComplete(e.getMessage());
+                // Frames between slots go straight back to the pool
+                if (!mCameraController.isStreaming() || !mCaptureScheduler.isSlotDue()) {
+                    frame.release();
                     return;
                 }
 
-                // Have the media scanner add the file
-                MediaScannerConnection.scanFile(mContext, new String[]{jpegFile.getAbsolutePath()},
-                        null, new MediaScannerConnection.OnScanCompletedListener() {
+                long scheduleError = mCaptureScheduler.onCaptureStarted();
+                mCaptureScheduler.scheduleNext();
+                mMetrics.record(CaptureStage.SCHEDULE, mIndex, Math.abs(scheduleError));
 
-                            @Override
-                            public void onScanCompleted(String path, Uri uri) {
+                // If every worker is busy the frame is dropped and the slot is lost
+                if (mPreviewFrameEncoder.submit(mIndex, SystemClock.elapsedRealtime(), frame)) {
+                    mIndex++;
+                    mCaptureCallback.onComplete(null);
+                }
+            }
 
-                                // Indicate that the capture was successful
-                                mCaptureCallback.onComplete(null);
-                            }
-                        });
+            @Override
+            public void onError(String errorMessage) {
+                if (mCameraController.isStreaming()) {
+                    mCaptureCallback.onComplete(errorMessage);
+                }
             }
         });
     }
+
+    /**
+     * Log the specified message
+     * @param message a descriptive status message
+     */
+    private void log(String message) {
+        Log.d(ImageCapturer.class.getSimpleName(), message);
+    }
+
+    /**
+     * Records stage timings from the camera thread and passes them on
+     */
+    private CameraBackend.StageListener mBackendStageListener = new CameraBackend.StageListener() {
+
+        @Override
+        public void onStageComplete(final CaptureStage stage, final long durationMillis) {
+
+            mCameraController.onStageComplete(stage);
+            mMetrics.record(stage, mIndex, durationMillis);
+
+            // The listener is invoked on the main thread
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (mStageListener != null) {
+                        mStageListener.onStageComplete(stage, durationMillis);
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * Carries out each step of the capture on the camera thread
+     */
+    private CameraController.Listener mControllerListener = new CameraController.Listener() {
+
+        @Override
+        public void onOpened() {
+
+            // The lens position and exposure lock are lost whenever the camera is closed
+            if (mFocusLockPolicy != null) {
+                mFocusLockPolicy.invalidate();
+            }
+            if (mExposureController != null) {
+                mExposureController.invalidate();
+            }
+        }
+
+        @Override
+        public boolean onCaptureReady() {
+            return configureCapture();
+        }
+
+        @Override
+        public void onStreamReady() {
+            stream();
+        }
+
+        @Override
+        public void onFocusFailed(int attempts, boolean retrying) {
+
+            // A locked focus is retried on the next capture
+            log("Unable to focus (attempt " + String.valueOf(attempts) + ").");
+            if (!retrying && mFocusLockPolicy != null) {
+                mFocusLockPolicy.invalidate();
+            }
+        }
+
+        @Override
+        public void onPictureTaken(JpegFrame frame, boolean focused) {
+
+            if (mFocusLockPolicy != null) {
+                if (focused) {
+                    mFocusLockPolicy.onFocused(mIndex);
+                }
+                mFocusLockPolicy.onCaptured();
+            }
+
+            // The capture is complete as soon as the image is queued by
+            // this capturer and every follower
+            long timestamp = SystemClock.elapsedRealtime();
+            mCaptureTime = timestamp;
+            List<FrameWriter> followerWriters = new ArrayList<>();
+            for (ImageCapturer follower : mFollowers) {
+                follower.mCaptureTime = timestamp;
+                followerWriters.add(follower.mFrameWriter);
+            }
+            mCaptureCallback.onComplete(mFrameWriter.submit(mIndex, timestamp, frame,
+                    followerWriters, mFollowerIndices));
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            mCaptureCallback.onComplete(errorMessage);
+        }
+    };
+
+    /**
+     * Receives encoded frames from the encoder threads
+     */
+    private PreviewFrameEncoder.Listener mEncoderListener = new PreviewFrameEncoder.Listener() {
+
+        @Override
+        public void onFrameEncoded(int index, long timestamp, JpegFrame frame) {
+
+            String errorMessage = mFrameWriter.submit(index, timestamp, frame);
+            if (errorMessage != null) {
+                mWriterListener.onWriteFailed(index, errorMessage);
+            }
+        }
+
+        @Override
+        public void onFinished() {
+            mFrameWriter.shutdown();
+        }
+    };
+
+    /**
+     * Receives eviction events from the writer thread
+     */
+    private RetentionSink.Listener mRetentionListener = new RetentionSink.Listener() {
+
+        @Override
+        public void onFrameEvicted(int index, File file) {
+
+            // Scanning a file that no longer exists removes it from the media store
+            mMediaScanBatcher.add(file.getAbsolutePath(), index);
+        }
+    };
+
+    /**
+     * Receives write events from the writer thread
+     */
+    private FrameWriter.Listener mWriterListener = new FrameWriter.Listener() {
+
+        @Override
+        public void onFrameWritten(int index, long durationMillis) {
+
+            mMetrics.record(CaptureStage.WRITE, index, durationMillis);
+
+            // The container is not something the gallery can display
+            if (mJpegFileSink != null) {
+                mMediaScanBatcher.add(mJpegFileSink.getFile(index).getAbsolutePath(), index);
+            }
+        }
+
+        @Override
+        public void onFrameSkipped(int index) {
+
+            // A skipped image is never analyzed but is static by definition
+            mSkippedCount++;
+            mSceneChange = 0;
+        }
+
+        @Override
+        public void onFrameDropped(int index) {
+
+            // Recorded so that the gap in the numbering can be accounted for
+            mMetrics.recordDrop(index);
+        }
+
+        @Override
+        public void onWriteFailed(int index, final String errorMessage) {
+
+            // Errors are reported on the main thread
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (mErrorListener != null) {
+                        mErrorListener.onError(errorMessage);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onFinished() {
+
+            // The video is only complete once the sinks are closed
+            if (mAviFrameSink != null) {
+                for (File file : mAviFrameSink.getFiles()) {
+                    mMediaScanBatcher.add(file.getAbsolutePath(), -1);
+                }
+            }
+
+            // Scan whatever remains in the final batch
+            mMediaScanBatcher.flush();
+            mMetrics.close();
+        }
+    };
 }
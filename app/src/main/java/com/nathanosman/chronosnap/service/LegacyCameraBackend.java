@@ -0,0 +1,356 @@
+package com.nathanosman.chronosnap.service;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.nathanosman.chronosnap.R;
+
+import java.io.IOException;
+
+
+/**
+ * Camera backend using the original android.hardware.Camera API
+ *
+ * This is used on devices older than Lollipop where Camera2 is unavailable.
+ * The camera is opened on the supplied looper, which is where it delivers
+ * all of its callbacks, so every method must be called on that looper's
+ * thread as well.
+ */
+@SuppressWarnings("deprecation")
+public class LegacyCameraBackend implements CameraBackend {
+
+    // Data initialized in the constructor
+    private int mCameraId;
+    private Handler mHandler;
+    private String mCameraErrorMessage;
+
+    // Connection to the camera (may be maintained for multiple captures)
+    private Camera mCamera;
+    private Runnable mOpenRunnable;
+
+    // Exposure range read when the camera is opened and the settings last applied
+    private int mMinCompensation;
+    private int mMaxCompensation;
+    private float mCompensationStep;
+    private boolean mExposureApplied;
+    private boolean mExposureLocked;
+    private int mCompensation;
+
+    // JPEG quality the camera opened with and the quality last applied
+    private int mDefaultJpegQuality;
+    private int mJpegQuality;
+
+    // Receives stage timings
+    private StageListener mStageListener;
+    private long mOpenDuration;
+
+    /**
+     * Initialize the backend
+     * @param context calling context
+     * @param cameraId ID of the camera to use for capturing
+     * @param looper looper that the camera is driven from (never the main looper)
+     */
+    public LegacyCameraBackend(Context context, int cameraId, Looper looper) {
+        mCameraId = cameraId;
+        mHandler = new Handler(looper);
+        mCameraErrorMessage = context.getString(R.string.error_camera);
+    }
+
+    @Override
+    public void setStageListener(StageListener listener) {
+        mStageListener = listener;
+    }
+
+    @Override
+    public void open(final OpenCallback callback) {
+
+        // Camera.open() blocks, which is fine on the camera thread - it is
+        // posted so that the callback never runs before open() returns and
+        // so that close() can still cancel it
+        mOpenRunnable = new Runnable() {
+
+            @Override
+            public void run() {
+
+                mOpenRunnable = null;
+
+                // Camera.open() throws whenever the camera can't be opened
+                // and Camera.setPreviewTexture() may throw an error as well
+                try {
+                    long openStart = SystemClock.elapsedRealtime();
+                    mCamera = Camera.open(mCameraId);
+                    mCamera.setPreviewTexture(new SurfaceTexture(0));
+
+                    // Reading the parameters is slow, so the range is cached
+                    Camera.Parameters parameters = mCamera.getParameters();
+                    mMinCompensation = parameters.getMinExposureCompensation();
+                    mMaxCompensation = parameters.getMaxExposureCompensation();
+                    mCompensationStep = parameters.getExposureCompensationStep();
+                    mExposureApplied = false;
+                    mDefaultJpegQuality = parameters.getJpegQuality();
+                    mJpegQuality = mDefaultJpegQuality;
+
+                    // Sequences are browsed using the thumbnail embedded in
+                    // each picture, which some devices leave out by default
+                    Camera.Size thumbnailSize = parameters.getJpegThumbnailSize();
+                    if (thumbnailSize == null || thumbnailSize.width == 0) {
+                        for (Camera.Size size : parameters.getSupportedJpegThumbnailSizes()) {
+                            if (thumbnailSize == null ||
+                                    size.width * size.height > thumbnailSize.width * thumbnailSize.height) {
+                                thumbnailSize = size;
+                            }
+                        }
+                        parameters.setJpegThumbnailSize(thumbnailSize.width, thumbnailSize.height);
+                        mCamera.setParameters(parameters);
+                    }
+
+                    mOpenDuration = SystemClock.elapsedRealtime() - openStart;
+                } catch (RuntimeException | IOException e) {
+                    if (mCamera != null) {
+                        mCamera.release();
+                        mCamera = null;
+                    }
+                    callback.onError(e.getMessage());
+                    return;
+                }
+
+                reportStage(CaptureStage.OPEN, mOpenDuration);
+                callback.onOpened();
+            }
+        };
+        mHandler.post(mOpenRunnable);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mCamera != null;
+    }
+
+    @Override
+    public void takePicture(boolean autofocus, final PictureCallback callback) {
+
+        // The preview needs to be started after each capture
+        long previewStart = SystemClock.elapsedRealtime();
+        mCamera.startPreview();
+        reportStage(CaptureStage.PREVIEW, SystemClock.elapsedRealtime() - previewStart);
+
+        if (autofocus) {
+
+            final long focusStart = SystemClock.elapsedRealtime();
+
+            // If autofocus is requested, it needs to be completed before the capture
+            mCamera.autoFocus(new Camera.AutoFocusCallback() {
+
+                @Override
+                public void onAutoFocus(boolean success, Camera camera) {
+
+                    // If the camera was unable to focus, let the caller decide what to do
+                    if (!success) {
+                        callback.onFocusFailed();
+                    } else {
+                        reportStage(CaptureStage.FOCUS, SystemClock.elapsedRealtime() - focusStart);
+                        shutter(callback);
+                    }
+                }
+            });
+
+        } else {
+
+            // Skip to the capture step
+            shutter(callback);
+        }
+    }
+
+    @Override
+    public int getMinExposureCompensation() {
+        return mMinCompensation;
+    }
+
+    @Override
+    public int getMaxExposureCompensation() {
+        return mMaxCompensation;
+    }
+
+    @Override
+    public float getExposureCompensationStep() {
+        return mCompensationStep;
+    }
+
+    @Override
+    public void setExposure(boolean lock, int compensation) {
+
+        // Setting parameters is a round trip to the camera service, so it is
+        // skipped unless something has changed
+        if (mExposureApplied && lock == mExposureLocked && compensation == mCompensation) {
+            return;
+        }
+
+        try {
+            Camera.Parameters parameters = mCamera.getParameters();
+            if (parameters.isAutoExposureLockSupported()) {
+                parameters.setAutoExposureLock(lock);
+            }
+            if (parameters.isAutoWhiteBalanceLockSupported()) {
+                parameters.setAutoWhiteBalanceLock(lock);
+            }
+            if (mMinCompensation != 0 || mMaxCompensation != 0) {
+                parameters.setExposureCompensation(
+                        Math.max(mMinCompensation, Math.min(mMaxCompensation, compensation)));
+            }
+            mCamera.setParameters(parameters);
+        } catch (RuntimeException e) {
+
+            // The picture is still worth taking with whatever exposure the camera has
+            return;
+        }
+
+        mExposureApplied = true;
+        mExposureLocked = lock;
+        mCompensation = compensation;
+    }
+
+    @Override
+    public void setJpegQuality(int quality) {
+
+        int jpegQuality = quality == 0 ? mDefaultJpegQuality : quality;
+        if (jpegQuality == mJpegQuality) {
+            return;
+        }
+
+        try {
+            Camera.Parameters parameters = mCamera.getParameters();
+            parameters.setJpegQuality(jpegQuality);
+            mCamera.setParameters(parameters);
+        } catch (RuntimeException e) {
+            return;
+        }
+
+        mJpegQuality = jpegQuality;
+    }
+
+    @Override
+    public boolean setPictureLimit(int count) {
+
+        // Every picture is delivered in its own array
+        return false;
+    }
+
+    @Override
+    public void startPreviewStream(int bufferCount, final PreviewCallback callback) {
+
+        final Camera camera = mCamera;
+
+        // Use the largest preview size in the default NV21 format
+        Camera.Parameters parameters = camera.getParameters();
+        Camera.Size size = parameters.getSupportedPreviewSizes().get(0);
+        for (Camera.Size s : parameters.getSupportedPreviewSizes()) {
+            if (s.width * s.height > size.width * size.height) {
+                size = s;
+            }
+        }
+        parameters.setPreviewSize(size.width, size.height);
+        parameters.setPreviewFormat(ImageFormat.NV21);
+
+        final int width = size.width;
+        final int height = size.height;
+
+        try {
+            camera.setParameters(parameters);
+        } catch (RuntimeException e) {
+            callback.onError(e.getMessage());
+            return;
+        }
+
+        // Allocate the buffer pool - the camera fills these in turn and
+        // skips frames whenever none are available
+        int bufferSize = width * height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        for (int i = 0; i < bufferCount; ++i) {
+            camera.addCallbackBuffer(new byte[bufferSize]);
+        }
+
+        camera.setErrorCallback(new Camera.ErrorCallback() {
+
+            @Override
+            public void onError(int error, Camera c) {
+                callback.onError(String.format(mCameraErrorMessage, error));
+            }
+        });
+
+        camera.setPreviewCallbackWithBuffer(new Camera.PreviewCallback() {
+
+            @Override
+            public void onPreviewFrame(final byte[] data, Camera c) {
+
+                callback.onPreviewFrame(new PreviewFrame(data, width, height) {
+
+                    @Override
+                    public void release() {
+
+                        // Buffers are returned on the thread that owns the
+                        // camera and only if it hasn't been closed since
+                        mHandler.post(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                if (mCamera == camera) {
+                                    camera.addCallbackBuffer(data);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        });
+
+        long previewStart = SystemClock.elapsedRealtime();
+        camera.startPreview();
+        reportStage(CaptureStage.PREVIEW, SystemClock.elapsedRealtime() - previewStart);
+    }
+
+    @Override
+    public void close() {
+
+        // If the camera hasn't started opening yet, it never will
+        if (mOpenRunnable != null) {
+            mHandler.removeCallbacks(mOpenRunnable);
+            mOpenRunnable = null;
+        }
+
+        if (mCamera != null) {
+            mCamera.release();
+            mCamera = null;
+        }
+    }
+
+    /**
+     * Report the duration of a stage to the listener (if any)
+     */
+    private void reportStage(CaptureStage stage, long durationMillis) {
+        if (mStageListener != null) {
+            mStageListener.onStageComplete(stage, durationMillis);
+        }
+    }
+
+    /**
+     * Trigger the shutter and deliver the JPEG data
+     * @param callback callback for picture events
+     */
+    private void shutter(final PictureCallback callback) {
+
+        final long shutterStart = SystemClock.elapsedRealtime();
+
+        mCamera.takePicture(null, null, new Camera.PictureCallback() {
+
+            @Override
+            public void onPictureTaken(byte[] data, Camera camera) {
+                reportStage(CaptureStage.SHUTTER, SystemClock.elapsedRealtime() - shutterStart);
+                callback.onPictureTaken(JpegFrame.wrap(data));
+            }
+        });
+    }
+}
@@ -0,0 +1,92 @@
+package com.nathanosman.chronosnap.service;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Collects written images and adds them to the media store in batches
+ *
+ * Each batch is submitted with a single call to scanFile() and nothing
+ * waits for the scan to complete. The time taken by each batch is recorded
+ * as the SCAN stage once the last file in it has been scanned. This class
+ * is not thread-safe and is only used from the writer thread.
+ */
+public class MediaScanBatcher {
+
+    // Data initialized in the constructor
+    private Context mContext;
+    private MediaScanPolicy mPolicy;
+    private CaptureMetrics mMetrics;
+
+    // Paths waiting to be scanned
+    private List<String> mPending = new ArrayList<>();
+    private int mLastIndex;
+    private long mLastScanTime;
+
+    /**
+     * Initialize the batcher
+     * @param context calling context
+     * @param policy determines when batches are scanned
+     * @param metrics receives the time taken by each batch
+     */
+    public MediaScanBatcher(Context context, MediaScanPolicy policy, CaptureMetrics metrics) {
+
+        mContext = context.getApplicationContext();
+        mPolicy = policy;
+        mMetrics = metrics;
+        mLastScanTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Add an image to the current batch
+     * @param path absolute path of the image
+     * @param index index of the image (-1 if the file does not belong to a single image)
+     */
+    public void add(String path, int index) {
+
+        mLastIndex = index;
+
+        mPending.add(path);
+
+        if (mPolicy.shouldScan(mPending.size(), SystemClock.elapsedRealtime() - mLastScanTime)) {
+            flush();
+        }
+    }
+
+    /**
+     * Scan all images in the current batch
+     */
+    public void flush() {
+
+        if (mPending.isEmpty()) {
+            return;
+        }
+
+        final int index = mLastIndex;
+        final long start = SystemClock.elapsedRealtime();
+        final AtomicInteger remaining = new AtomicInteger(mPending.size());
+
+        MediaScannerConnection.scanFile(mContext,
+                mPending.toArray(new String[mPending.size()]), null,
+                new MediaScannerConnection.OnScanCompletedListener() {
+
+                    @Override
+                    public void onScanCompleted(String path, Uri uri) {
+                        if (remaining.decrementAndGet() == 0) {
+                            mMetrics.record(CaptureStage.SCAN, index,
+                                    SystemClock.elapsedRealtime() - start);
+                        }
+                    }
+                });
+
+        mPending.clear();
+        mLastScanTime = start;
+    }
+}
@@ -0,0 +1,39 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Heap budget and buffer pool shared by every capturer in the process
+ *
+ * The budget is a fixed fraction of Runtime.maxMemory(), so the amount
+ * of memory the pipeline may hold scales with the device instead of with
+ * the size of the pictures. Frames waiting to be written and the buffers
+ * in the pool are both charged against it.
+ */
+public class PipelineMemory {
+
+    private static MemoryBudget sBudget;
+    private static BufferPool sBufferPool;
+
+    private PipelineMemory() {
+    }
+
+    /**
+     * Retrieve the budget shared by the process
+     */
+    public static synchronized MemoryBudget getBudget() {
+        if (sBudget == null) {
+            sBudget = MemoryBudget.forHeap(Runtime.getRuntime().maxMemory());
+        }
+        return sBudget;
+    }
+
+    /**
+     * Retrieve the buffer pool shared by the process
+     */
+    public static synchronized BufferPool getBufferPool() {
+        if (sBufferPool == null) {
+            sBufferPool = new BufferPool(getBudget());
+        }
+        return sBufferPool;
+    }
+}
@@ -0,0 +1,243 @@
+package com.nathanosman.chronosnap.service;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compresses preview frames to JPEG on a pool of worker threads
+ *
+ * Frames may finish encoding in any order, but they are handed to the
+ * listener strictly in the order they were submitted. The output buffers
+ * are pooled as well, so steady-state encoding does not allocate. A frame
+ * that fails to encode is dropped without holding up the ones after it.
+ */
+public class PreviewFrameEncoder {
+
+    /**
+     * Callback interface for encoded frames
+     *
+     * Note that this is invoked on one of the worker threads.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a frame has been encoded
+         * @param index index that the frame was submitted with
+         * @param timestamp timestamp that the frame was submitted with
+         * @param frame JPEG data - release() must be called once it has been written
+         */
+        void onFrameEncoded(int index, long timestamp, JpegFrame frame);
+
+        /**
+         * Called once the encoder has been shut down and every queued frame has been delivered
+         */
+        void onFinished();
+    }
+
+    /**
+     * Output stream that exposes its buffer so it can be reused
+     */
+    private static class OutputBuffer extends ByteArrayOutputStream {
+
+        OutputBuffer(int size) {
+            super(size);
+        }
+
+        ByteBuffer getData() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * Initial size of each output buffer (grows as needed)
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 512 * 1024;
+
+    // Data initialized in the constructor
+    private ThreadPoolExecutor mExecutor;
+    private BlockingQueue<OutputBuffer> mOutputBuffers;
+    private volatile int mQuality;
+    private Listener mListener;
+
+    // Used to hand frames to the listener in order
+    private final Map<Integer, EncodedFrame> mCompleted = new HashMap<>();
+    private int mNextSequence = 0;
+    private int mNextToDeliver = 0;
+
+    /**
+     * Create the encoder and its worker threads
+     * @param threads number of worker threads
+     * @param quality JPEG quality (0-100)
+     * @param listener callback for encoded frames
+     */
+    public PreviewFrameEncoder(int threads, int quality, Listener listener) {
+
+        mQuality = quality;
+        mListener = listener;
+
+        // Every worker plus every queued frame may need an output buffer
+        mOutputBuffers = new ArrayBlockingQueue<>(threads * 2);
+        for (int i = 0; i < threads * 2; ++i) {
+            mOutputBuffers.add(new OutputBuffer(OUTPUT_BUFFER_SIZE));
+        }
+
+        mExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads), Executors.defaultThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy()) {
+
+            @Override
+            protected void terminated() {
+                mListener.onFinished();
+            }
+        };
+    }
+
+    /**
+     * Queue a frame for encoding
+     * @param index index to pass along with the encoded frame
+     * @param timestamp timestamp to pass along with the encoded frame
+     * @param frame preview frame - ownership passes to the encoder
+     * @return false if the encoder is saturated and the frame was dropped
+     */
+    public boolean submit(final int index, final long timestamp, final PreviewFrame frame) {
+
+        final int sequence = mNextSequence;
+
+        try {
+            mExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    deliver(sequence, index, timestamp, encode(frame));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            frame.release();
+            return false;
+        }
+
+        mNextSequence++;
+        return true;
+    }
+
+    /**
+     * Change the JPEG quality of frames that have not started encoding yet
+     * @param quality JPEG quality (0-100)
+     */
+    public void setQuality(int quality) {
+        mQuality = quality;
+    }
+
+    /**
+     * Stop accepting frames
+     *
+     * Frames that are already queued are still encoded and delivered.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Compress a frame and return its buffer to the camera
+     * @param frame preview frame
+     * @return encoded frame or null if the frame could not be encoded
+     */
+    private JpegFrame encode(PreviewFrame frame) {
+
+        final OutputBuffer outputBuffer;
+        try {
+            outputBuffer = mOutputBuffers.take();
+        } catch (InterruptedException e) {
+            frame.release();
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        boolean encoded;
+        try {
+            YuvImage yuvImage = new YuvImage(frame.getData(), ImageFormat.NV21,
+                    frame.getWidth(), frame.getHeight(), null);
+            outputBuffer.reset();
+            encoded = yuvImage.compressToJpeg(new Rect(0, 0, frame.getWidth(), frame.getHeight()),
+                    mQuality, outputBuffer);
+        } catch (RuntimeException e) {
+            Log.w(PreviewFrameEncoder.class.getSimpleName(), "Unable to encode frame: " + e.getMessage());
+            encoded = false;
+        } finally {
+            frame.release();
+        }
+
+        // The output buffer goes straight back to the pool if there is nothing in it
+        if (!encoded) {
+            mOutputBuffers.offer(outputBuffer);
+            return null;
+        }
+
+        return new JpegFrame() {
+
+            @Override
+            public ByteBuffer getData() {
+                return outputBuffer.getData();
+            }
+
+            @Override
+            public void release() {
+                mOutputBuffers.offer(outputBuffer);
+            }
+        };
+    }
+
+    /**
+     * Hand encoded frames to the listener in submission order
+     * @param sequence position of the frame in submission order
+     * @param index index that the frame was submitted with
+     * @param timestamp timestamp that the frame was submitted with
+     * @param frame encoded frame or null if encoding failed
+     */
+    private void deliver(int sequence, int index, long timestamp, JpegFrame frame) {
+
+        synchronized (mCompleted) {
+
+            // Frames that failed to encode still occupy their place in the order
+            mCompleted.put(sequence, frame == null ? null : new EncodedFrame(index, timestamp, frame));
+
+            while (mCompleted.containsKey(mNextToDeliver)) {
+                EncodedFrame next = mCompleted.remove(mNextToDeliver);
+                mNextToDeliver++;
+                if (next != null) {
+                    mListener.onFrameEncoded(next.mIndex, next.mTimestamp, next.mFrame);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encoded frame waiting to be delivered along with its index
+     */
+    private static class EncodedFrame {
+
+        private int mIndex;
+        private long mTimestamp;
+        private JpegFrame mFrame;
+
+        EncodedFrame(int index, long timestamp, JpegFrame frame) {
+            mIndex = index;
+            mTimestamp = timestamp;
+            mFrame = frame;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.nathanosman.chronosnap.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Camera backend shared by several capturers
+ *
+ * Each sequence has its own ImageCapturer but they all drive the same
+ * camera. Capturers that ask for the camera while it is already being
+ * opened wait for that open to finish rather than opening it a second
+ * time. Everything else is passed straight through.
+ */
+public class SharedCameraBackend implements CameraBackend {
+
+    // Data initialized in the constructor
+    private CameraBackend mBackend;
+
+    // Callbacks waiting for the camera to open
+    private List<OpenCallback> mOpenCallbacks = new ArrayList<>();
+
+    /**
+     * Wrap a backend
+     * @param backend backend that owns the camera
+     */
+    public SharedCameraBackend(CameraBackend backend) {
+        mBackend = backend;
+    }
+
+    @Override
+    public void setStageListener(StageListener listener) {
+        mBackend.setStageListener(listener);
+    }
+
+    @Override
+    public void open(OpenCallback callback) {
+
+        mOpenCallbacks.add(callback);
+        if (mOpenCallbacks.size() > 1) {
+            return;
+        }
+
+        mBackend.open(new OpenCallback() {
+
+            @Override
+            public void onOpened() {
+                for (OpenCallback c : takeOpenCallbacks()) {
+                    c.onOpened();
+                }
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                for (OpenCallback c : takeOpenCallbacks()) {
+                    c.onError(errorMessage);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mBackend.isOpen();
+    }
+
+    @Override
+    public void takePicture(boolean autofocus, PictureCallback callback) {
+        mBackend.takePicture(autofocus, callback);
+    }
+
+    @Override
+    public int getMinExposureCompensation() {
+        return mBackend.getMinExposureCompensation();
+    }
+
+    @Override
+    public int getMaxExposureCompensation() {
+        return mBackend.getMaxExposureCompensation();
+    }
+
+    @Override
+    public float getExposureCompensationStep() {
+        return mBackend.getExposureCompensationStep();
+    }
+
+    @Override
+    public void setExposure(boolean lock, int compensation) {
+        mBackend.setExposure(lock, compensation);
+    }
+
+    @Override
+    public void setJpegQuality(int quality) {
+        mBackend.setJpegQuality(quality);
+    }
+
+    @Override
+    public boolean setPictureLimit(int count) {
+        return mBackend.setPictureLimit(count);
+    }
+
+    @Override
+    public void startPreviewStream(int bufferCount, PreviewCallback callback) {
+        mBackend.startPreviewStream(bufferCount, callback);
+    }
+
+    @Override
+    public void close() {
+
+        // An open that is cancelled never reports back
+        mOpenCallbacks.clear();
+        mBackend.close();
+    }
+
+    /**
+     * Remove and return the callbacks waiting for the camera
+     */
+    private List<OpenCallback> takeOpenCallbacks() {
+        List<OpenCallback> callbacks = mOpenCallbacks;
+        mOpenCallbacks = new ArrayList<>();
+        return callbacks;
+    }
+}
@@ -0,0 +1,37 @@
+package com.nathanosman.chronosnap.service;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Keeps frames of a static scene from being written
+ *
+ * A thumbnail of each frame is decoded and compared with the last frame
+ * kept by a StaticFrameDetector. Decoding the thumbnail takes a fraction
+ * of the time needed to write and scan a full-size image, and a
+ * ThumbnailSink sharing the decoder reuses it rather than decoding again.
+ */
+public class StaticFrameFilter implements FrameFilter {
+
+    // Data initialized in the constructor
+    private StaticFrameDetector mDetector;
+    private ThumbnailDecoder mDecoder;
+
+    /**
+     * Initialize the filter
+     * @param detector decides which frames are static
+     * @param decoder decoder shared with the other consumers of the writer's frames
+     */
+    public StaticFrameFilter(StaticFrameDetector detector, ThumbnailDecoder decoder) {
+        mDetector = detector;
+        mDecoder = decoder;
+    }
+
+    @Override
+    public boolean accept(int index, long timestamp, ByteBuffer data) {
+
+        // Frames that can't be decoded are written so that nothing is lost
+        Thumbnail thumbnail = mDecoder.decode(index, data);
+        return thumbnail == null || !mDetector.isStatic(thumbnail);
+    }
+}
@@ -0,0 +1,177 @@
+package com.nathanosman.chronosnap.service;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * Provides thumbnails of captured images for browsing sequences
+ *
+ * Decoding a full-size JPEG for each thumbnail is far too slow, so the
+ * thumbnail embedded in the EXIF data is used whenever there is one. Only
+ * images without one are decoded, at the largest power-of-two reduction
+ * that keeps them at least TARGET_WIDTH pixels wide. Thumbnails are kept
+ * in a bounded in-memory cache backed by a cache on disk.
+ *
+ * Images are looked up by file, so only sequences stored as JPEG files are
+ * supported - images in a container have no file of their own. Nothing in
+ * the app browses sequences yet, so the cache is not used by it.
+ *
+ * get() may read from storage and must not be called on the UI thread.
+ */
+public class ThumbnailCache {
+
+    /**
+     * Minimum width of a decoded thumbnail
+     */
+    private static final int TARGET_WIDTH = 256;
+
+    /**
+     * Quality used when storing decoded thumbnails on disk
+     */
+    private static final int JPEG_QUALITY = 85;
+
+    /**
+     * Maximum size of the thumbnails stored on disk
+     */
+    private static final long DISK_CACHE_SIZE = 32 * 1024 * 1024;
+
+    private static ThumbnailCache sInstance;
+
+    // Data initialized in the constructor
+    private LruCache<String, Bitmap> mMemoryCache;
+    private ThumbnailDiskCache mDiskCache;
+
+    /**
+     * Retrieve the cache shared by the process
+     * @param context calling context
+     */
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ThumbnailCache(Context context) {
+
+        // An eighth of the heap (in kilobytes) is set aside for thumbnails
+        int memoryCacheSize = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheSize) {
+
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+
+        mDiskCache = new ThumbnailDiskCache(new File(context.getCacheDir(), "thumbnails"),
+                DISK_CACHE_SIZE);
+    }
+
+    /**
+     * Retrieve the thumbnail of an image if it is in memory
+     * @param file JPEG image
+     * @return thumbnail or null if it needs to be loaded with get()
+     */
+    public Bitmap getCached(File file) {
+        return mMemoryCache.get(getKey(file));
+    }
+
+    /**
+     * Retrieve the thumbnail of an image, loading it if necessary
+     * @param file JPEG image
+     * @return thumbnail or null if the image could not be read
+     */
+    public Bitmap get(File file) {
+
+        String key = getKey(file);
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        byte[] data = mDiskCache.get(key);
+        if (data == null) {
+            data = load(file);
+            if (data == null) {
+                return null;
+            }
+            mDiskCache.put(key, data);
+        }
+
+        bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, null);
+        if (bitmap != null) {
+            mMemoryCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Release the thumbnails held in memory
+     */
+    public void evictAll() {
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * Load the encoded thumbnail of an image
+     * @return JPEG data or null if the image could not be read
+     */
+    private byte[] load(File file) {
+
+        try {
+            byte[] data = ExifThumbnail.read(file);
+            if (data != null) {
+                return data;
+            }
+        } catch (IOException e) {
+            Log.w(ThumbnailCache.class.getSimpleName(), e.getMessage());
+            return null;
+        }
+
+        // Read the dimensions to pick the scale
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= TARGET_WIDTH) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outputStream);
+        bitmap.recycle();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Build the key for an image
+     *
+     * The size and modification time are included so that a file replaced
+     * by another with the same name is not matched.
+     */
+    private static String getKey(File file) {
+        return file.getAbsolutePath() + ":" + String.valueOf(file.length()) + ":" +
+                String.valueOf(file.lastModified());
+    }
+}
@@ -0,0 +1,121 @@
+package com.nathanosman.chronosnap.service;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Decodes a small greyscale thumbnail of a JPEG frame
+ *
+ * JPEG decoding can scale by powers of two for almost nothing, so the frame
+ * is decoded at the largest power-of-two reduction that keeps it at least
+ * TARGET_WIDTH pixels wide. Buffers are reused between frames, so each
+ * instance must only be used from a single thread. Frames in direct
+ * buffers are copied into an array from the shared pool, and are not
+ * decoded at all when the pipeline is out of memory.
+ *
+ * The filter and sinks of a FrameWriter share one decoder so that a frame
+ * they all analyze is only decoded once.
+ */
+public class ThumbnailDecoder {
+
+    /**
+     * Minimum width of the decoded thumbnail
+     */
+    private static final int TARGET_WIDTH = 160;
+
+    // Reused between frames
+    private BufferPool mBufferPool = PipelineMemory.getBufferPool();
+    private int[] mPixels = new int[0];
+    private BitmapFactory.Options mOptions = new BitmapFactory.Options();
+
+    // Most recent frame decoded by index
+    private int mLastIndex = -1;
+    private Thumbnail mLastThumbnail;
+
+    /**
+     * Decode the thumbnail of a frame unless it was the last one decoded
+     * @param index numerical index of the frame
+     * @param data JPEG data - the buffer is consumed
+     * @return thumbnail or null if the frame could not be decoded
+     */
+    public Thumbnail decode(int index, ByteBuffer data) {
+        if (index != mLastIndex) {
+            mLastIndex = index;
+            mLastThumbnail = decode(data);
+        }
+        return mLastThumbnail;
+    }
+
+    /**
+     * Decode the thumbnail of a frame
+     * @param data JPEG data - the buffer is consumed
+     * @return thumbnail or null if the frame could not be decoded
+     */
+    public Thumbnail decode(ByteBuffer data) {
+
+        if (data.hasArray()) {
+            return decode(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+
+        // BitmapFactory only decodes from arrays (Camera2 delivers direct buffers)
+        int length = data.remaining();
+        byte[] array = mBufferPool.acquire(length);
+        if (array == null) {
+            return null;
+        }
+        try {
+            data.get(array, 0, length);
+            return decode(array, 0, length);
+        } finally {
+            mBufferPool.release(array);
+        }
+    }
+
+    /**
+     * Decode the thumbnail of a frame in an array
+     */
+    private Thumbnail decode(byte[] array, int offset, int length) {
+
+        // Read the dimensions to pick the scale
+        mOptions.inJustDecodeBounds = true;
+        mOptions.inSampleSize = 1;
+        BitmapFactory.decodeByteArray(array, offset, length, mOptions);
+        if (mOptions.outWidth <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (mOptions.outWidth / (sampleSize * 2) >= TARGET_WIDTH) {
+            sampleSize *= 2;
+        }
+
+        mOptions.inJustDecodeBounds = false;
+        mOptions.inSampleSize = sampleSize;
+        mOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(array, offset, length, mOptions);
+        if (bitmap == null) {
+            return null;
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (mPixels.length < width * height) {
+            mPixels = new int[width * height];
+        }
+        bitmap.getPixels(mPixels, 0, width, 0, 0, width, height);
+        bitmap.recycle();
+
+        // Rec. 601 luma in fixed point
+        byte[] luma = new byte[width * height];
+        for (int i = 0; i < luma.length; ++i) {
+            int pixel = mPixels[i];
+            luma[i] = (byte) ((77 * ((pixel >> 16) & 0xff) + 150 * ((pixel >> 8) & 0xff) +
+                    29 * (pixel & 0xff)) >> 8);
+        }
+
+        return new Thumbnail(width, height, luma);
+    }
+}
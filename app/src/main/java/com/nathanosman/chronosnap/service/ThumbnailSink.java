@@ -0,0 +1,69 @@
+package com.nathanosman.chronosnap.service;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Decodes a small greyscale thumbnail of every frame for scene analysis
+ *
+ * See ThumbnailDecoder for how the thumbnail is produced - a frame that a
+ * StaticFrameFilter sharing the decoder has already looked at is not
+ * decoded again. This sink should be the last one so that it never delays
+ * storage. Analysis can be paused while memory is short.
+ */
+public class ThumbnailSink implements FrameSink {
+
+    /**
+     * Callback interface for decoded thumbnails
+     *
+     * Note that this is invoked on the writer thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a thumbnail has been decoded
+         * @param index numerical index of the frame
+         * @param thumbnail thumbnail of the frame
+         */
+        void onThumbnail(int index, Thumbnail thumbnail);
+    }
+
+    // Data initialized in the constructor
+    private ThumbnailDecoder mDecoder;
+    private Listener mListener;
+
+    private volatile boolean mPaused = false;
+
+    /**
+     * Initialize the sink
+     * @param decoder decoder shared with the other consumers of the writer's frames
+     * @param listener callback for decoded thumbnails
+     */
+    public ThumbnailSink(ThumbnailDecoder decoder, Listener listener) {
+        mDecoder = decoder;
+        mListener = listener;
+    }
+
+    /**
+     * Pause or resume decoding
+     * @param paused true to pass frames through without decoding them
+     */
+    public void setPaused(boolean paused) {
+        mPaused = paused;
+    }
+
+    @Override
+    public void write(int index, long timestamp, ByteBuffer data) {
+        if (mPaused) {
+            return;
+        }
+        Thumbnail thumbnail = mDecoder.decode(index, data);
+        if (thumbnail != null) {
+            mListener.onThumbnail(index, thumbnail);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
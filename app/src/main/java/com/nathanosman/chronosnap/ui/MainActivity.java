@@ -1,11 +1,15 @@
 package com.nathanosman.chronosnap.ui;
 
-import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
 import android.support.v7.app.ActionBarActivity;
 import android.text.format.DateUtils;
 import android.view.Menu;
@@ -23,78 +27,65 @@ import com.nathanosman.chronosnap.service.CaptureService;
  * Main interface for the application
  *
  * This activity displays the start / stop button as well as the status of a
- * capture in progress.
+ * capture in progress. Status is received from the capture service (which
+ * runs in its own process) for as long as the activity is visible.
  */
 public class MainActivity extends ActionBarActivity
         implements NewSequenceDialogFragment.NewSequenceDialogListener {
 
+    // Views looked up once in onCreate()
+    private Button mButtonStartStop;
+    private TextView mTextStartTime;
+    private TextView mTextImagesCaptured;
+    private TextView mTextImagesRemaining;
+
+    // Whether the last status received showed a capture in progress
+    private boolean mCapturing = false;
+
+    // Connection to the capture service
+    private Messenger mService;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        // Create an intent filter for status updates
-        LocalBroadcastManager.getInstance(this).registerReceiver(new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-
-                Button buttonStartStop = (Button) findViewById(R.id.buttonStartStop);
-                TextView textStartTime = (TextView) findViewById(R.id.textStartTime);
-                TextView textImagesCaptured = (TextView) findViewById(R.id.textImagesCaptured);
-                TextView textImagesRemaining = (TextView) findViewById(R.id.textImagesRemaining);
-
-                long startTime = intent.getLongExtra (CaptureService.EXTRA_START_TIME, 0);
-                int imagesCaptured = intent.getIntExtra (CaptureService.EXTRA_IMAGES_CAPTURED, 0);
-                int imagesRemaining = intent.getIntExtra (CaptureService.EXTRA_IMAGES_REMAINING, 0);
-
-                // The button is always enabled
-                buttonStartStop.setEnabled(true);
-
-                // A capture is said to be in progress if the start time is nonzero
-                if (startTime != 0) {
-
-                    // The button stops the capture when clicked
-                    buttonStartStop.setText(R.string.button_stop);
-                    buttonStartStop.setOnClickListener(new View.OnClickListener() {
-                        @Override
-                        public void onClick(View v) {
-                            sendAction(CaptureService.ACTION_STOP_CAPTURE);
-                        }
-                    });
-
-                    textStartTime.setText(DateUtils.formatDateTime(MainActivity.this, startTime,
-                            DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME));
-                    textImagesCaptured.setText(String.valueOf(imagesCaptured));
-
-                    // If imagesRemaining is set to 0, there is no limit
-                    if (imagesRemaining == 0) {
-                        textImagesRemaining.setText(R.string.text_na);
-                    } else {
-                        textImagesRemaining.setText(String.valueOf(imagesRemaining));
-                    }
+        mButtonStartStop = (Button) findViewById(R.id.buttonStartStop);
+        mTextStartTime = (TextView) findViewById(R.id.textStartTime);
+        mTextImagesCaptured = (TextView) findViewById(R.id.textImagesCaptured);
+        mTextImagesRemaining = (TextView) findViewById(R.id.textImagesRemaining);
 
+        // The button either stops the capture or asks for a new sequence
+        // depending on the last status received
+        mButtonStartStop.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (mCapturing) {
+                    sendAction(CaptureService.ACTION_STOP_CAPTURE);
                 } else {
+                    showNewSequenceDialog();
+                }
+            }
+        });
+    }
 
-                    buttonStartStop.setText(R.string.button_start);
-                    buttonStartStop.setOnClickListener(new View.OnClickListener() {
-                        @Override
-                        public void onClick(View v) {
-
-                            NewSequenceDialogFragment dialog = new NewSequenceDialogFragment();
-                            dialog.show(getFragmentManager(), NewSequenceDialogFragment.class.getSimpleName());
-                        }
-                    });
+    @Override
+    protected void onStart() {
+        super.onStart();
 
-                    textStartTime.setText(R.string.text_na);
-                    textImagesCaptured.setText(R.string.text_na);
-                    textImagesRemaining.setText(R.string.text_na);
-                }
+        // The service sends its current status as soon as we register
+        bindService(new Intent(this, CaptureService.class), mConnection, Context.BIND_AUTO_CREATE);
+    }
 
-            }
-        }, new IntentFilter(CaptureService.BROADCAST_STATUS));
+    @Override
+    protected void onStop() {
+        super.onStop();
 
-        // Get the capture service to broadcast the current status
-        sendAction(CaptureService.ACTION_BROADCAST_STATUS);
+        if (mService != null) {
+            sendMessage(CaptureService.MSG_UNREGISTER_CLIENT);
+            mService = null;
+        }
+        unbindService(mConnection);
     }
 
     @Override
@@ -107,6 +98,12 @@ public class MainActivity extends ActionBarActivity
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
 
+        // Further sequences can be started while others are running
+        if (id == R.id.action_new_sequence) {
+            showNewSequenceDialog();
+            return true;
+        }
+
         if (id == R.id.action_settings) {
             startActivity(new Intent(this, SettingsActivity.class));
             return true;
@@ -124,6 +121,101 @@ public class MainActivity extends ActionBarActivity
         startService(intent);
     }
 
+    /**
+     * Ask the user to name a new sequence
+     */
+    private void showNewSequenceDialog() {
+        NewSequenceDialogFragment dialog = new NewSequenceDialogFragment();
+        dialog.show(getFragmentManager(), NewSequenceDialogFragment.class.getSimpleName());
+    }
+
+    /**
+     * Update the views with a status snapshot from the capture service
+     * @param status bundle containing the service's status extras
+     */
+    private void updateStatus(Bundle status) {
+
+        long startTime = status.getLong(CaptureService.EXTRA_START_TIME, 0);
+        int imagesCaptured = status.getInt(CaptureService.EXTRA_IMAGES_CAPTURED, 0);
+        int imagesRemaining = status.getInt(CaptureService.EXTRA_IMAGES_REMAINING, 0);
+
+        // The button is enabled once the status is known
+        mButtonStartStop.setEnabled(true);
+
+        // A capture is said to be in progress if the start time is nonzero
+        mCapturing = startTime != 0;
+        if (mCapturing) {
+
+            mButtonStartStop.setText(R.string.button_stop);
+            mTextStartTime.setText(DateUtils.formatDateTime(this, startTime,
+                    DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME));
+            mTextImagesCaptured.setText(String.valueOf(imagesCaptured));
+
+            // If imagesRemaining is set to 0, there is no limit
+            if (imagesRemaining == 0) {
+                mTextImagesRemaining.setText(R.string.text_na);
+            } else {
+                mTextImagesRemaining.setText(String.valueOf(imagesRemaining));
+            }
+
+        } else {
+
+            mButtonStartStop.setText(R.string.button_start);
+            mTextStartTime.setText(R.string.text_na);
+            mTextImagesCaptured.setText(R.string.text_na);
+            mTextImagesRemaining.setText(R.string.text_na);
+        }
+    }
+
+    /**
+     * Send a message to the capture service with our Messenger as replyTo
+     */
+    private void sendMessage(int what) {
+
+        Message message = Message.obtain(null, what);
+        message.replyTo = mClient;
+        try {
+            mService.send(message);
+        } catch (RemoteException e) {
+            // The service process has died - onServiceDisconnected() follows
+        }
+    }
+
+    /**
+     * Receives status updates from the capture service
+     */
+    private final Messenger mClient = new Messenger(new Handler(new Handler.Callback() {
+
+        @Override
+        public boolean handleMessage(Message message) {
+            if (message.what == CaptureService.MSG_STATUS) {
+                updateStatus(message.getData());
+                return true;
+            }
+            return false;
+        }
+    }));
+
+    /**
+     * Registers for status updates once the service is bound
+     */
+    private ServiceConnection mConnection = new ServiceConnection() {
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mService = new Messenger(service);
+            sendMessage(CaptureService.MSG_REGISTER_CLIENT);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+
+            // The binding is restored automatically if the service restarts
+            mService = null;
+            mButtonStartStop.setEnabled(false);
+        }
+    };
+
     /**
      * Utility method to send an action to the capture service
      */
@@ -0,0 +1,56 @@
+package com.nathanosman.chronosnap.benchmarks;
+
+import com.nathanosman.chronosnap.service.CaptureScheduler;
+import com.nathanosman.chronosnap.service.Clock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the cost of scheduling a single capture
+ *
+ * The fake clock advances by slightly more than the interval on every
+ * capture so that the missed slot policies are exercised as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CaptureSchedulerBenchmark {
+
+    private static final long INTERVAL = 1000;
+
+    @Param({"SKIP", "CATCH_UP", "SHIFT_GRID"})
+    public CaptureScheduler.MissedSlotPolicy policy;
+
+    private long mNow;
+    private CaptureScheduler mCaptureScheduler;
+
+    @Setup
+    public void setup() {
+
+        mNow = 0;
+        mCaptureScheduler = new CaptureScheduler(new Clock() {
+
+            @Override
+            public long elapsedRealtime() {
+                return mNow;
+            }
+        }, 0, INTERVAL, policy);
+    }
+
+    @Benchmark
+    public long captureAndScheduleNext() {
+        mNow += INTERVAL + 7;
+        mCaptureScheduler.onCaptureStarted();
+        return mCaptureScheduler.scheduleNext();
+    }
+}
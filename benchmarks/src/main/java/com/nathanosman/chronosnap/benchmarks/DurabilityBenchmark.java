@@ -0,0 +1,81 @@
+package com.nathanosman.chronosnap.benchmarks;
+
+import com.nathanosman.chronosnap.service.DurabilityPolicy;
+import com.nathanosman.chronosnap.service.SequenceContainerSink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the cost of each durability policy when appending frames to a
+ * container, with and without preallocation
+ *
+ * As with WriteStrategyBenchmark, set java.io.tmpdir to the storage being
+ * measured. Preallocation here can only extend the file since the
+ * benchmark runs on a plain JVM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DurabilityBenchmark {
+
+    @Param({"none", "frames:10", "frame"})
+    public String durability;
+
+    @Param({"0", "16777216"})
+    public long preallocate;
+
+    private File mDirectory;
+    private SequenceContainerSink mSink;
+    private ByteBuffer mFrame;
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        mDirectory = File.createTempFile("chronosnap", "");
+        if (!mDirectory.delete() || !mDirectory.mkdir()) {
+            throw new IOException("Unable to create benchmark directory.");
+        }
+
+        // A direct buffer of random data stands in for a Camera2 JPEG plane
+        byte[] data = new byte[262144];
+        new Random(0).nextBytes(data);
+        mFrame = ByteBuffer.allocateDirect(data.length);
+        mFrame.put(data);
+
+        mSink = new SequenceContainerSink(mDirectory, DurabilityPolicy.parse(durability),
+                preallocate, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mSink.close();
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public void containerAppend() throws IOException {
+        mFrame.clear();
+        mSink.write(mIndex, mIndex * 1000L, mFrame);
+        mIndex++;
+    }
+}
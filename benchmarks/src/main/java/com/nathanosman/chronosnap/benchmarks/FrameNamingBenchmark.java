@@ -0,0 +1,47 @@
+package com.nathanosman.chronosnap.benchmarks;
+
+import com.nathanosman.chronosnap.service.FrameNaming;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares FrameNaming with the String.format() naming it replaced
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameNamingBenchmark {
+
+    @Param({"0", "1000"})
+    public int shardSize;
+
+    private File mSequencePath = new File("/sdcard/DCIM/ChronoSnap/Benchmark");
+    private FrameNaming mFrameNaming;
+    private int mIndex;
+
+    @Setup
+    public void setup() {
+        mFrameNaming = new FrameNaming(mSequencePath, 0, shardSize);
+    }
+
+    @Benchmark
+    public File frameNaming() {
+        return mFrameNaming.getFile(mIndex++ & 0xfffff);
+    }
+
+    @Benchmark
+    public File stringFormat() {
+        return new File(mSequencePath, String.format("%08d", mIndex++ & 0xfffff) + ".jpg");
+    }
+}
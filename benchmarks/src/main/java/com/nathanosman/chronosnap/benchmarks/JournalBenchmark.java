@@ -0,0 +1,115 @@
+package com.nathanosman.chronosnap.benchmarks;
+
+import com.nathanosman.chronosnap.service.CaptureJournal;
+import com.nathanosman.chronosnap.service.LatencyHistogram;
+import com.nathanosman.chronosnap.service.SequenceContainerReader;
+import com.nathanosman.chronosnap.service.SequenceContainerSink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the per-frame bookkeeping: journal records, container index
+ * entries and lookups, and histogram updates
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JournalBenchmark {
+
+    /**
+     * Number of frames in the container used for lookups
+     */
+    private static final int FRAME_COUNT = 50000;
+
+    private File mDirectory;
+    private CaptureJournal mJournal;
+    private SequenceContainerSink mSink;
+    private SequenceContainerReader mReader;
+    private LatencyHistogram mHistogram = new LatencyHistogram();
+    private ByteBuffer mFrame = ByteBuffer.allocate(64);
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        mDirectory = File.createTempFile("chronosnap", "");
+        if (!mDirectory.delete() || !mDirectory.mkdir()) {
+            throw new IOException("Unable to create benchmark directory.");
+        }
+
+        CaptureJournal.State state = new CaptureJournal.State();
+        state.sequenceName = "Benchmark";
+        state.interval = 1000;
+        mJournal = new CaptureJournal(new File(mDirectory, "capture.journal"));
+        mJournal.begin(state);
+
+        // Build a closed container to read from and an open one to append to
+        File readPath = new File(mDirectory, "read");
+        SequenceContainerSink sink = new SequenceContainerSink(readPath);
+        for (int i = 0; i < FRAME_COUNT; ++i) {
+            mFrame.clear();
+            sink.write(i, i * 1000L, mFrame);
+        }
+        sink.close();
+        mReader = new SequenceContainerReader(sink.getFile());
+
+        mSink = new SequenceContainerSink(new File(mDirectory, "write"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+
+        mJournal.end();
+        mReader.close();
+        mSink.close();
+        delete(mDirectory);
+    }
+
+    @Benchmark
+    public void journalAppend() throws IOException {
+        mJournal.append(mIndex, 0, mIndex, 1000);
+        mIndex++;
+    }
+
+    @Benchmark
+    public void containerAppend() throws IOException {
+        mFrame.clear();
+        mSink.write(mIndex, mIndex * 1000L, mFrame);
+        mIndex++;
+    }
+
+    @Benchmark
+    public long containerLookup() {
+        int position = mReader.find(mIndex++ % FRAME_COUNT);
+        return mReader.getTimestamp(position);
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        mHistogram.record(mIndex++ & 0xffff);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,128 @@
+package com.nathanosman.chronosnap.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares ways of writing a JPEG-sized buffer to its own file
+ *
+ * Files are written to a temporary directory (set java.io.tmpdir to the
+ * storage being measured) and a small set of names is reused so that the
+ * directory does not grow during the run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WriteStrategyBenchmark {
+
+    private static final int FILE_COUNT = 16;
+
+    @Param({"262144", "3145728"})
+    public int size;
+
+    private File mDirectory;
+    private byte[] mData;
+    private ByteBuffer mHeapBuffer;
+    private ByteBuffer mDirectBuffer;
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        mDirectory = File.createTempFile("chronosnap", "");
+        if (!mDirectory.delete() || !mDirectory.mkdir()) {
+            throw new IOException("Unable to create benchmark directory.");
+        }
+
+        // Random data is not compressible, just like JPEG data
+        mData = new byte[size];
+        new Random(0).nextBytes(mData);
+        mHeapBuffer = ByteBuffer.wrap(mData);
+        mDirectBuffer = ByteBuffer.allocateDirect(size);
+        mDirectBuffer.put(mData);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public void fileOutputStream() throws IOException {
+        OutputStream outputStream = new FileOutputStream(nextFile());
+        try {
+            outputStream.write(mData);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @Benchmark
+    public void bufferedOutputStream() throws IOException {
+
+        // Writes in 8 KB pieces the way a stream-based encoder would
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(nextFile()));
+        try {
+            for (int offset = 0; offset < size; offset += 8192) {
+                outputStream.write(mData, offset, Math.min(8192, size - offset));
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @Benchmark
+    public void fileChannelHeap() throws IOException {
+        writeChannel(mHeapBuffer);
+    }
+
+    @Benchmark
+    public void fileChannelDirect() throws IOException {
+        writeChannel(mDirectBuffer);
+    }
+
+    /**
+     * Write a buffer with FileChannel the way JpegFileSink does
+     */
+    private void writeChannel(ByteBuffer buffer) throws IOException {
+
+        ByteBuffer data = buffer.duplicate();
+        data.clear();
+
+        FileOutputStream outputStream = new FileOutputStream(nextFile());
+        try {
+            FileChannel channel = outputStream.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private File nextFile() {
+        return new File(mDirectory, String.valueOf(mIndex++ % FILE_COUNT));
+    }
+}
@@ -0,0 +1,109 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Adjusts the capture interval to how much the scene is changing
+ *
+ * The interval starts at the minimum. Whenever a frame differs a lot from
+ * the one before it, the interval is halved (down to the minimum) so that
+ * the action is captured; whenever the scene is static, the interval grows
+ * gradually (up to the maximum) to save power and storage. In between,
+ * the interval is left alone.
+ */
+public class AdaptiveInterval {
+
+    /**
+     * Mean absolute luma difference below which the scene is static
+     */
+    private static final double LOW_CHANGE = 1;
+
+    /**
+     * Mean absolute luma difference above which the scene is busy
+     */
+    private static final double HIGH_CHANGE = 4;
+
+    /**
+     * Factor by which the interval grows while the scene is static
+     */
+    private static final double GROWTH = 1.25;
+
+    // Data initialized in the constructor
+    private long mMinInterval;
+    private long mMaxInterval;
+
+    private long mInterval;
+
+    /**
+     * Create an adaptive interval
+     * @param minInterval shortest interval, used while the scene is busy
+     * @param maxInterval longest interval, used while the scene is static
+     */
+    public AdaptiveInterval(long minInterval, long maxInterval) {
+        mMinInterval = minInterval;
+        mMaxInterval = maxInterval;
+        mInterval = minInterval;
+    }
+
+    /**
+     * Create an interval that never changes
+     * @param interval time between captures
+     */
+    public static AdaptiveInterval fixed(long interval) {
+        return new AdaptiveInterval(interval, interval);
+    }
+
+    /**
+     * Create an adaptive interval from its preference value
+     * @param value "none" or "factor:N" where N is the maximum multiple of the interval
+     * @param interval time between captures while the scene is busy
+     * @return adaptive interval
+     */
+    public static AdaptiveInterval parse(String value, long interval) {
+
+        if (value.equals("none")) {
+            return fixed(interval);
+        } else if (value.startsWith("factor:")) {
+            return new AdaptiveInterval(interval, interval * Integer.parseInt(value.substring(7)));
+        }
+
+        throw new IllegalArgumentException("Invalid adaptive interval \"" + value + "\".");
+    }
+
+    /**
+     * Determine whether the interval ever changes
+     */
+    public boolean isEnabled() {
+        return mMaxInterval > mMinInterval;
+    }
+
+    /**
+     * Continue from an interval chosen earlier (for example after a restart)
+     * @param interval interval in use when the sequence was interrupted
+     */
+    public void restore(long interval) {
+        mInterval = Math.min(mMaxInterval, Math.max(mMinInterval, interval));
+    }
+
+    /**
+     * Retrieve the current interval
+     */
+    public long getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * Adjust the interval to the most recent change measured
+     * @param change mean absolute luma difference between frames (negative if unknown)
+     * @return new interval
+     */
+    public long onSceneChange(double change) {
+
+        if (change >= HIGH_CHANGE) {
+            mInterval = Math.max(mMinInterval, mInterval / 2);
+        } else if (change >= 0 && change < LOW_CHANGE) {
+            mInterval = Math.min(mMaxInterval, (long) (mInterval * GROWTH));
+        }
+
+        return mInterval;
+    }
+}
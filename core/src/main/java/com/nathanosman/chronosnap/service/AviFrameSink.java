@@ -0,0 +1,93 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Builds a Motion JPEG AVI video of the sequence while it is captured
+ *
+ * AVI 1.0 files are limited in size, so the video is split into segments
+ * of at most SEGMENT_SIZE bytes (timelapse.avi, timelapse_001.avi, ...).
+ */
+public class AviFrameSink implements FrameSink {
+
+    /**
+     * Maximum size of a single segment
+     */
+    private static final long SEGMENT_SIZE = 1024L * 1024 * 1024;
+
+    // Data initialized in the constructor
+    private File mSequencePath;
+    private int mFrameRate;
+
+    // Segments created so far and the writer for the current one
+    private List<File> mFiles = new ArrayList<>();
+    private AviMjpegWriter mWriter;
+
+    /**
+     * Initialize the sink
+     * @param sequencePath directory that the video is written to
+     * @param frameRate playback frame rate
+     */
+    public AviFrameSink(File sequencePath, int frameRate) {
+        mSequencePath = sequencePath;
+        mFrameRate = frameRate;
+    }
+
+    /**
+     * Retrieve every segment created so far
+     */
+    public List<File> getFiles() {
+        return mFiles;
+    }
+
+    @Override
+    public void write(int index, long timestamp, ByteBuffer data) throws IOException {
+
+        // Start a new segment if this frame would push the current one over the limit
+        if (mWriter != null && mWriter.getSize() + data.remaining() + 8 > SEGMENT_SIZE) {
+            mWriter.finish();
+            mWriter = null;
+        }
+
+        if (mWriter == null) {
+
+            StorageDirectory.create(mSequencePath);
+
+            // Segments left behind by an earlier run of the same sequence
+            // (for example when capture resumes after the process was
+            // killed) are repaired and kept rather than overwritten
+            File file = getSegmentFile(mFiles.size());
+            while (file.exists()) {
+                AviMjpegWriter.recover(file, mFrameRate);
+                mFiles.add(file);
+                file = getSegmentFile(mFiles.size());
+            }
+
+            mWriter = new AviMjpegWriter(file, mFrameRate);
+            mFiles.add(file);
+        }
+
+        mWriter.writeFrame(data);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mWriter != null) {
+            mWriter.finish();
+            mWriter = null;
+        }
+    }
+
+    /**
+     * Determine the file used for the specified segment
+     */
+    private File getSegmentFile(int segment) {
+        return new File(mSequencePath, segment == 0 ? "timelapse.avi" :
+                String.format("timelapse_%03d.avi", segment));
+    }
+}
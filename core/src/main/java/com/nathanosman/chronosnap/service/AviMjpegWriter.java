@@ -0,0 +1,432 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Appends JPEG frames to an AVI file as a Motion JPEG stream
+ *
+ * The JPEG data is copied into the file unmodified - nothing is decoded or
+ * re-encoded. The header is written with placeholder values when the file
+ * is created and patched every few frames, and the idx1 index is kept in
+ * memory and appended when the file is finished. If the process dies
+ * before finish() is called, recover() rebuilds the index from the frames
+ * that made it to disk.
+ *
+ * Only files created by this class are supported, which allows the header
+ * to use a fixed layout.
+ */
+public class AviMjpegWriter {
+
+    // Flags used in the main header and the index
+    private static final int AVIF_HASINDEX = 0x10;
+    private static final int AVIIF_KEYFRAME = 0x10;
+
+    // Offsets of the fields that are patched after the header is written
+    private static final int RIFF_SIZE = 4;
+    private static final int AVIH_MAX_BYTES_PER_SEC = 36;
+    private static final int AVIH_TOTAL_FRAMES = 48;
+    private static final int AVIH_SUGGESTED_BUFFER_SIZE = 60;
+    private static final int AVIH_WIDTH = 64;
+    private static final int AVIH_HEIGHT = 68;
+    private static final int STRH_LENGTH = 140;
+    private static final int STRH_SUGGESTED_BUFFER_SIZE = 144;
+    private static final int STRH_FRAME_RIGHT = 160;
+    private static final int STRH_FRAME_BOTTOM = 162;
+    private static final int STRF_WIDTH = 176;
+    private static final int STRF_HEIGHT = 180;
+    private static final int STRF_SIZE_IMAGE = 192;
+    private static final int MOVI_SIZE = 216;
+
+    /**
+     * Offset of the 'movi' FOURCC (index offsets are relative to this)
+     */
+    private static final int MOVI_START = 220;
+
+    /**
+     * Total size of the header, which is also where the first frame starts
+     */
+    private static final int HEADER_SIZE = 224;
+
+    /**
+     * Number of frames between header updates
+     */
+    private static final int PATCH_INTERVAL = 30;
+
+    // Data initialized in the constructor
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private int mFrameRate;
+
+    // Scratch buffer for chunk headers and header fields
+    private ByteBuffer mScratch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+    // In-memory copy of the index (offset and size of each frame)
+    private int[] mOffsets = new int[256];
+    private int[] mSizes = new int[256];
+    private int mFrameCount;
+
+    // Values that are patched into the header
+    private long mMoviEnd = HEADER_SIZE;
+    private int mMaxFrameSize;
+    private boolean mDimensionsKnown;
+
+    /**
+     * Create a new AVI file
+     * @param file destination file (overwritten if it exists)
+     * @param frameRate playback frame rate
+     */
+    public AviMjpegWriter(File file, int frameRate) throws IOException {
+
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mFrameRate = frameRate;
+
+        writeHeader();
+    }
+
+    /**
+     * Retrieve the number of frames written so far
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Retrieve the current size of the file in bytes
+     */
+    public long getSize() {
+        return mMoviEnd;
+    }
+
+    /**
+     * Append a frame
+     * @param data JPEG data - the buffer is consumed
+     */
+    public void writeFrame(ByteBuffer data) throws IOException {
+
+        int size = data.remaining();
+
+        // The first frame determines the dimensions of the video
+        if (!mDimensionsKnown) {
+            int[] dimensions = readDimensions(data.duplicate());
+            if (dimensions != null) {
+                patchDimensions(dimensions[0], dimensions[1]);
+                mDimensionsKnown = true;
+            }
+        }
+
+        // Write the chunk header, the data and (if needed) a padding byte
+        mChannel.position(mMoviEnd);
+        writeChunkHeader("00dc", size);
+        while (data.hasRemaining()) {
+            mChannel.write(data);
+        }
+        if (size % 2 != 0) {
+            mScratch.clear();
+            mScratch.put((byte) 0).flip();
+            mChannel.write(mScratch);
+        }
+
+        // Record the frame in the index
+        if (mFrameCount == mOffsets.length) {
+            mOffsets = grow(mOffsets);
+            mSizes = grow(mSizes);
+        }
+        mOffsets[mFrameCount] = (int) (mMoviEnd - MOVI_START);
+        mSizes[mFrameCount] = size;
+        mFrameCount++;
+
+        mMoviEnd += 8 + size + size % 2;
+        mMaxFrameSize = Math.max(mMaxFrameSize, size);
+
+        // Keep the header reasonably current so that a file without an
+        // index is still readable by lenient players
+        if (mFrameCount % PATCH_INTERVAL == 0) {
+            patchHeader(mMoviEnd);
+        }
+    }
+
+    /**
+     * Append the index, patch the header and close the file
+     */
+    public void finish() throws IOException {
+
+        try {
+            writeIndex();
+        } finally {
+            mFile.close();
+        }
+    }
+
+    /**
+     * Repair a file that was not finished
+     * @param file file created by this class
+     * @param frameRate playback frame rate
+     * @return number of frames recovered
+     *
+     * Frames are read back from the movi list until the end of the file or
+     * the first incomplete chunk. Anything after the last complete frame is
+     * truncated and a new index is written.
+     */
+    public static int recover(File file, int frameRate) throws IOException {
+
+        AviMjpegWriter writer = new AviMjpegWriter(new RandomAccessFile(file, "rw"), frameRate);
+        try {
+            writer.scan();
+            writer.writeIndex();
+        } finally {
+            writer.mFile.close();
+        }
+
+        return writer.mFrameCount;
+    }
+
+    /**
+     * Open an existing file for recovery
+     */
+    private AviMjpegWriter(RandomAccessFile file, int frameRate) {
+
+        mFile = file;
+        mChannel = file.getChannel();
+        mFrameRate = frameRate;
+    }
+
+    /**
+     * Rebuild the in-memory index from the frames in the file
+     */
+    private void scan() throws IOException {
+
+        long length = mChannel.size();
+        long position = HEADER_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (position + 8 <= length) {
+
+            header.clear();
+            mChannel.read(header, position);
+            header.flip();
+
+            // Stop at the first chunk that isn't a complete frame
+            int fourcc = header.getInt();
+            int size = header.getInt();
+            long next = position + 8 + size + size % 2;
+            if (fourcc != fourcc("00dc") || size < 0 || next > length) {
+                break;
+            }
+
+            if (mFrameCount == mOffsets.length) {
+                mOffsets = grow(mOffsets);
+                mSizes = grow(mSizes);
+            }
+            mOffsets[mFrameCount] = (int) (position - MOVI_START);
+            mSizes[mFrameCount] = size;
+            mFrameCount++;
+            mMaxFrameSize = Math.max(mMaxFrameSize, size);
+
+            position = next;
+        }
+
+        mMoviEnd = position;
+    }
+
+    /**
+     * Write the index after the last frame and patch the header to match
+     */
+    private void writeIndex() throws IOException {
+
+        // Anything after the last frame (including an old index) is discarded
+        mChannel.truncate(mMoviEnd);
+        mChannel.position(mMoviEnd);
+
+        ByteBuffer index = ByteBuffer.allocate(8 + 16 * mFrameCount).order(ByteOrder.LITTLE_ENDIAN);
+        index.putInt(fourcc("idx1")).putInt(16 * mFrameCount);
+        for (int i = 0; i < mFrameCount; ++i) {
+            index.putInt(fourcc("00dc")).putInt(AVIIF_KEYFRAME).putInt(mOffsets[i]).putInt(mSizes[i]);
+        }
+        index.flip();
+        while (index.hasRemaining()) {
+            mChannel.write(index);
+        }
+
+        patchHeader(mChannel.size());
+    }
+
+    /**
+     * Write the complete header with placeholder sizes
+     */
+    private void writeHeader() throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        header.putInt(fourcc("RIFF")).putInt(0).putInt(fourcc("AVI "));
+        header.putInt(fourcc("LIST")).putInt(192).putInt(fourcc("hdrl"));
+
+        // Main AVI header
+        header.putInt(fourcc("avih")).putInt(56);
+        header.putInt(1000000 / mFrameRate);    // dwMicroSecPerFrame
+        header.putInt(0);                       // dwMaxBytesPerSec
+        header.putInt(0);                       // dwPaddingGranularity
+        header.putInt(AVIF_HASINDEX);           // dwFlags
+        header.putInt(0);                       // dwTotalFrames
+        header.putInt(0);                       // dwInitialFrames
+        header.putInt(1);                       // dwStreams
+        header.putInt(0);                       // dwSuggestedBufferSize
+        header.putInt(0);                       // dwWidth
+        header.putInt(0);                       // dwHeight
+        header.putInt(0).putInt(0).putInt(0).putInt(0);
+
+        header.putInt(fourcc("LIST")).putInt(116).putInt(fourcc("strl"));
+
+        // Stream header
+        header.putInt(fourcc("strh")).putInt(56);
+        header.putInt(fourcc("vids"));          // fccType
+        header.putInt(fourcc("MJPG"));          // fccHandler
+        header.putInt(0);                       // dwFlags
+        header.putShort((short) 0);             // wPriority
+        header.putShort((short) 0);             // wLanguage
+        header.putInt(0);                       // dwInitialFrames
+        header.putInt(1);                       // dwScale
+        header.putInt(mFrameRate);              // dwRate
+        header.putInt(0);                       // dwStart
+        header.putInt(0);                       // dwLength
+        header.putInt(0);                       // dwSuggestedBufferSize
+        header.putInt(-1);                      // dwQuality
+        header.putInt(0);                       // dwSampleSize
+        header.putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+
+        // Stream format
+        header.putInt(fourcc("strf")).putInt(40);
+        header.putInt(40);                      // biSize
+        header.putInt(0);                       // biWidth
+        header.putInt(0);                       // biHeight
+        header.putShort((short) 1);             // biPlanes
+        header.putShort((short) 24);            // biBitCount
+        header.putInt(fourcc("MJPG"));          // biCompression
+        header.putInt(0);                       // biSizeImage
+        header.putInt(0).putInt(0).putInt(0).putInt(0);
+
+        header.putInt(fourcc("LIST")).putInt(4).putInt(fourcc("movi"));
+
+        header.flip();
+        mChannel.position(0);
+        while (header.hasRemaining()) {
+            mChannel.write(header);
+        }
+    }
+
+    /**
+     * Update the sizes and counts in the header
+     * @param fileSize current size of the file
+     */
+    private void patchHeader(long fileSize) throws IOException {
+
+        putInt(RIFF_SIZE, (int) (fileSize - 8));
+        putInt(MOVI_SIZE, (int) (mMoviEnd - MOVI_START));
+        putInt(AVIH_TOTAL_FRAMES, mFrameCount);
+        putInt(STRH_LENGTH, mFrameCount);
+        putInt(AVIH_MAX_BYTES_PER_SEC, mMaxFrameSize * mFrameRate);
+        putInt(AVIH_SUGGESTED_BUFFER_SIZE, mMaxFrameSize);
+        putInt(STRH_SUGGESTED_BUFFER_SIZE, mMaxFrameSize);
+    }
+
+    /**
+     * Write the video dimensions into the header
+     */
+    private void patchDimensions(int width, int height) throws IOException {
+
+        putInt(AVIH_WIDTH, width);
+        putInt(AVIH_HEIGHT, height);
+        putShort(STRH_FRAME_RIGHT, width);
+        putShort(STRH_FRAME_BOTTOM, height);
+        putInt(STRF_WIDTH, width);
+        putInt(STRF_HEIGHT, height);
+        putInt(STRF_SIZE_IMAGE, width * height * 3);
+    }
+
+    /**
+     * Write an 8-byte chunk header at the current position
+     */
+    private void writeChunkHeader(String fourcc, int size) throws IOException {
+        mScratch.clear();
+        mScratch.putInt(fourcc(fourcc)).putInt(size).flip();
+        mChannel.write(mScratch);
+    }
+
+    /**
+     * Write a little-endian integer at an absolute position
+     */
+    private void putInt(long position, int value) throws IOException {
+        mScratch.clear();
+        mScratch.putInt(value).flip();
+        mChannel.write(mScratch, position);
+    }
+
+    /**
+     * Write a little-endian short at an absolute position
+     */
+    private void putShort(long position, int value) throws IOException {
+        mScratch.clear();
+        mScratch.putShort((short) value).flip();
+        mChannel.write(mScratch, position);
+    }
+
+    /**
+     * Convert a FOURCC to its little-endian integer representation
+     */
+    private static int fourcc(String fourcc) {
+        return fourcc.charAt(0) | fourcc.charAt(1) << 8 | fourcc.charAt(2) << 16 | fourcc.charAt(3) << 24;
+    }
+
+    /**
+     * Double the size of an array
+     */
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Read the dimensions of a JPEG image from its SOF marker
+     * @param data JPEG data
+     * @return width and height or null if they could not be found
+     */
+    private static int[] readDimensions(ByteBuffer data) {
+
+        data.order(ByteOrder.BIG_ENDIAN);
+
+        // Skip the SOI marker and walk the segments until a SOFn marker
+        if (data.remaining() < 2 || (data.getShort() & 0xffff) != 0xffd8) {
+            return null;
+        }
+
+        while (data.remaining() >= 4) {
+
+            int marker = data.getShort() & 0xffff;
+            int length = data.getShort() & 0xffff;
+
+            boolean sof = marker >= 0xffc0 && marker <= 0xffcf &&
+                    marker != 0xffc4 && marker != 0xffc8 && marker != 0xffcc;
+            if (sof && data.remaining() >= 5) {
+                data.get();
+                int height = data.getShort() & 0xffff;
+                int width = data.getShort() & 0xffff;
+                return new int[]{width, height};
+            }
+
+            if (length < 2 || data.remaining() < length - 2) {
+                break;
+            }
+            data.position(data.position() + length - 2);
+        }
+
+        return null;
+    }
+}
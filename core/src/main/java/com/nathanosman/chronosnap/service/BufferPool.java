@@ -0,0 +1,95 @@
+package com.nathanosman.chronosnap.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Pool of byte arrays reused by the capture pipeline
+ *
+ * Arrays are charged against a MemoryBudget for as long as the pool owns
+ * them, whether they are in use or idle. A request is served by the
+ * smallest idle array that is large enough and a new array is only
+ * allocated if the budget allows it. Idle arrays are handed back to the
+ * garbage collector by trim(), which the budget also calls whenever a
+ * reservation does not fit so that idle arrays never keep frames out.
+ */
+public class BufferPool implements MemoryBudget.Reclaimer {
+
+    // Data initialized in the constructor
+    private MemoryBudget mBudget;
+
+    // Arrays that are not in use
+    private List<byte[]> mIdle = new ArrayList<>();
+
+    /**
+     * Initialize the pool
+     * @param budget budget that arrays are charged against
+     */
+    public BufferPool(MemoryBudget budget) {
+        mBudget = budget;
+        mBudget.setReclaimer(this);
+    }
+
+    /**
+     * Take an array from the pool
+     * @param size minimum length of the array
+     * @return array (possibly longer than requested) or null if the budget is exhausted
+     */
+    public synchronized byte[] acquire(int size) {
+
+        int best = -1;
+        for (int i = 0; i < mIdle.size(); ++i) {
+            int length = mIdle.get(i).length;
+            if (length >= size && (best == -1 || length < mIdle.get(best).length)) {
+                best = i;
+            }
+        }
+        if (best != -1) {
+            return mIdle.remove(best);
+        }
+
+        // Idle arrays that are too small are given up to make room (the
+        // budget reclaims them through trim() if this doesn't fit)
+        if (!mBudget.tryReserve(size)) {
+            return null;
+        }
+
+        return new byte[size];
+    }
+
+    /**
+     * Return an array to the pool
+     * @param buffer array returned by acquire()
+     */
+    public synchronized void release(byte[] buffer) {
+        mIdle.add(buffer);
+    }
+
+    @Override
+    public void reclaim() {
+        trim();
+    }
+
+    /**
+     * Free every idle array
+     */
+    public synchronized void trim() {
+        for (byte[] buffer : mIdle) {
+            mBudget.release(buffer.length);
+        }
+        mIdle.clear();
+    }
+
+    /**
+     * Retrieve the total length of the idle arrays
+     */
+    public synchronized long getIdleBytes() {
+
+        long bytes = 0;
+        for (byte[] buffer : mIdle) {
+            bytes += buffer.length;
+        }
+        return bytes;
+    }
+}
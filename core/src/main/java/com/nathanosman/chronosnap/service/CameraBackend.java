@@ -0,0 +1,185 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Abstraction over the camera hardware used by ImageCapturer
+ *
+ * Implementations wrap a specific camera API (android.hardware.Camera or
+ * Camera2) but this interface deliberately avoids any Android types so that
+ * the capture logic can be exercised on the JVM with a fake device.
+ *
+ * A backend is confined to a single looper thread: every method must be
+ * called on it and every callback is delivered on it.
+ */
+public interface CameraBackend {
+
+    /**
+     * Callback interface used when opening the camera
+     */
+    interface OpenCallback {
+
+        /**
+         * Called once the camera is open and ready to take pictures
+         */
+        void onOpened();
+
+        /**
+         * Called if the camera could not be opened
+         * @param errorMessage human-readable description of the error
+         */
+        void onError(String errorMessage);
+    }
+
+    /**
+     * Callback interface used when taking a picture
+     */
+    interface PictureCallback {
+
+        /**
+         * Called when the JPEG data for the picture is available
+         * @param frame captured frame - release() must be called once the data is no longer needed
+         */
+        void onPictureTaken(JpegFrame frame);
+
+        /**
+         * Called instead of taking the picture if the lens could not be focused
+         *
+         * The camera remains open and takePicture() may be called again.
+         */
+        void onFocusFailed();
+
+        /**
+         * Called if the picture could not be taken
+         * @param errorMessage human-readable description of the error
+         */
+        void onError(String errorMessage);
+    }
+
+    /**
+     * Callback interface used for frames from the preview stream
+     */
+    interface PreviewCallback {
+
+        /**
+         * Called for each frame in the preview stream
+         * @param frame preview frame - release() must be called once the data is no longer needed
+         */
+        void onPreviewFrame(PreviewFrame frame);
+
+        /**
+         * Called if the stream could not be started or stopped unexpectedly
+         * @param errorMessage human-readable description of the error
+         */
+        void onError(String errorMessage);
+    }
+
+    /**
+     * Callback interface used to report how long each stage took
+     */
+    interface StageListener {
+
+        /**
+         * Called when a stage completes successfully
+         * @param stage stage that completed
+         * @param durationMillis time taken by the stage
+         */
+        void onStageComplete(CaptureStage stage, long durationMillis);
+    }
+
+    /**
+     * Set the listener for stage timings
+     * @param listener listener or null to stop reporting
+     */
+    void setStageListener(StageListener listener);
+
+    /**
+     * Open the camera
+     * @param callback callback for open events
+     *
+     * The camera remains open until close() is called and may be used for
+     * any number of pictures in the meantime.
+     */
+    void open(OpenCallback callback);
+
+    /**
+     * Determine whether the camera is currently open
+     * @return true if takePicture() may be called
+     */
+    boolean isOpen();
+
+    /**
+     * Take a single picture
+     * @param autofocus true to focus before the picture is taken
+     * @param callback callback for picture events
+     *
+     * Without autofocus the lens is left where the last focus put it for as
+     * long as the camera stays open.
+     */
+    void takePicture(boolean autofocus, PictureCallback callback);
+
+    /**
+     * Retrieve the lowest supported exposure compensation
+     * @return compensation in steps (0 if compensation is unsupported)
+     *
+     * This and the two methods below may only be called while the camera is open.
+     */
+    int getMinExposureCompensation();
+
+    /**
+     * Retrieve the highest supported exposure compensation
+     * @return compensation in steps (0 if compensation is unsupported)
+     */
+    int getMaxExposureCompensation();
+
+    /**
+     * Retrieve the size of each exposure compensation step
+     * @return step in EV (0 if compensation is unsupported)
+     */
+    float getExposureCompensationStep();
+
+    /**
+     * Set the exposure used for following pictures
+     * @param lock true to lock auto-exposure and auto-white-balance at their current values
+     * @param compensation exposure compensation in steps
+     *
+     * The camera must be open. Settings are lost when the camera is closed.
+     * Compensation still applies while auto-exposure is locked. Locks that
+     * the device does not support are ignored.
+     */
+    void setExposure(boolean lock, int compensation);
+
+    /**
+     * Set the JPEG quality of following pictures
+     * @param quality quality between 1 and 100 or 0 for the camera's default
+     *
+     * The camera must be open. The setting is lost when the camera is closed.
+     */
+    void setJpegQuality(int quality);
+
+    /**
+     * Set how many pictures may be held at once before they are released
+     * @param count largest number of pictures that are not yet released
+     * @return true if the camera is open and must be reopened for the new limit to take effect
+     *
+     * Backends that copy every picture out of the camera have no limit and
+     * ignore this.
+     */
+    boolean setPictureLimit(int count);
+
+    /**
+     * Start delivering frames from the preview stream
+     * @param bufferCount number of frame buffers to allocate up front
+     * @param callback callback for preview frames
+     *
+     * The camera must be open. Frames are delivered into a fixed pool of
+     * buffers until close() is called - when every buffer is in use,
+     * frames are dropped until one is released. takePicture() may not be
+     * used while the stream is running.
+     */
+    void startPreviewStream(int bufferCount, PreviewCallback callback);
+
+    /**
+     * Close the camera and release all resources associated with it
+     */
+    void close();
+}
@@ -0,0 +1,86 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Decides whether several cameras are driven at the same time
+ *
+ * Whether two cameras can be open at once depends on the device and cannot
+ * be queried on the platform versions we support, so the first tick that
+ * involves more than one camera simply tries it. If any camera fails during
+ * a parallel tick, the cameras are used one after another from then on. A
+ * device that has captured in parallel before is given another chance
+ * after RETRY_TICKS serial ticks since the failure may have been caused by
+ * another app holding a camera.
+ */
+public class CameraConcurrencyPolicy {
+
+    /**
+     * Number of serial ticks before parallel capture is attempted again
+     */
+    private static final int RETRY_TICKS = 100;
+
+    /**
+     * What is known about the device
+     */
+    public enum Mode {
+
+        /**
+         * Nothing has been attempted yet
+         */
+        UNKNOWN,
+
+        /**
+         * Cameras have been captured from in parallel successfully
+         */
+        PARALLEL,
+
+        /**
+         * A parallel capture has failed
+         */
+        SERIAL
+    }
+
+    private Mode mMode = Mode.UNKNOWN;
+
+    // Whether parallel capture has ever succeeded and ticks left until retrying it
+    private boolean mSucceeded = false;
+    private int mRetryTicks;
+
+    /**
+     * Determine whether the cameras for the next tick should be captured in parallel
+     * @param cameraCount number of distinct cameras involved in the tick
+     */
+    public boolean shouldCaptureInParallel(int cameraCount) {
+
+        if (cameraCount < 2) {
+            return false;
+        }
+
+        if (mMode == Mode.SERIAL && mSucceeded && --mRetryTicks <= 0) {
+            mMode = Mode.UNKNOWN;
+        }
+        return mMode != Mode.SERIAL;
+    }
+
+    /**
+     * Record the outcome of a parallel tick
+     * @param succeeded true if every camera captured its image
+     */
+    public void onParallelCapture(boolean succeeded) {
+
+        if (succeeded) {
+            mMode = Mode.PARALLEL;
+            mSucceeded = true;
+        } else {
+            mMode = Mode.SERIAL;
+            mRetryTicks = RETRY_TICKS;
+        }
+    }
+
+    /**
+     * Retrieve what is currently known about the device
+     */
+    public Mode getMode() {
+        return mMode;
+    }
+}
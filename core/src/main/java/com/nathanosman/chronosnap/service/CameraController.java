@@ -0,0 +1,342 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * State machine that takes a CameraBackend from open to focus, capture and close
+ *
+ * The controller opens the camera when a capture or the preview stream is
+ * requested, waits for it if it is already being opened, retries a focus
+ * that fails, and tells late callbacks for an abandoned capture apart from
+ * those of the next one. What is captured and where it goes is left to
+ * the listener.
+ *
+ * The controller is confined to the thread that the backend is driven
+ * from: every method must be called on it and every listener method is
+ * invoked on it.
+ */
+public class CameraController {
+
+    /**
+     * Number of times focusing is attempted before capturing without it
+     */
+    public static final int MAX_FOCUS_ATTEMPTS = 3;
+
+    /**
+     * State of the camera as seen by a controller
+     */
+    public enum State {
+
+        /**
+         * The camera is closed (or was opened by another controller sharing it)
+         */
+        CLOSED,
+
+        /**
+         * The camera is being opened
+         */
+        OPENING,
+
+        /**
+         * The camera is open and idle or streaming preview frames
+         */
+        PREVIEWING,
+
+        /**
+         * The lens is being focused before a picture is taken
+         */
+        FOCUSING,
+
+        /**
+         * The shutter has been triggered and the picture is on its way
+         */
+        CAPTURING,
+
+        /**
+         * The camera is being closed
+         */
+        CLOSING
+    }
+
+    /**
+     * Callback interface used to drive the capture
+     */
+    public interface Listener {
+
+        /**
+         * Called when the camera has been opened
+         *
+         * Anything that was set on the camera before it was last closed
+         * (such as the lens position) has been lost.
+         */
+        void onOpened();
+
+        /**
+         * Called once the camera is ready to take the requested picture
+         * @return true to focus before the picture is taken
+         *
+         * Settings for the picture should be applied to the camera here.
+         */
+        boolean onCaptureReady();
+
+        /**
+         * Called once the camera is ready to start the requested preview stream
+         */
+        void onStreamReady();
+
+        /**
+         * Called when the lens could not be focused
+         * @param attempts number of attempts made so far
+         * @param retrying false if the picture is taken without focusing instead
+         */
+        void onFocusFailed(int attempts, boolean retrying);
+
+        /**
+         * Called when the picture has been taken
+         * @param frame captured frame - ownership passes to the listener
+         * @param focused true if the lens was focused for the picture
+         */
+        void onPictureTaken(JpegFrame frame, boolean focused);
+
+        /**
+         * Called if the camera could not be opened or the picture could not be taken
+         * @param errorMessage human-readable description of the error
+         */
+        void onError(String errorMessage);
+    }
+
+    // Data initialized in the constructor
+    private CameraBackend mCameraBackend;
+    private Listener mListener;
+
+    // The ID changes whenever a capture is abandoned so that late
+    // callbacks for it can be told apart from those of the next one
+    private State mState = State.CLOSED;
+    private boolean mPending = false;
+    private boolean mStreaming = false;
+    private int mCaptureId;
+    private int mFocusAttempts;
+
+    /**
+     * Initialize the controller
+     * @param cameraBackend backend used to drive the camera
+     * @param listener listener for capture events
+     */
+    public CameraController(CameraBackend cameraBackend, Listener listener) {
+        mCameraBackend = cameraBackend;
+        mListener = listener;
+    }
+
+    /**
+     * Retrieve the current state
+     */
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * Determine whether frames are being taken from the preview stream
+     */
+    public boolean isStreaming() {
+        return mStreaming;
+    }
+
+    /**
+     * Open the camera ahead of the next capture
+     *
+     * This does nothing if the camera is already open or being opened.
+     */
+    public void prepare() {
+        if (!mCameraBackend.isOpen() && mState != State.OPENING) {
+            open();
+        }
+    }
+
+    /**
+     * Take a picture, opening the camera first if necessary
+     */
+    public void startCapture() {
+        mStreaming = false;
+        start();
+    }
+
+    /**
+     * Start the preview stream, opening the camera first if necessary
+     *
+     * The controller stays in the streaming state until close() is called.
+     */
+    public void startStream() {
+        mStreaming = true;
+        start();
+    }
+
+    /**
+     * Abandon the capture in progress and close the camera
+     * @return true if a capture was abandoned
+     *
+     * Nothing happens if no capture is in progress or if frames are being
+     * taken from the preview stream.
+     */
+    public boolean cancel() {
+
+        boolean inProgress = mPending || mState == State.FOCUSING || mState == State.CAPTURING;
+        if (mStreaming || !inProgress) {
+            return false;
+        }
+
+        close();
+        return true;
+    }
+
+    /**
+     * Close the camera and abandon anything that was waiting for it
+     */
+    public void close() {
+        mState = State.CLOSING;
+        mPending = false;
+        mStreaming = false;
+        mCaptureId++;
+        mCameraBackend.close();
+        mState = State.CLOSED;
+    }
+
+    /**
+     * Abandon anything that was waiting for the camera but leave it open
+     *
+     * This is used when the camera is shared and other controllers are
+     * still using it. Late callbacks for an abandoned capture are dropped
+     * just as they are after close().
+     */
+    public void detach() {
+        mState = State.CLOSED;
+        mPending = false;
+        mStreaming = false;
+        mCaptureId++;
+    }
+
+    /**
+     * Pass on a stage reported by the backend
+     * @param stage stage that completed
+     */
+    public void onStageComplete(CaptureStage stage) {
+
+        // Once the lens has focused, the backend goes on to trigger the shutter
+        if (stage == CaptureStage.FOCUS && mState == State.FOCUSING) {
+            mState = State.CAPTURING;
+        }
+    }
+
+    /**
+     * Start the requested capture right away or once the camera is open
+     */
+    private void start() {
+
+        // The camera may have been opened by another controller sharing it
+        if (mCameraBackend.isOpen()) {
+            mState = State.PREVIEWING;
+            proceed();
+        } else {
+            mPending = true;
+            if (mState != State.OPENING) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Carry out the requested capture on the open camera
+     */
+    private void proceed() {
+        if (mStreaming) {
+            mListener.onStreamReady();
+        } else {
+            mFocusAttempts = 0;
+            takePicture(mListener.onCaptureReady());
+        }
+    }
+
+    /**
+     * Open the camera and start any capture that is waiting for it
+     */
+    private void open() {
+
+        mState = State.OPENING;
+        mCameraBackend.open(new CameraBackend.OpenCallback() {
+
+            @Override
+            public void onOpened() {
+
+                // The camera may have been closed in the meantime
+                if (mState != State.OPENING) {
+                    return;
+                }
+                mState = State.PREVIEWING;
+                mListener.onOpened();
+
+                if (mPending) {
+                    mPending = false;
+                    proceed();
+                }
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                if (mState != State.OPENING) {
+                    return;
+                }
+                mState = State.CLOSED;
+                if (mPending) {
+                    mPending = false;
+                    mListener.onError(errorMessage);
+                }
+            }
+        });
+    }
+
+    /**
+     * Take the picture for the current capture
+     * @param autofocus true to focus before the picture is taken
+     */
+    private void takePicture(final boolean autofocus) {
+
+        final int captureId = mCaptureId;
+        mState = autofocus ? State.FOCUSING : State.CAPTURING;
+        mCameraBackend.takePicture(autofocus, new CameraBackend.PictureCallback() {
+
+            @Override
+            public void onPictureTaken(JpegFrame frame) {
+
+                // The capture may have been abandoned while the picture was on its way
+                if (captureId != mCaptureId) {
+                    frame.release();
+                    return;
+                }
+                mState = State.PREVIEWING;
+                mListener.onPictureTaken(frame, autofocus);
+            }
+
+            @Override
+            public void onFocusFailed() {
+
+                if (captureId != mCaptureId) {
+                    return;
+                }
+
+                // Try again a few times and then take the picture anyway
+                // rather than ending the sequence
+                mFocusAttempts++;
+                boolean retrying = mFocusAttempts < MAX_FOCUS_ATTEMPTS;
+                mListener.onFocusFailed(mFocusAttempts, retrying);
+                takePicture(retrying);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                if (captureId != mCaptureId) {
+                    return;
+                }
+                mState = mCameraBackend.isOpen() ? State.PREVIEWING : State.CLOSED;
+                mListener.onError(errorMessage);
+            }
+        });
+    }
+}
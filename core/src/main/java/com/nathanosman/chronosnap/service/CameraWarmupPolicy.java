@@ -0,0 +1,107 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Decides whether the camera stays open between captures
+ *
+ * The cost of opening the camera and starting the preview differs wildly
+ * from one device to the next, so instead of a fixed threshold the policy
+ * keeps a smoothed measurement of each stage. The camera is only closed
+ * between captures when the idle time is long enough to be worth paying
+ * the reopen cost again, and in that case it is reopened ahead of the next
+ * slot by the measured lead time so that the capture still starts on time.
+ */
+public class CameraWarmupPolicy {
+
+    /**
+     * Weight given to each new measurement
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * Closing the camera must save at least this multiple of the reopen cost
+     */
+    private static final int BREAK_EVEN_FACTOR = 4;
+
+    /**
+     * Safety factor and margin applied to the lead time
+     */
+    private static final double LEAD_FACTOR = 1.25;
+    private static final long LEAD_MARGIN = 250;
+
+    /**
+     * Interval up to which the camera stays open before anything is measured
+     */
+    private static final long DEFAULT_KEEP_OPEN_INTERVAL = 10000;
+
+    // Smoothed duration of each stage (negative until measured)
+    private double[] mCosts = new double[CaptureStage.values().length];
+
+    /**
+     * Initialize the policy with no measurements
+     */
+    public CameraWarmupPolicy() {
+        for (int i = 0; i < mCosts.length; ++i) {
+            mCosts[i] = -1;
+        }
+    }
+
+    /**
+     * Record a measurement
+     * @param stage stage that was measured
+     * @param durationMillis time taken by the stage
+     */
+    public void record(CaptureStage stage, long durationMillis) {
+
+        int i = stage.ordinal();
+        if (mCosts[i] < 0) {
+            mCosts[i] = durationMillis;
+        } else {
+            mCosts[i] += SMOOTHING * (durationMillis - mCosts[i]);
+        }
+    }
+
+    /**
+     * Retrieve the smoothed duration of a stage
+     * @param stage stage to retrieve
+     * @return duration in milliseconds (0 if not measured yet)
+     */
+    public long getCost(CaptureStage stage) {
+        return Math.max(0, Math.round(mCosts[stage.ordinal()]));
+    }
+
+    /**
+     * Determine whether the camera should be kept open until the next capture
+     * @param interval time between captures
+     * @return true to keep the camera open
+     */
+    public boolean shouldKeepOpen(long interval) {
+
+        // Until the camera has been opened once there is nothing to go on
+        if (mCosts[CaptureStage.OPEN.ordinal()] < 0) {
+            return interval <= DEFAULT_KEEP_OPEN_INTERVAL;
+        }
+
+        // The camera is busy for the focus stage of every capture and must
+        // be opened a full lead time ahead of the next one, so whatever is
+        // left over is the time that closing the camera would actually save
+        long idle = interval - getCost(CaptureStage.FOCUS) - getLeadTime();
+
+        return idle < BREAK_EVEN_FACTOR * reopenCost();
+    }
+
+    /**
+     * Retrieve how far ahead of a slot a closed camera should be reopened
+     * @return lead time in milliseconds
+     */
+    public long getLeadTime() {
+        return Math.round(reopenCost() * LEAD_FACTOR) + LEAD_MARGIN;
+    }
+
+    /**
+     * Calculate the smoothed cost of opening the camera and starting the preview
+     */
+    private long reopenCost() {
+        return getCost(CaptureStage.OPEN) + getCost(CaptureStage.PREVIEW);
+    }
+}
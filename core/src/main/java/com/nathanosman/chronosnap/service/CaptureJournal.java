@@ -0,0 +1,327 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+
+/**
+ * Append-only record of the progress of a capture
+ *
+ * The journal begins with a header describing the sequence, followed by a
+ * fixed-size record for every completed capture containing the index, the
+ * position on the scheduling grid, and the interval of the grid. Each
+ * record is written to the file immediately, which is enough to survive
+ * the process being killed, and the file is synced to storage every
+ * SYNC_INTERVAL records to limit what is lost on power failure.
+ *
+ * Only the last record is needed to resume, so reading the journal back
+ * takes constant time regardless of the length of the sequence.
+ */
+public class CaptureJournal {
+
+    /**
+     * State of a sequence as recorded in the journal
+     */
+    public static class State {
+
+        public CharSequence sequenceName;
+        public long startTime;
+        public long interval;
+        public int limit;
+        public boolean streaming;
+
+        // Camera used and the number of cameras capturing the sequence
+        // together (cameraId is -1 if the journal predates it)
+        public int cameraId = -1;
+        public int cameraCount = 1;
+
+        // Wall clock time at which the device booted, used to tell whether
+        // the elapsed times in the journal are still valid (0 if the
+        // journal predates it)
+        public long bootEpoch;
+
+        // Last completed capture (index is -1 if nothing was captured yet)
+        // and the interval of the grid at the time (0 if the journal
+        // predates the interval changing during a sequence)
+        public int index = -1;
+        public long anchor;
+        public long slot;
+        public long slotInterval;
+    }
+
+    private static final int MAGIC = 0x4c4e524a; // "JRNL"
+    private static final int VERSION = 4;
+
+    /**
+     * Size of the header excluding the sequence name: magic, version, size,
+     * start time, interval, limit, streaming, camera ID, camera count, boot
+     * epoch, name length, CRC
+     */
+    private static final int HEADER_SIZE = 60;
+
+    /**
+     * Size of the header before the fourth version, which had no boot epoch
+     */
+    private static final int HEADER_SIZE_V3 = 52;
+
+    /**
+     * Size of the header in the first version, which had no camera fields
+     */
+    private static final int HEADER_SIZE_V1 = 44;
+
+    /**
+     * Size of each progress record: index, anchor, slot, interval, CRC
+     */
+    private static final int RECORD_SIZE = 32;
+
+    /**
+     * Size of each progress record before the third version, which had no interval
+     */
+    private static final int RECORD_SIZE_V2 = 24;
+
+    /**
+     * Number of records between each sync
+     */
+    private static final int SYNC_INTERVAL = 10;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Data initialized in the constructor
+    private File mFile;
+
+    // Open journal and reusable record buffer
+    private RandomAccessFile mOutput;
+    private FileChannel mChannel;
+    private long mPosition;
+    private int mUnsynced;
+    private int mRecordSize = RECORD_SIZE;
+    private ByteBuffer mRecord = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Initialize the journal
+     * @param file location of the journal
+     */
+    public CaptureJournal(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Start a new journal for a sequence, replacing any existing one
+     * @param state description of the sequence
+     *
+     * If this fails, the journal is left closed.
+     */
+    public void begin(State state) throws IOException {
+
+        close();
+
+        byte[] name = state.sequenceName.toString().getBytes(UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + name.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(header.capacity());
+        header.putLong(state.startTime).putLong(state.interval);
+        header.putInt(state.limit).putInt(state.streaming ? 1 : 0);
+        header.putInt(state.cameraId).putInt(state.cameraCount);
+        header.putLong(state.bootEpoch);
+        header.putInt(name.length).put(name);
+        header.putInt(crc(header.array(), header.position()));
+        header.flip();
+
+        mOutput = new RandomAccessFile(mFile, "rw");
+        mChannel = mOutput.getChannel();
+        mPosition = 0;
+        mRecordSize = RECORD_SIZE;
+        try {
+            mChannel.truncate(0);
+            write(header);
+            mChannel.force(false);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Record a completed capture
+     * @param index index of the captured image
+     * @param anchor origin of the scheduling grid
+     * @param slot slot on the grid that was captured
+     * @param interval interval of the grid
+     *
+     * A journal resumed from an earlier version keeps its record format,
+     * which leaves out the interval. Nothing is recorded if the journal is
+     * not open (such as when begin() failed).
+     */
+    public void append(int index, long anchor, long slot, long interval) throws IOException {
+
+        if (mChannel == null) {
+            return;
+        }
+
+        mRecord.clear();
+        mRecord.putInt(index).putLong(anchor).putLong(slot);
+        if (mRecordSize == RECORD_SIZE) {
+            mRecord.putLong(interval);
+        }
+        mRecord.putInt(crc(mRecord.array(), mRecordSize - 4));
+        mRecord.flip();
+        write(mRecord);
+
+        if (++mUnsynced >= SYNC_INTERVAL) {
+            mChannel.force(false);
+            mUnsynced = 0;
+        }
+    }
+
+    /**
+     * Mark the sequence as complete by removing the journal
+     */
+    public void end() {
+        close();
+        mFile.delete();
+    }
+
+    /**
+     * Close the journal, syncing anything that was not synced yet
+     */
+    public void close() {
+        if (mOutput != null) {
+            try {
+                mChannel.force(false);
+                mOutput.close();
+            } catch (IOException e) {
+                // Nothing more can be done at this point
+            }
+            mOutput = null;
+            mChannel = null;
+            mUnsynced = 0;
+        }
+    }
+
+    /**
+     * Read the state of an unfinished sequence and reopen the journal for appending
+     * @return state or null if there is no usable journal
+     *
+     * A damaged last record (such as one torn by power failure) is
+     * discarded and the record before it is used instead.
+     */
+    public State resume() throws IOException {
+
+        if (!mFile.exists()) {
+            return null;
+        }
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        FileChannel channel = file.getChannel();
+        State state;
+        int recordSize;
+        long end;
+
+        try {
+
+            // Read and validate the header
+            ByteBuffer prefix = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            SequenceIndex.readFully(channel, prefix, 0);
+            int version = prefix.getInt(4);
+            int headerSize = prefix.getInt(8);
+            if (prefix.getInt(0) != MAGIC || version < 1 || version > VERSION ||
+                    headerSize < getHeaderSize(version) ||
+                    headerSize > channel.size()) {
+                file.close();
+                return null;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+            SequenceIndex.readFully(channel, header, 0);
+            if (header.getInt(headerSize - 4) != crc(header.array(), headerSize - 4)) {
+                file.close();
+                return null;
+            }
+
+            state = new State();
+            header.position(12);
+            state.startTime = header.getLong();
+            state.interval = header.getLong();
+            state.limit = header.getInt();
+            state.streaming = header.getInt() != 0;
+            if (version >= 2) {
+                state.cameraId = header.getInt();
+                state.cameraCount = header.getInt();
+            }
+            if (version >= 4) {
+                state.bootEpoch = header.getLong();
+            }
+            byte[] name = new byte[header.getInt()];
+            header.get(name);
+            state.sequenceName = new String(name, UTF_8);
+
+            // Walk back from the end to the last intact record
+            recordSize = version < 3 ? RECORD_SIZE_V2 : RECORD_SIZE;
+            long count = (channel.size() - headerSize) / recordSize;
+            end = headerSize;
+            for (long i = count - 1; i >= 0; --i) {
+                long position = headerSize + i * recordSize;
+                mRecord.clear();
+                mRecord.limit(recordSize);
+                SequenceIndex.readFully(channel, mRecord, position);
+                if (mRecord.getInt(recordSize - 4) == crc(mRecord.array(), recordSize - 4)) {
+                    state.index = mRecord.getInt(0);
+                    state.anchor = mRecord.getLong(4);
+                    state.slot = mRecord.getLong(12);
+                    if (version >= 3) {
+                        state.slotInterval = mRecord.getLong(20);
+                    }
+                    end = position + recordSize;
+                    break;
+                }
+            }
+
+            // Drop anything after the last intact record and keep appending
+            channel.truncate(end);
+
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+        close();
+        mOutput = file;
+        mChannel = channel;
+        mPosition = end;
+        mRecordSize = recordSize;
+        return state;
+    }
+
+    /**
+     * Determine the smallest header (without a name) of a version
+     */
+    private static int getHeaderSize(int version) {
+        if (version == 1) {
+            return HEADER_SIZE_V1;
+        }
+        return version < 4 ? HEADER_SIZE_V3 : HEADER_SIZE;
+    }
+
+    /**
+     * Write a buffer at the end of the journal
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mPosition += mChannel.write(buffer, mPosition);
+        }
+    }
+
+    /**
+     * Calculate the CRC of the start of an array
+     */
+    private static int crc(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,172 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Collects the duration of every capture stage for a sequence
+ *
+ * Each stage is recorded into its own LatencyHistogram and, if a log file
+ * was supplied, appended to a CSV file with one line per measurement:
+ *
+ *   time,stage,index,duration
+ *
+ * where time is the elapsed realtime at which the measurement was recorded.
+ * Images dropped before they could be written are counted and logged with
+ * the stage DROPPED and a duration of 0, so gaps in the numbering of the
+ * images can be told apart from images lost to a write error.
+ * Stages are recorded from the main thread, the camera thread, the writer
+ * thread, and media scanner callbacks, so this class is thread-safe.
+ */
+public class CaptureMetrics {
+
+    /**
+     * Size of the buffer used for the log (flushed when full and on close)
+     */
+    private static final int LOG_BUFFER_SIZE = 8192;
+
+    // Data initialized in the constructor
+    private Clock mClock;
+    private File mLogFile;
+    private LatencyHistogram[] mHistograms = new LatencyHistogram[CaptureStage.values().length];
+
+    // Log file and the buffer that lines are built in
+    private Writer mLog;
+    private boolean mLogFailed = false;
+    private boolean mClosed = false;
+    private StringBuilder mLine = new StringBuilder(64);
+    private char[] mChars = new char[80];
+
+    // Number of images dropped before they were written
+    private AtomicInteger mDropCount = new AtomicInteger();
+
+    /**
+     * Initialize the metrics
+     * @param clock source of the current time
+     * @param logFile CSV file to append measurements to or null to only keep histograms
+     */
+    public CaptureMetrics(Clock clock, File logFile) {
+
+        mClock = clock;
+        mLogFile = logFile;
+        for (int i = 0; i < mHistograms.length; ++i) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Record the duration of a stage
+     * @param stage stage that was measured
+     * @param index index of the image that the stage belongs to
+     * @param durationMillis time taken by the stage
+     */
+    public void record(CaptureStage stage, int index, long durationMillis) {
+
+        mHistograms[stage.ordinal()].record(durationMillis);
+
+        if (mLogFile != null) {
+            log(stage.name(), index, durationMillis);
+        }
+    }
+
+    /**
+     * Record an image that was dropped before it was written
+     * @param index index of the image
+     */
+    public void recordDrop(int index) {
+
+        mDropCount.incrementAndGet();
+
+        if (mLogFile != null) {
+            log("DROPPED", index, 0);
+        }
+    }
+
+    /**
+     * Retrieve the number of images dropped before they were written
+     */
+    public int getDropCount() {
+        return mDropCount.get();
+    }
+
+    /**
+     * Retrieve the histogram for a stage
+     */
+    public LatencyHistogram getHistogram(CaptureStage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+
+    /**
+     * Retrieve a percentile for every stage
+     * @param fraction fraction between 0 and 1 (0.5 for the median)
+     * @return values in milliseconds indexed by CaptureStage.ordinal()
+     */
+    public long[] getPercentiles(double fraction) {
+
+        long[] percentiles = new long[mHistograms.length];
+        for (int i = 0; i < mHistograms.length; ++i) {
+            percentiles[i] = mHistograms[i].getPercentile(fraction);
+        }
+
+        return percentiles;
+    }
+
+    /**
+     * Flush and close the log
+     *
+     * Histograms continue to collect measurements afterwards, but nothing
+     * more is written to the log.
+     */
+    public synchronized void close() {
+
+        mClosed = true;
+        if (mLog != null) {
+            try {
+                mLog.close();
+            } catch (IOException e) {
+                // The log is only diagnostic
+            }
+            mLog = null;
+        }
+    }
+
+    /**
+     * Append a measurement to the log
+     */
+    private synchronized void log(String stage, int index, long durationMillis) {
+
+        if (mClosed || mLogFailed) {
+            return;
+        }
+
+        try {
+
+            // The log is only created once there is something to write to it
+            if (mLog == null) {
+                File directory = mLogFile.getParentFile();
+                if (directory != null) {
+                    StorageDirectory.create(directory);
+                }
+                boolean newFile = !mLogFile.exists();
+                mLog = new BufferedWriter(new FileWriter(mLogFile, true), LOG_BUFFER_SIZE);
+                if (newFile) {
+                    mLog.write("time,stage,index,duration\n");
+                }
+            }
+
+            mLine.setLength(0);
+            mLine.append(mClock.elapsedRealtime()).append(',').append(stage).append(',')
+                    .append(index).append(',').append(durationMillis).append('\n');
+            mLine.getChars(0, mLine.length(), mChars, 0);
+            mLog.write(mChars, 0, mLine.length());
+
+        } catch (IOException e) {
+            mLogFailed = true;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Computes capture times on a fixed grid
+ *
+ * Slot k of the sequence is anchored to startTime + k * interval rather than
+ * to the time the previous capture happened, so lateness in alarm delivery
+ * does not accumulate over a long sequence. The difference between the time
+ * each capture actually started and its slot is recorded as the scheduling
+ * error.
+ *
+ * If the interval is changed, the grid is moved so that the current slot
+ * keeps its time and only the slots after it are spaced differently.
+ *
+ * When frames are taken from the preview stream, the scheduler is advanced
+ * on the camera thread while the main thread records its position, so
+ * every method is synchronized.
+ */
+public class CaptureScheduler {
+
+    /**
+     * Behavior when the next slot has already passed by the time a capture completes
+     */
+    public enum MissedSlotPolicy {
+
+        /**
+         * Skip over missed slots and wait for the next one on the grid
+         */
+        SKIP,
+
+        /**
+         * Capture every missed slot as quickly as possible until back on schedule
+         */
+        CATCH_UP,
+
+        /**
+         * Capture immediately and move the grid so that it starts from now
+         */
+        SHIFT_GRID
+    }
+
+    // Data initialized in the constructor
+    private Clock mClock;
+    private long mInterval;
+    private MissedSlotPolicy mPolicy;
+
+    // Origin of the grid (moves for SHIFT_GRID and when the interval changes) and the current slot
+    private long mAnchor;
+    private long mSlot = 1;
+
+    // Slot of the most recent capture (0 if nothing was captured yet)
+    private long mLastSlot;
+
+    // Scheduling error statistics
+    private long mLastError;
+    private long mMaxError;
+    private long mTotalError;
+    private int mErrorCount;
+    private long mMissedSlots;
+
+    /**
+     * Initialize the scheduler
+     * @param clock source of the current time
+     * @param startTime time at which the sequence started
+     * @param interval time between slots
+     * @param policy behavior when slots are missed
+     */
+    public CaptureScheduler(Clock clock, long startTime, long interval, MissedSlotPolicy policy) {
+
+        mClock = clock;
+        mAnchor = startTime;
+        mInterval = interval;
+        mPolicy = policy;
+    }
+
+    /**
+     * Continue a sequence from a previously recorded position
+     * @param anchor origin of the grid returned by getAnchor()
+     * @param lastSlot slot of the last capture returned by getLastSlot()
+     *
+     * scheduleNext() should be called afterwards to move on to the slot
+     * following the last capture.
+     */
+    public synchronized void restore(long anchor, long lastSlot) {
+        mAnchor = anchor;
+        mSlot = lastSlot;
+        mLastSlot = lastSlot;
+    }
+
+    /**
+     * Continue a sequence whose interval was changed
+     * @param anchor origin of the grid returned by getAnchor()
+     * @param lastSlot slot of the last capture returned by getLastSlot()
+     * @param interval interval returned by getInterval()
+     */
+    public synchronized void restore(long anchor, long lastSlot, long interval) {
+        restore(anchor, lastSlot);
+        mInterval = interval;
+    }
+
+    /**
+     * Retrieve the origin of the grid
+     */
+    public synchronized long getAnchor() {
+        return mAnchor;
+    }
+
+    /**
+     * Retrieve the slot of the most recent capture
+     */
+    public synchronized long getLastSlot() {
+        return mLastSlot;
+    }
+
+    /**
+     * Retrieve the time between slots
+     */
+    public synchronized long getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * Change the time between slots
+     * @param interval new interval
+     *
+     * The current slot keeps its time, so calling this after a capture has
+     * completed and before scheduleNext() changes the time until the next
+     * capture.
+     */
+    public synchronized void setInterval(long interval) {
+        mAnchor = slotTime(mSlot) - mSlot * interval;
+        mInterval = interval;
+    }
+
+    /**
+     * Retrieve the time of the slot that will be captured next
+     */
+    public synchronized long getNextSlotTime() {
+        return slotTime(mSlot);
+    }
+
+    /**
+     * Determine whether the time of the next slot has been reached
+     */
+    public synchronized boolean isSlotDue() {
+        return mClock.elapsedRealtime() >= slotTime(mSlot);
+    }
+
+    /**
+     * Record that the capture for the current slot has started
+     * @return scheduling error in milliseconds (positive if late)
+     */
+    public synchronized long onCaptureStarted() {
+
+        mLastSlot = mSlot;
+        mLastError = mClock.elapsedRealtime() - slotTime(mSlot);
+        mMaxError = Math.max(mMaxError, Math.abs(mLastError));
+        mTotalError += Math.abs(mLastError);
+        mErrorCount++;
+
+        return mLastError;
+    }
+
+    /**
+     * Advance to the next slot once the current capture has completed
+     * @return time at which the next capture should start
+     */
+    public synchronized long scheduleNext() {
+
+        long now = mClock.elapsedRealtime();
+        long next = mSlot + 1;
+
+        // Determine whether the next slot has already passed
+        if (slotTime(next) < now) {
+            switch (mPolicy) {
+                case SKIP:
+                    long skipTo = (now - mAnchor) / mInterval + 1;
+                    mMissedSlots += skipTo - next;
+                    next = skipTo;
+                    break;
+                case CATCH_UP:
+                    break;
+                case SHIFT_GRID:
+                    mAnchor = now - next * mInterval;
+                    break;
+            }
+        }
+
+        mSlot = next;
+        return slotTime(mSlot);
+    }
+
+    /**
+     * Retrieve the scheduling error of the most recent capture
+     */
+    public synchronized long getLastError() {
+        return mLastError;
+    }
+
+    /**
+     * Retrieve the largest absolute scheduling error seen so far
+     */
+    public synchronized long getMaxError() {
+        return mMaxError;
+    }
+
+    /**
+     * Retrieve the mean absolute scheduling error
+     */
+    public synchronized long getMeanError() {
+        return mErrorCount == 0 ? 0 : mTotalError / mErrorCount;
+    }
+
+    /**
+     * Retrieve the number of slots that were skipped
+     */
+    public synchronized long getMissedSlots() {
+        return mMissedSlots;
+    }
+
+    /**
+     * Calculate the time of the specified slot
+     */
+    private long slotTime(long slot) {
+        return mAnchor + slot * mInterval;
+    }
+}
@@ -0,0 +1,57 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Individual stages of capturing an image that are timed
+ *
+ * The first three are reported by the camera backend as they complete and
+ * are used to decide whether the camera stays open between captures. The
+ * rest are only collected for CaptureMetrics.
+ */
+public enum CaptureStage {
+
+    /**
+     * Opening the camera device
+     */
+    OPEN,
+
+    /**
+     * Starting the preview so that the camera is ready to capture
+     */
+    PREVIEW,
+
+    /**
+     * Waiting for autofocus to lock
+     */
+    FOCUS,
+
+    /**
+     * Triggering the shutter until the JPEG data is available
+     */
+    SHUTTER,
+
+    /**
+     * Writing a frame to every sink
+     */
+    WRITE,
+
+    /**
+     * Adding a batch of images to the media store
+     */
+    SCAN,
+
+    /**
+     * Absolute difference between the start of a capture and its slot on the grid
+     */
+    SCHEDULE,
+
+    /**
+     * Spread between the capture times of the cameras taking the same slot
+     */
+    SKEW,
+
+    /**
+     * Time between the start of a capture and the start of the one before it
+     */
+    INTERVAL
+}
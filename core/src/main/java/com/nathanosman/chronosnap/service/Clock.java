@@ -0,0 +1,17 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Source of monotonic time
+ *
+ * Timing logic takes a Clock rather than calling SystemClock directly so
+ * that it can be driven by a fake clock off the device.
+ */
+public interface Clock {
+
+    /**
+     * Retrieve the current time
+     * @return milliseconds since some fixed point (normally boot)
+     */
+    long elapsedRealtime();
+}
@@ -0,0 +1,78 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Determines how often written frames are synced to storage
+ *
+ * Without a sync, frames that the writer considers written may still be
+ * sitting in the page cache and are lost (or left as zero-filled holes) if
+ * power fails. Syncing every frame is safe but slow, so frames can also be
+ * synced in batches, bounding what is lost to the frames of a single
+ * batch. Anything left unsynced is always synced when the sink is closed
+ * unless syncing is disabled.
+ */
+public class DurabilityPolicy {
+
+    // Number of frames in each batch (0 to never sync)
+    private int mFrames;
+
+    private DurabilityPolicy(int frames) {
+        mFrames = frames;
+    }
+
+    /**
+     * Never sync and leave it to the operating system to write frames back
+     */
+    public static DurabilityPolicy none() {
+        return new DurabilityPolicy(0);
+    }
+
+    /**
+     * Sync each frame as soon as it is written
+     */
+    public static DurabilityPolicy perFrame() {
+        return new DurabilityPolicy(1);
+    }
+
+    /**
+     * Sync frames in batches of the specified size
+     * @param frames number of frames in each batch
+     */
+    public static DurabilityPolicy everyFrames(int frames) {
+        return new DurabilityPolicy(frames);
+    }
+
+    /**
+     * Create a policy from its preference value
+     * @param value "none", "frame", or "frames:N"
+     * @return policy
+     */
+    public static DurabilityPolicy parse(String value) {
+
+        if (value.equals("none")) {
+            return none();
+        } else if (value.equals("frame")) {
+            return perFrame();
+        } else if (value.startsWith("frames:")) {
+            return everyFrames(Integer.parseInt(value.substring(7)));
+        }
+
+        throw new IllegalArgumentException("Invalid durability policy \"" + value + "\".");
+    }
+
+    /**
+     * Determine whether frames are ever synced
+     */
+    public boolean isEnabled() {
+        return mFrames != 0;
+    }
+
+    /**
+     * Determine whether the frames written since the last sync should be synced now
+     * @param unsynced number of frames written since the last sync
+     * @return true to sync
+     */
+    public boolean shouldSync(int unsynced) {
+        return mFrames != 0 && unsynced >= mFrames;
+    }
+}
@@ -0,0 +1,183 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * Extracts the thumbnail embedded in the EXIF data of a JPEG file
+ *
+ * Cameras store a small JPEG thumbnail in IFD1 of the APP1 segment near
+ * the start of the file. Only the segment headers and the APP1 segment are
+ * read, so the cost does not depend on the size of the image and nothing
+ * is decoded.
+ */
+public class ExifThumbnail {
+
+    // JPEG markers
+    private static final int MARKER_SOI = 0xd8;
+    private static final int MARKER_EOI = 0xd9;
+    private static final int MARKER_SOS = 0xda;
+    private static final int MARKER_APP1 = 0xe1;
+
+    // TIFF tags in IFD1
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    // TIFF field types
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    /**
+     * Number of segments examined before giving up
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * Read the embedded thumbnail of a JPEG file
+     * @param file JPEG file
+     * @return JPEG data of the thumbnail or null if there is none
+     */
+    public static byte[] read(File file) throws IOException {
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+
+            if (randomAccessFile.readUnsignedByte() != 0xff ||
+                    randomAccessFile.readUnsignedByte() != MARKER_SOI) {
+                return null;
+            }
+
+            for (int i = 0; i < MAX_SEGMENTS; ++i) {
+
+                // Markers may be preceded by any number of fill bytes
+                if (randomAccessFile.readUnsignedByte() != 0xff) {
+                    return null;
+                }
+                int marker;
+                do {
+                    marker = randomAccessFile.readUnsignedByte();
+                } while (marker == 0xff);
+
+                // The thumbnail is always ahead of the image data
+                if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                    return null;
+                }
+
+                int length = randomAccessFile.readUnsignedShort() - 2;
+                if (length < 0) {
+                    return null;
+                }
+
+                // XMP data is also stored in APP1, so keep looking if this isn't EXIF
+                if (marker == MARKER_APP1) {
+                    byte[] segment = new byte[length];
+                    randomAccessFile.readFully(segment);
+                    ByteBuffer thumbnail = find(ByteBuffer.wrap(segment));
+                    if (thumbnail != null) {
+                        byte[] data = new byte[thumbnail.remaining()];
+                        thumbnail.get(data);
+                        return data;
+                    }
+                } else {
+                    randomAccessFile.seek(randomAccessFile.getFilePointer() + length);
+                }
+            }
+
+            return null;
+
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Find the thumbnail in the contents of an APP1 segment
+     * @param segment segment data following the length
+     * @return buffer containing the thumbnail or null if there is none
+     */
+    static ByteBuffer find(ByteBuffer segment) {
+
+        if (segment.remaining() < 14 || segment.getInt(0) != 0x45786966 ||
+                segment.getShort(4) != 0) {
+            return null;
+        }
+
+        // Offsets in the EXIF data are relative to the TIFF header
+        segment.position(6);
+        ByteBuffer tiff = segment.slice();
+        switch (tiff.getShort(0)) {
+            case 0x4949:
+                tiff.order(ByteOrder.LITTLE_ENDIAN);
+                break;
+            case 0x4d4d:
+                tiff.order(ByteOrder.BIG_ENDIAN);
+                break;
+            default:
+                return null;
+        }
+
+        // Malformed offsets run off the end of the buffer
+        try {
+
+            // IFD1 follows the entries of IFD0
+            int ifd0 = tiff.getInt(4);
+            int ifd1 = tiff.getInt(ifd0 + 2 + 12 * (tiff.getShort(ifd0) & 0xffff));
+            if (ifd1 <= 0) {
+                return null;
+            }
+
+            int offset = -1;
+            int length = -1;
+            int count = tiff.getShort(ifd1) & 0xffff;
+            for (int i = 0; i < count; ++i) {
+                int entry = ifd1 + 2 + 12 * i;
+                int tag = tiff.getShort(entry) & 0xffff;
+                if (tag == TAG_THUMBNAIL_OFFSET) {
+                    offset = getValue(tiff, entry);
+                } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                    length = getValue(tiff, entry);
+                }
+            }
+
+            if (offset <= 0 || length < 4 || offset > tiff.limit() - length) {
+                return null;
+            }
+
+            // Make sure the offset actually points at a JPEG image
+            if ((tiff.get(offset) & 0xff) != 0xff || (tiff.get(offset + 1) & 0xff) != MARKER_SOI) {
+                return null;
+            }
+
+            tiff.position(offset);
+            tiff.limit(offset + length);
+            return tiff.slice();
+
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the single integer value of an IFD entry
+     * @return value or -1 if the entry holds something else
+     */
+    private static int getValue(ByteBuffer tiff, int entry) {
+
+        if (tiff.getInt(entry + 4) != 1) {
+            return -1;
+        }
+
+        switch (tiff.getShort(entry + 2)) {
+            case TYPE_SHORT:
+                return tiff.getShort(entry + 8) & 0xffff;
+            case TYPE_LONG:
+                return tiff.getInt(entry + 8);
+            default:
+                return -1;
+        }
+    }
+}
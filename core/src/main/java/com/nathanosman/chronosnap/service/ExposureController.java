@@ -0,0 +1,271 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Keeps exposure steady across a sequence by locking AE/AWB and ramping compensation
+ *
+ * The camera meters once with auto-exposure running and the brightness of
+ * that frame becomes the target. Exposure and white balance are then
+ * locked so that following frames skip metering entirely. In ramp mode a
+ * luminance histogram of every captured frame is measured and the
+ * exposure compensation is moved by at most one step per frame towards the
+ * target, so a sequence running from day into night changes brightness
+ * gradually instead of flickering. Once compensation runs out of range the
+ * camera is allowed to meter again around the current scene.
+ *
+ * Frames are analyzed on the writer thread while settings are handed out
+ * on the camera thread, so every method is synchronized. The Settings that
+ * are handed out never change once they are created.
+ */
+public class ExposureController {
+
+    /**
+     * Exposure applied to a single capture
+     */
+    public static class Settings {
+
+        private int mIndex;
+        private boolean mLocked;
+        private int mCompensation;
+
+        Settings(int index, boolean locked, int compensation) {
+            mIndex = index;
+            mLocked = locked;
+            mCompensation = compensation;
+        }
+
+        /**
+         * Determine whether auto-exposure and auto-white-balance are locked
+         */
+        public boolean isLocked() {
+            return mLocked;
+        }
+
+        /**
+         * Retrieve the exposure compensation in steps
+         */
+        public int getCompensation() {
+            return mCompensation;
+        }
+    }
+
+    /**
+     * Approximate gamma of the luma values in a JPEG
+     */
+    private static final double GAMMA = 2.2;
+
+    /**
+     * Fraction of the darkest and brightest pixels ignored when measuring brightness
+     */
+    private static final double TRIM = 0.02;
+
+    /**
+     * Weight of the newest frame in the running scene brightness
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * Difference from the target in EV that is left alone
+     */
+    private static final double DEADBAND = 0.3;
+
+    /**
+     * Minimum number of locked frames between two meterings
+     */
+    private static final int REMETER_INTERVAL = 10;
+
+    /**
+     * Number of recent captures whose settings are remembered
+     *
+     * Frames are analyzed a little after they were captured and need to be
+     * matched up with the exposure they were taken with.
+     */
+    private static final int HISTORY_SIZE = 8;
+
+    // Data initialized in the constructor
+    private boolean mRamp;
+
+    // Range reported by the camera
+    private int mMinCompensation = 0;
+    private int mMaxCompensation = 0;
+    private double mStep = 0;
+
+    // Current exposure state
+    private boolean mLocked = false;
+    private int mCompensation = 0;
+    private int mLockedFrames = 0;
+    private int mBaseIndex = 0;
+
+    // Brightness (in EV relative to black) of the metered frame
+    private boolean mTargetValid = false;
+    private double mTarget;
+
+    // Running scene brightness relative to the locked exposure
+    private boolean mSceneValid = false;
+    private double mScene;
+
+    // Settings of recent captures and the histogram reused for each frame
+    private final Settings[] mHistory = new Settings[HISTORY_SIZE];
+    private final int[] mHistogram = new int[256];
+
+    /**
+     * Initialize the controller
+     * @param ramp true to adjust compensation as the scene changes, false to keep the first metering
+     */
+    public ExposureController(boolean ramp) {
+        mRamp = ramp;
+    }
+
+    /**
+     * Set the range of exposure compensation supported by the camera
+     * @param min lowest compensation in steps
+     * @param max highest compensation in steps
+     * @param step size of each step in EV (0 if compensation is unsupported)
+     */
+    public synchronized void setRange(int min, int max, double step) {
+        mMinCompensation = min;
+        mMaxCompensation = max;
+        mStep = step;
+        mCompensation = clamp(mCompensation);
+    }
+
+    /**
+     * Retrieve the settings for the next capture and remember them
+     * @param index index of the frame about to be captured
+     * @return exposure to apply
+     */
+    public synchronized Settings onCaptureStarted(int index) {
+        Settings settings = new Settings(index, mLocked, mCompensation);
+        mHistory[index % HISTORY_SIZE] = settings;
+        return settings;
+    }
+
+    /**
+     * Release the lock so that the next capture meters again
+     *
+     * This is used when the camera was reopened since the lock does not
+     * survive it. The target brightness is kept.
+     */
+    public synchronized void invalidate() {
+        unlock();
+    }
+
+    /**
+     * Measure a captured frame and adjust the exposure for following frames
+     * @param index index of the frame
+     * @param thumbnail thumbnail of the frame
+     */
+    public synchronized void onFrameAnalyzed(int index, Thumbnail thumbnail) {
+
+        // Frames that can't be matched to their settings are ignored
+        Settings settings = mHistory[index % HISTORY_SIZE];
+        if (settings == null || settings.mIndex != index) {
+            return;
+        }
+
+        double brightness = measure(thumbnail);
+
+        // A metered frame sets the target (once) and the exposure is locked from here on
+        if (!settings.mLocked) {
+            if (!mLocked) {
+                if (!mTargetValid) {
+                    mTarget = brightness;
+                    mTargetValid = true;
+                }
+                mLocked = true;
+                mLockedFrames = 0;
+                mBaseIndex = index;
+                mSceneValid = false;
+            }
+            return;
+        }
+
+        // Frames from before the last metering were taken with a different base exposure
+        if (!mLocked || index < mBaseIndex || !mRamp || mStep <= 0) {
+            return;
+        }
+        mLockedFrames++;
+
+        // Remove the effect of compensation so that the scene itself is tracked
+        double scene = brightness - settings.mCompensation * mStep;
+        mScene = mSceneValid ? mScene + (scene - mScene) * SMOOTHING : scene;
+        mSceneValid = true;
+
+        double error = mTarget - mScene - mCompensation * mStep;
+        if (Math.abs(error) < DEADBAND) {
+            return;
+        }
+
+        int desired = (int) Math.round((mTarget - mScene) / mStep);
+        int next = clamp(mCompensation + (desired > mCompensation ? 1 : desired < mCompensation ? -1 : 0));
+
+        // Out of range - let the camera meter the scene again. Auto-exposure
+        // aims for roughly the target, so compensation is set to the current
+        // shortfall to keep the metered frame in line with the last one and
+        // ramping then carries on from there.
+        if (next == mCompensation && desired != mCompensation) {
+            if (mLockedFrames >= REMETER_INTERVAL) {
+                mCompensation = clamp((int) Math.round(-error / mStep));
+                unlock();
+            }
+            return;
+        }
+
+        mCompensation = next;
+    }
+
+    /**
+     * Unlock the exposure so that it is metered again
+     */
+    private void unlock() {
+        mLocked = false;
+        mSceneValid = false;
+    }
+
+    /**
+     * Limit compensation to the range supported by the camera
+     */
+    private int clamp(int compensation) {
+        return Math.max(mMinCompensation, Math.min(mMaxCompensation, compensation));
+    }
+
+    /**
+     * Measure the brightness of a frame from its luminance histogram
+     * @param thumbnail thumbnail of the frame
+     * @return brightness in EV (log2 of linear light)
+     *
+     * The darkest and brightest pixels are trimmed so that small highlights
+     * and shadows don't drag the exposure around.
+     */
+    private double measure(Thumbnail thumbnail) {
+
+        int[] histogram = mHistogram;
+        for (int i = 0; i < histogram.length; ++i) {
+            histogram[i] = 0;
+        }
+        for (int y = 0; y < thumbnail.getHeight(); ++y) {
+            for (int x = 0; x < thumbnail.getWidth(); ++x) {
+                histogram[thumbnail.getLuma(x, y)]++;
+            }
+        }
+
+        int count = thumbnail.getWidth() * thumbnail.getHeight();
+        int skip = (int) (count * TRIM);
+        int keep = count - 2 * skip;
+
+        // Average the remaining pixels in linear light
+        double total = 0;
+        int seen = 0;
+        for (int value = 0; value < histogram.length && keep > 0; ++value) {
+            int n = histogram[value];
+            int skipped = Math.min(n, skip);
+            skip -= skipped;
+            n = Math.min(n - skipped, keep);
+            keep -= n;
+            total += n * Math.pow((value + 0.5) / 256, GAMMA);
+            seen += n;
+        }
+
+        return seen == 0 ? 0 : Math.log(total / seen) / Math.log(2);
+    }
+}
@@ -0,0 +1,109 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Decides when a locked focus needs to be refreshed
+ *
+ * The camera focuses once and keeps the lens where it is for following
+ * frames. The first frame after each focus is used as a reference; the
+ * camera refocuses when a later frame is noticeably less sharp than the
+ * reference or the scene has changed, after a fixed number of frames, or
+ * whenever the camera has been reopened.
+ *
+ * Frames are analyzed on the writer thread while focus decisions are made
+ * on the camera thread, so every method is synchronized and no state is
+ * touched outside of them.
+ */
+public class FocusLockPolicy {
+
+    /**
+     * Fraction of the reference sharpness that may be lost before refocusing
+     */
+    private static final double SHARPNESS_DROP = 0.3;
+
+    /**
+     * Mean luma difference from the reference that counts as a new scene
+     */
+    private static final double SCENE_CHANGE = 20;
+
+    // Data initialized in the constructor
+    private int mRefocusInterval;
+
+    // Focus state
+    private boolean mFocused = false;
+    private boolean mRefocusRequested = false;
+    private int mFramesSinceFocus;
+
+    // Reference frame taken after the last focus
+    private int mReferenceIndex;
+    private Thumbnail mReference;
+    private double mReferenceSharpness;
+
+    /**
+     * Initialize the policy
+     * @param refocusInterval number of frames after which focus is always refreshed (0 for never)
+     */
+    public FocusLockPolicy(int refocusInterval) {
+        mRefocusInterval = refocusInterval;
+    }
+
+    /**
+     * Determine whether the camera should focus before the next frame
+     */
+    public synchronized boolean shouldFocus() {
+        return !mFocused || mRefocusRequested ||
+                mRefocusInterval > 0 && mFramesSinceFocus >= mRefocusInterval;
+    }
+
+    /**
+     * Record that the camera focused successfully before capturing a frame
+     * @param index index of the frame that was captured
+     */
+    public synchronized void onFocused(int index) {
+        mFocused = true;
+        mRefocusRequested = false;
+        mFramesSinceFocus = 0;
+        mReferenceIndex = index;
+        mReference = null;
+    }
+
+    /**
+     * Record that a frame was captured (whether or not the camera focused first)
+     */
+    public synchronized void onCaptured() {
+        mFramesSinceFocus++;
+    }
+
+    /**
+     * Forget the current focus so that the next frame focuses again
+     *
+     * This is used when the camera was reopened or focusing failed.
+     */
+    public synchronized void invalidate() {
+        mRefocusRequested = true;
+    }
+
+    /**
+     * Check a captured frame against the reference
+     * @param index index of the frame
+     * @param thumbnail thumbnail of the frame
+     */
+    public synchronized void onFrameAnalyzed(int index, Thumbnail thumbnail) {
+
+        // Frames captured before the last focus say nothing about it
+        if (!mFocused || index < mReferenceIndex) {
+            return;
+        }
+
+        if (mReference == null) {
+            mReference = thumbnail;
+            mReferenceSharpness = thumbnail.getSharpness();
+            return;
+        }
+
+        if (thumbnail.getSharpness() < mReferenceSharpness * (1 - SHARPNESS_DROP) ||
+                thumbnail.getDifference(mReference) > SCENE_CHANGE) {
+            mRefocusRequested = true;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.nathanosman.chronosnap.service;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Decides whether a frame is worth storing
+ *
+ * FrameWriter consults the filter on the writer thread before passing a
+ * frame to its sinks. Frames that are rejected are not written; sinks that
+ * implement MarkerSink record that they were captured.
+ */
+public interface FrameFilter {
+
+    /**
+     * Examine a frame
+     * @param index numerical index of the frame
+     * @param timestamp time at which the frame was captured (elapsed realtime)
+     * @param data JPEG data - the buffer may be consumed
+     * @return true if the frame should be written
+     */
+    boolean accept(int index, long timestamp, ByteBuffer data);
+}
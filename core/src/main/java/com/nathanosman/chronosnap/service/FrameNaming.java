@@ -0,0 +1,145 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.File;
+
+
+/**
+ * Determines where each frame of a sequence is stored
+ *
+ * Frame numbers are zero-padded to a width that fits every frame of the
+ * sequence, so names always sort in capture order. Frames can optionally
+ * be split into shard directories of a fixed number of frames, each named
+ * after the first frame it contains (00010000/00010123.jpg), to keep
+ * directories small on long sequences.
+ *
+ * Names are built in a reusable buffer instead of with String.format(), so
+ * instances are not thread-safe.
+ */
+public class FrameNaming {
+
+    /**
+     * Width used when the sequence has no limit (enough for over three years at one frame per second)
+     */
+    private static final int UNLIMITED_WIDTH = 8;
+
+    /**
+     * Narrowest width used (matches the names used by earlier versions)
+     */
+    private static final int MINIMUM_WIDTH = 4;
+
+    private static final String EXTENSION = ".jpg";
+
+    // Data initialized in the constructor
+    private File mSequencePath;
+    private int mWidth;
+    private int mShardSize;
+
+    // Directory of the most recent shard and its path in the name buffer
+    private int mShard = -1;
+    private File mDirectory;
+    private char[] mBuffer;
+    private int mPrefixLength;
+
+    /**
+     * Initialize the naming scheme
+     * @param sequencePath directory that the sequence is stored in
+     * @param limit number of frames in the sequence (0 if there is no limit)
+     * @param shardSize number of frames in each shard directory (0 for a single directory)
+     */
+    public FrameNaming(File sequencePath, int limit, int shardSize) {
+        mSequencePath = sequencePath;
+        mWidth = widthFor(limit);
+        mShardSize = shardSize;
+    }
+
+    /**
+     * Determine the number of digits needed for the frames of a sequence
+     * @param limit number of frames in the sequence (0 if there is no limit)
+     * @return zero-padded width of frame numbers
+     */
+    public static int widthFor(int limit) {
+        if (limit == 0) {
+            return UNLIMITED_WIDTH;
+        }
+        return Math.max(MINIMUM_WIDTH, digits(limit - 1));
+    }
+
+    /**
+     * Retrieve the directory that the specified frame is stored in
+     * @param index numerical index of the frame
+     * @return directory (the same instance is returned for every frame in a shard)
+     */
+    public File getDirectory(int index) {
+        selectShard(index);
+        return mDirectory;
+    }
+
+    /**
+     * Determine the file used for storing the specified frame
+     * @param index numerical index of the frame
+     * @return destination file
+     */
+    public File getFile(int index) {
+        selectShard(index);
+        int length = putNumber(mBuffer, mPrefixLength, index);
+        EXTENSION.getChars(0, EXTENSION.length(), mBuffer, length);
+        return new File(new String(mBuffer, 0, length + EXTENSION.length()));
+    }
+
+    /**
+     * Switch the cached directory and prefix to the shard containing a frame
+     */
+    private void selectShard(int index) {
+
+        int shard = mShardSize > 0 ? index / mShardSize : 0;
+        if (shard == mShard) {
+            return;
+        }
+
+        mShard = shard;
+        if (mShardSize > 0) {
+            char[] name = new char[Math.max(mWidth, digits(shard * mShardSize))];
+            mDirectory = new File(mSequencePath, new String(name, 0, putNumber(name, 0, shard * mShardSize)));
+        } else {
+            mDirectory = mSequencePath;
+        }
+
+        // The prefix is followed by the separator, the number, and the extension
+        String prefix = mDirectory.getPath() + File.separator;
+        mPrefixLength = prefix.length();
+        mBuffer = new char[mPrefixLength + Math.max(mWidth, 10) + EXTENSION.length()];
+        prefix.getChars(0, mPrefixLength, mBuffer, 0);
+    }
+
+    /**
+     * Write a zero-padded number into a buffer
+     * @param buffer destination
+     * @param offset position of the first digit
+     * @param value non-negative number to write
+     * @return position after the last digit
+     *
+     * Numbers that do not fit the width are written in full rather than truncated.
+     */
+    private int putNumber(char[] buffer, int offset, int value) {
+
+        int end = offset + Math.max(mWidth, digits(value));
+        for (int i = end - 1; i >= offset; --i) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+
+        return end;
+    }
+
+    /**
+     * Count the decimal digits in a non-negative number
+     */
+    private static int digits(int value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,27 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Destination for captured frames
+ *
+ * Sinks are driven by FrameWriter from its single writer thread, so
+ * implementations do not need to be thread-safe.
+ */
+public interface FrameSink {
+
+    /**
+     * Store a single frame
+     * @param index numerical index of the frame
+     * @param timestamp time at which the frame was captured (elapsed realtime)
+     * @param data JPEG data - the buffer may be consumed
+     */
+    void write(int index, long timestamp, ByteBuffer data) throws IOException;
+
+    /**
+     * Finish writing and release any open files
+     */
+    void close() throws IOException;
+}
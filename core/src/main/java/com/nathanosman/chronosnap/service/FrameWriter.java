@@ -0,0 +1,421 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Writes captured frames to disk on a dedicated thread
+ *
+ * Frames are queued in a bounded queue and written one at a time by a single
+ * worker thread so that slow storage never blocks the thread that captured
+ * the frame. What happens when the queue is full is determined by the
+ * backpressure policy. Each frame is passed to every FrameSink in turn and
+ * the sinks are closed once the writer has drained after shutdown(). An
+ * optional FrameFilter can keep frames from being written at all.
+ *
+ * If a MemoryBudget is supplied, every queued frame is reserved against it
+ * as well and a frame that does not fit is handled by the backpressure
+ * policy just like one that does not fit in the queue. The budget may be
+ * shared with other writers, so under DROP_OLDEST a frame that still does
+ * not fit once this writer's queue is empty is dropped itself. A frame
+ * shared with other writers is only reserved once, by the writer it was
+ * submitted to.
+ */
+public class FrameWriter {
+
+    /**
+     * Behavior when a frame is submitted while the queue is full
+     */
+    public enum Backpressure {
+
+        /**
+         * Block the caller until there is room in the queue
+         */
+        BLOCK,
+
+        /**
+         * Discard the oldest queued frame to make room
+         */
+        DROP_OLDEST,
+
+        /**
+         * Reject the new frame
+         */
+        FAIL
+    }
+
+    /**
+     * Callback interface for write events
+     *
+     * Note that these methods are invoked on the writer thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a frame has been written to every sink
+         * @param index numerical index of the frame
+         * @param durationMillis time taken to write the frame
+         */
+        void onFrameWritten(int index, long durationMillis);
+
+        /**
+         * Called when a frame was rejected by the filter and not written
+         * @param index numerical index of the frame
+         */
+        void onFrameSkipped(int index);
+
+        /**
+         * Called when a queued frame was discarded to make room for a new one
+         * @param index numerical index of the frame that was never written
+         */
+        void onFrameDropped(int index);
+
+        /**
+         * Called when a frame could not be written or a sink could not be closed
+         * @param index numerical index of the frame (-1 when closing)
+         * @param errorMessage human-readable description of the error
+         */
+        void onWriteFailed(int index, String errorMessage);
+
+        /**
+         * Called once the writer has been shut down and every queued frame has been handled
+         */
+        void onFinished();
+    }
+
+    /**
+     * Pending write of a single frame
+     */
+    private class WriteTask implements Runnable {
+
+        private int mIndex;
+        private long mTimestamp;
+        private JpegFrame mFrame;
+        private long mBytes;
+        private boolean mReserved = false;
+
+        WriteTask(int index, long timestamp, JpegFrame frame) {
+            mIndex = index;
+            mTimestamp = timestamp;
+            mFrame = frame;
+            mBytes = frame.getData().remaining();
+        }
+
+        /**
+         * Release the frame along with its share of the budget
+         */
+        void release() {
+            mFrame.release();
+            if (mReserved) {
+                mBudget.release(mBytes);
+            }
+        }
+
+        /**
+         * Release a frame that was queued but will never be written
+         */
+        void discard() {
+            release();
+            mListener.onFrameDropped(mIndex);
+        }
+
+        @Override
+        public void run() {
+            try {
+
+                // Sinks that can record a skipped frame are told about it
+                if (mFilter != null &&
+                        !mFilter.accept(mIndex, mTimestamp, mFrame.getData().duplicate())) {
+                    for (FrameSink sink : mSinks) {
+                        if (sink instanceof MarkerSink) {
+                            ((MarkerSink) sink).writeMarker(mIndex, mTimestamp);
+                        }
+                    }
+                    mListener.onFrameSkipped(mIndex);
+                    return;
+                }
+
+                // Each sink gets its own view of the data
+                long start = System.nanoTime();
+                for (FrameSink sink : mSinks) {
+                    sink.write(mIndex, mTimestamp, mFrame.getData().duplicate());
+                }
+                mListener.onFrameWritten(mIndex, (System.nanoTime() - start) / 1000000);
+
+            } catch (IOException e) {
+                mListener.onWriteFailed(mIndex, e.getMessage());
+            } finally {
+                release();
+            }
+        }
+    }
+
+    // Data initialized in the constructor
+    private ThreadPoolExecutor mExecutor;
+    private Backpressure mBackpressure;
+    private List<FrameSink> mSinks;
+    private FrameFilter mFilter;
+    private MemoryBudget mBudget;
+    private Listener mListener;
+
+    /**
+     * Create the writer without a filter and start its thread
+     * @param capacity maximum number of frames waiting to be written
+     * @param backpressure behavior when the queue is full
+     * @param sinks destinations for each frame
+     * @param listener callback for write events
+     */
+    public FrameWriter(int capacity, Backpressure backpressure, List<FrameSink> sinks,
+                       Listener listener) {
+        this(capacity, backpressure, sinks, null, null, listener);
+    }
+
+    /**
+     * Create the writer and start its thread
+     * @param capacity maximum number of frames waiting to be written
+     * @param backpressure behavior when the queue is full
+     * @param sinks destinations for each frame
+     * @param filter decides which frames are written or null to write all of them
+     * @param budget budget that queued frames are reserved against or null for none
+     * @param listener callback for write events
+     */
+    public FrameWriter(int capacity, final Backpressure backpressure, List<FrameSink> sinks,
+                       FrameFilter filter, MemoryBudget budget, Listener listener) {
+
+        mBackpressure = backpressure;
+        mSinks = sinks;
+        mFilter = filter;
+        mBudget = budget;
+        mListener = listener;
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new RejectedExecutionHandler() {
+
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("Writer has been shut down.");
+                }
+
+                switch (backpressure) {
+                    case BLOCK:
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting to write.");
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        WriteTask oldest = (WriteTask) executor.getQueue().poll();
+                        if (oldest != null) {
+                            oldest.discard();
+                        }
+                        executor.execute(r);
+                        break;
+                    case FAIL:
+                        throw new RejectedExecutionException("Write queue is full.");
+                }
+            }
+        }) {
+
+            @Override
+            protected void terminated() {
+                for (FrameSink sink : mSinks) {
+                    try {
+                        sink.close();
+                    } catch (IOException e) {
+                        mListener.onWriteFailed(-1, e.getMessage());
+                    }
+                }
+                mListener.onFinished();
+            }
+        };
+
+        // Start the thread now so that the first frame isn't delayed by it
+        mExecutor.prestartCoreThread();
+    }
+
+    /**
+     * Queue a frame to be written
+     * @param index numerical index of the frame
+     * @param timestamp time at which the frame was captured
+     * @param frame JPEG data - ownership passes to the writer
+     * @return null if the frame was queued or a description of why it was rejected
+     */
+    public String submit(int index, long timestamp, JpegFrame frame) {
+
+        WriteTask task = new WriteTask(index, timestamp, frame);
+        try {
+            if (!reserve(task.mBytes)) {
+                task.discard();
+                return null;
+            }
+        } catch (RejectedExecutionException e) {
+            frame.release();
+            return e.getMessage();
+        }
+
+        task.mReserved = mBudget != null;
+        return enqueue(task);
+    }
+
+    /**
+     * Queue a frame to be written by this writer and several others
+     * @param index numerical index of the frame for this writer
+     * @param timestamp time at which the frame was captured
+     * @param frame JPEG data - ownership passes to the writers
+     * @param followers other writers that receive the frame
+     * @param followerIndices numerical index of the frame for each follower
+     * @return null if every writer queued the frame or the first description of why one rejected it
+     *
+     * The data is not copied. Its memory is reserved against this writer's
+     * budget once for all of the writers and stays reserved until the last
+     * of them has released it.
+     */
+    public String submit(int index, long timestamp, final JpegFrame frame,
+                         List<FrameWriter> followers, int[] followerIndices) {
+
+        // A frame that is dropped for lack of memory is dropped by every writer
+        final long bytes = frame.getData().remaining();
+        try {
+            if (!reserve(bytes)) {
+                frame.release();
+                mListener.onFrameDropped(index);
+                for (int i = 0; i < followers.size(); ++i) {
+                    followers.get(i).mListener.onFrameDropped(followerIndices[i]);
+                }
+                return null;
+            }
+        } catch (RejectedExecutionException e) {
+            frame.release();
+            return e.getMessage();
+        }
+
+        JpegFrame reserved = frame;
+        if (mBudget != null) {
+            reserved = new JpegFrame() {
+
+                @Override
+                public ByteBuffer getData() {
+                    return frame.getData();
+                }
+
+                @Override
+                public void release() {
+                    frame.release();
+                    mBudget.release(bytes);
+                }
+            };
+        }
+
+        JpegFrame[] frames = JpegFrame.share(reserved, 1 + followers.size());
+        String errorMessage = enqueue(new WriteTask(index, timestamp, frames[0]));
+        for (int i = 0; i < followers.size(); ++i) {
+            FrameWriter follower = followers.get(i);
+            String followerError = follower.enqueue(
+                    follower.new WriteTask(followerIndices[i], timestamp, frames[i + 1]));
+            if (errorMessage == null) {
+                errorMessage = followerError;
+            }
+        }
+        return errorMessage;
+    }
+
+    /**
+     * Discard the frames waiting to be written if frames may be dropped
+     * @return number of frames discarded
+     *
+     * This frees memory when the system is running short of it. Nothing is
+     * discarded unless the backpressure policy is DROP_OLDEST.
+     */
+    public int trim() {
+
+        if (mBackpressure != Backpressure.DROP_OLDEST) {
+            return 0;
+        }
+
+        int count = 0;
+        WriteTask task;
+        while ((task = (WriteTask) mExecutor.getQueue().poll()) != null) {
+            task.discard();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Stop accepting frames
+     *
+     * Frames that are already queued continue to be written in the
+     * background; this method does not wait for them.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Hand a frame to the writer thread
+     * @param task pending write of the frame
+     * @return null if the frame was queued or a description of why it was rejected
+     */
+    private String enqueue(WriteTask task) {
+        try {
+            mExecutor.execute(task);
+            return null;
+        } catch (RejectedExecutionException e) {
+            task.release();
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Reserve the memory held by a frame while it waits to be written
+     * @param bytes size of the frame
+     * @return true if the memory was reserved (or there is no budget) or false to drop the frame
+     * @throws RejectedExecutionException if the frame must be rejected
+     */
+    private boolean reserve(long bytes) {
+
+        if (mBudget == null) {
+            return true;
+        }
+
+        // Waiting counts as a single hit, so the budget is not tried first
+        if (mBackpressure == Backpressure.BLOCK) {
+            try {
+                mBudget.reserve(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for memory.");
+            }
+            return true;
+        }
+
+        if (mBudget.tryReserve(bytes)) {
+            return true;
+        }
+        if (mBackpressure == Backpressure.FAIL) {
+            throw new RejectedExecutionException("Not enough memory to queue the frame.");
+        }
+
+        // Queued frames are discarded, oldest first, until there is room -
+        // the budget is shared by every writer in the process, so if the
+        // memory is held elsewhere the new frame is dropped as well
+        WriteTask oldest;
+        while ((oldest = (WriteTask) mExecutor.getQueue().poll()) != null) {
+            oldest.discard();
+            if (mBudget.retryReserve(bytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
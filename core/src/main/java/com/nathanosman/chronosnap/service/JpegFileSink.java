@@ -0,0 +1,124 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Stores each frame as an individual JPEG file
+ *
+ * The location of each file is determined by a FrameNaming. When frames
+ * are synced in batches, the files of the current batch are kept open
+ * until the batch is synced since a file can only be synced through an
+ * open descriptor.
+ */
+public class JpegFileSink implements FrameSink {
+
+    // Data initialized in the constructor
+    private FrameNaming mFrameNaming;
+    private DurabilityPolicy mDurability;
+
+    // Most recent directory known to exist
+    private File mDirectory;
+
+    // Files written since the last sync
+    private List<FileOutputStream> mUnsynced = new ArrayList<>();
+
+    /**
+     * Initialize the sink without ever syncing
+     * @param frameNaming determines where each image is written
+     */
+    public JpegFileSink(FrameNaming frameNaming) {
+        this(frameNaming, DurabilityPolicy.none());
+    }
+
+    /**
+     * Initialize the sink
+     * @param frameNaming determines where each image is written
+     * @param durability determines how often written images are synced
+     */
+    public JpegFileSink(FrameNaming frameNaming, DurabilityPolicy durability) {
+        mFrameNaming = frameNaming;
+        mDurability = durability;
+    }
+
+    /**
+     * Determine the file used for storing the specified frame
+     * @param index numerical index of the frame
+     * @return destination file
+     */
+    public File getFile(int index) {
+        return mFrameNaming.getFile(index);
+    }
+
+    @Override
+    public void write(int index, long timestamp, ByteBuffer data) throws IOException {
+
+        // Ensure that the destination directory exists and create it otherwise
+        // (this is only checked when a frame is the first in a new directory)
+        File directory = mFrameNaming.getDirectory(index);
+        if (directory != mDirectory) {
+            StorageDirectory.create(directory);
+            mDirectory = directory;
+        }
+
+        FileOutputStream outputStream = new FileOutputStream(getFile(index));
+        try {
+            FileChannel channel = outputStream.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } catch (IOException e) {
+            outputStream.close();
+            throw e;
+        }
+
+        if (!mDurability.isEnabled()) {
+            outputStream.close();
+            return;
+        }
+
+        mUnsynced.add(outputStream);
+        if (mDurability.shouldSync(mUnsynced.size())) {
+            sync();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+    }
+
+    /**
+     * Sync and close every file written since the last sync
+     *
+     * Every file is closed even if syncing one of them fails.
+     */
+    private void sync() throws IOException {
+
+        IOException error = null;
+        for (FileOutputStream outputStream : mUnsynced) {
+            try {
+                try {
+                    outputStream.getChannel().force(true);
+                } finally {
+                    outputStream.close();
+                }
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        mUnsynced.clear();
+
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.nathanosman.chronosnap.service;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * JPEG data produced by a CameraBackend
+ *
+ * The data may be backed by memory owned by the camera (for example, an
+ * Image from an ImageReader) and must be released once it has been written.
+ */
+public abstract class JpegFrame {
+
+    /**
+     * Retrieve the JPEG data
+     * @return buffer positioned at the start of the data
+     */
+    public abstract ByteBuffer getData();
+
+    /**
+     * Return the underlying memory to its owner
+     *
+     * The buffer returned by getData() must not be used after this call.
+     */
+    public void release() {
+    }
+
+    /**
+     * Create a frame wrapping a byte array
+     * @param data JPEG data
+     * @return frame that requires no release
+     */
+    public static JpegFrame wrap(byte[] data) {
+
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        return new JpegFrame() {
+
+            @Override
+            public ByteBuffer getData() {
+                return buffer;
+            }
+        };
+    }
+
+    /**
+     * Share a frame between several owners
+     * @param frame frame to share - ownership passes to the returned frames
+     * @param count number of owners
+     * @return one frame per owner, each of which must be released
+     *
+     * The data is not copied. The underlying frame is released once every
+     * owner has released its share.
+     */
+    public static JpegFrame[] share(final JpegFrame frame, int count) {
+
+        if (count == 1) {
+            return new JpegFrame[] { frame };
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(count);
+        JpegFrame[] frames = new JpegFrame[count];
+        for (int i = 0; i < count; ++i) {
+            frames[i] = new JpegFrame() {
+
+                private boolean mReleased = false;
+
+                @Override
+                public ByteBuffer getData() {
+                    return frame.getData();
+                }
+
+                @Override
+                public void release() {
+                    if (!mReleased) {
+                        mReleased = true;
+                        if (remaining.decrementAndGet() == 0) {
+                            frame.release();
+                        }
+                    }
+                }
+            };
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,123 @@
+package com.nathanosman.chronosnap.service;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Fixed-size histogram of durations in milliseconds
+ *
+ * Values below LINEAR_LIMIT each have their own bucket. Above that, every
+ * power of two is split into SUB_BUCKETS buckets, so percentiles are
+ * accurate to within about 6% no matter how large the values get. Recording
+ * a value never allocates and is safe from any thread.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values below this are counted exactly
+     */
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    /**
+     * Largest exponent tracked (2^40 ms is far longer than any sequence)
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicIntegerArray mCounts = new AtomicIntegerArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Record a single value
+     * @param valueMillis duration in milliseconds (negative values are counted as 0)
+     */
+    public void record(long valueMillis) {
+
+        long value = Math.max(0, valueMillis);
+        mCounts.incrementAndGet(bucketFor(value));
+        mCount.incrementAndGet();
+
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Retrieve the number of values recorded
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * Retrieve the largest value recorded
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Estimate the value below which the specified fraction of values fall
+     * @param fraction fraction between 0 and 1 (0.5 for the median)
+     * @return estimated value in milliseconds (0 if nothing was recorded)
+     */
+    public long getPercentile(double fraction) {
+
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), mMax.get());
+            }
+        }
+
+        return mMax.get();
+    }
+
+    /**
+     * Determine the bucket for a non-negative value
+     */
+    private static int bucketFor(long value) {
+
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+
+        // Position of the highest bit selects the range, the next bits the sub-bucket
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >> shift) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Determine the largest value counted in a bucket
+     */
+    private static long upperBound(int bucket) {
+
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+
+        int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,20 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.IOException;
+
+
+/**
+ * Sink that records frames rejected by a FrameFilter
+ *
+ * A marker only carries the index and timestamp of the frame, so the
+ * timing of the sequence can be reconstructed without storing the data.
+ */
+public interface MarkerSink {
+
+    /**
+     * Record a frame that was not written
+     * @param index numerical index of the frame
+     * @param timestamp time at which the frame was captured (elapsed realtime)
+     */
+    void writeMarker(int index, long timestamp) throws IOException;
+}
@@ -0,0 +1,88 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Determines how often written images are handed to the media scanner
+ *
+ * Scanning every image individually is expensive for long sequences, so
+ * paths are collected into batches and the policy decides when a batch
+ * should be flushed. Any remaining paths are always flushed when the
+ * sequence ends.
+ */
+public class MediaScanPolicy {
+
+    // Thresholds (0 if not used)
+    private int mFrames;
+    private long mMillis;
+
+    private MediaScanPolicy(int frames, long millis) {
+        mFrames = frames;
+        mMillis = millis;
+    }
+
+    /**
+     * Scan each image as soon as it is written
+     */
+    public static MediaScanPolicy perFrame() {
+        return new MediaScanPolicy(1, 0);
+    }
+
+    /**
+     * Scan images in batches of the specified size
+     * @param frames number of images in each batch
+     */
+    public static MediaScanPolicy everyFrames(int frames) {
+        return new MediaScanPolicy(frames, 0);
+    }
+
+    /**
+     * Scan images no more often than the specified period
+     * @param seconds minimum time between scans
+     */
+    public static MediaScanPolicy everySeconds(int seconds) {
+        return new MediaScanPolicy(0, seconds * 1000L);
+    }
+
+    /**
+     * Scan all images once the sequence ends
+     */
+    public static MediaScanPolicy atSequenceEnd() {
+        return new MediaScanPolicy(0, 0);
+    }
+
+    /**
+     * Create a policy from its preference value
+     * @param value "frame", "end", "frames:N" or "seconds:T"
+     * @return policy
+     */
+    public static MediaScanPolicy parse(String value) {
+
+        if (value.equals("frame")) {
+            return perFrame();
+        } else if (value.equals("end")) {
+            return atSequenceEnd();
+        } else if (value.startsWith("frames:")) {
+            return everyFrames(Integer.parseInt(value.substring(7)));
+        } else if (value.startsWith("seconds:")) {
+            return everySeconds(Integer.parseInt(value.substring(8)));
+        }
+
+        throw new IllegalArgumentException("Invalid scan policy \"" + value + "\".");
+    }
+
+    /**
+     * Determine whether the pending batch should be scanned now
+     * @param pending number of paths in the batch
+     * @param millisSinceScan time since the last scan (or the start of the sequence)
+     * @return true to flush the batch
+     */
+    public boolean shouldScan(int pending, long millisSinceScan) {
+
+        if (pending == 0) {
+            return false;
+        }
+
+        return mFrames != 0 && pending >= mFrames ||
+                mMillis != 0 && millisSinceScan >= mMillis;
+    }
+}
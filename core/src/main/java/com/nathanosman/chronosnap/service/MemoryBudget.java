@@ -0,0 +1,246 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Limits how much of the heap the capture pipeline may hold at once
+ *
+ * Frames waiting to be written and pooled buffers are reserved against the
+ * budget before they are held and released once they are let go. A
+ * reservation always succeeds when nothing else is reserved, so a single
+ * frame larger than the budget still makes progress. The limit can be
+ * lowered temporarily when the system runs short of memory. Every
+ * reservation that does not fit is counted as a hit.
+ *
+ * Memory that is reserved but idle (such as pooled buffers nobody is
+ * using) can be handed back by a Reclaimer, which is asked to do so
+ * whenever a reservation does not fit and, while a reservation is
+ * waiting, every RECLAIM_INTERVAL milliseconds. Otherwise idle memory
+ * could fill the budget and keep every frame out for good.
+ */
+public class MemoryBudget {
+
+    /**
+     * Fraction of the heap given to the pipeline by forHeap()
+     */
+    private static final int HEAP_FRACTION = 4;
+
+    /**
+     * Time between attempts to reclaim idle memory while a reservation waits
+     */
+    private static final long RECLAIM_INTERVAL = 100;
+
+    /**
+     * Callback interface used to free memory that is reserved but idle
+     */
+    public interface Reclaimer {
+
+        /**
+         * Release idle memory back to the budget
+         *
+         * This is never called while the budget is locked, so the
+         * reclaimer may take its own locks and call release().
+         */
+        void reclaim();
+    }
+
+    // Data initialized in the constructor
+    private long mCapacity;
+
+    // Current limit (lower than the capacity under memory pressure) and usage
+    private long mLimit;
+    private long mUsed;
+    private long mPeak;
+    private long mHits;
+
+    private volatile Reclaimer mReclaimer;
+
+    /**
+     * Initialize the budget
+     * @param capacity number of bytes that may be reserved at once
+     */
+    public MemoryBudget(long capacity) {
+        mCapacity = capacity;
+        mLimit = capacity;
+    }
+
+    /**
+     * Create a budget for a heap of the specified size
+     * @param maxMemory value of Runtime.maxMemory()
+     */
+    public static MemoryBudget forHeap(long maxMemory) {
+        return new MemoryBudget(maxMemory / HEAP_FRACTION);
+    }
+
+    /**
+     * Set the reclaimer for idle memory
+     * @param reclaimer reclaimer or null for none
+     */
+    public void setReclaimer(Reclaimer reclaimer) {
+        mReclaimer = reclaimer;
+    }
+
+    /**
+     * Reserve memory if it fits within the limit
+     * @param bytes number of bytes to reserve
+     * @return true if the memory was reserved
+     *
+     * Idle memory is reclaimed before giving up.
+     */
+    public boolean tryReserve(long bytes) {
+
+        if (retryReserve(bytes)) {
+            return true;
+        }
+        reclaim();
+
+        synchronized (this) {
+            if (!fits(bytes)) {
+                mHits++;
+                return false;
+            }
+
+            add(bytes);
+            return true;
+        }
+    }
+
+    /**
+     * Reserve memory after tryReserve() failed and some of it was released
+     * @param bytes number of bytes to reserve
+     * @return true if the memory was reserved
+     *
+     * The hit was already counted by tryReserve(), so it is not counted again.
+     */
+    synchronized boolean retryReserve(long bytes) {
+
+        if (!fits(bytes)) {
+            return false;
+        }
+
+        add(bytes);
+        return true;
+    }
+
+    /**
+     * Reserve memory, waiting until enough of it is released
+     * @param bytes number of bytes to reserve
+     */
+    public void reserve(long bytes) throws InterruptedException {
+
+        if (tryReserve(bytes)) {
+            return;
+        }
+
+        // Idle memory may pile up again while waiting without anything
+        // being released, so it is reclaimed every so often
+        while (true) {
+            synchronized (this) {
+                if (!fits(bytes)) {
+                    wait(RECLAIM_INTERVAL);
+                }
+                if (fits(bytes)) {
+                    add(bytes);
+                    return;
+                }
+            }
+            reclaim();
+        }
+    }
+
+    /**
+     * Release memory that was reserved earlier
+     * @param bytes number of bytes to release
+     */
+    public synchronized void release(long bytes) {
+        mUsed -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * Lower the limit to a fraction of the capacity
+     * @param divisor amount the capacity is divided by
+     *
+     * Memory that is already reserved stays reserved.
+     */
+    public synchronized void shrink(int divisor) {
+        mLimit = Math.min(mLimit, mCapacity / divisor);
+    }
+
+    /**
+     * Return the limit to the full capacity
+     */
+    public synchronized void restore() {
+        mLimit = mCapacity;
+        notifyAll();
+    }
+
+    /**
+     * Work out how many frames of the specified size fit within the capacity
+     * @param frameSize typical size of a frame in bytes
+     * @param max largest number of frames worth queueing
+     * @return number of frames between 1 and max
+     */
+    public int getQueueCapacity(long frameSize, int max) {
+        return (int) Math.max(1, Math.min(max, mCapacity / frameSize));
+    }
+
+    /**
+     * Retrieve the number of bytes that may be reserved when there is no memory pressure
+     */
+    public long getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Retrieve the number of bytes that may currently be reserved
+     */
+    public synchronized long getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * Retrieve the number of bytes currently reserved
+     */
+    public synchronized long getUsed() {
+        return mUsed;
+    }
+
+    /**
+     * Retrieve the largest number of bytes reserved at once
+     */
+    public synchronized long getPeak() {
+        return mPeak;
+    }
+
+    /**
+     * Retrieve the number of reservations that did not fit within the limit
+     */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Ask the reclaimer (if any) to release idle memory
+     */
+    private void reclaim() {
+        Reclaimer reclaimer = mReclaimer;
+        if (reclaimer != null) {
+            reclaimer.reclaim();
+        }
+    }
+
+    /**
+     * Determine whether a reservation fits within the limit
+     */
+    private boolean fits(long bytes) {
+        return mUsed == 0 || mUsed + bytes <= mLimit;
+    }
+
+    /**
+     * Add a reservation to the totals
+     */
+    private void add(long bytes) {
+        mUsed += bytes;
+        mPeak = Math.max(mPeak, mUsed);
+    }
+}
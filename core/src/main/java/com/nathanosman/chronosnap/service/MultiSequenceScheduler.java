@@ -0,0 +1,193 @@
+package com.nathanosman.chronosnap.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+
+/**
+ * Schedules several sequences that share a single camera
+ *
+ * Each sequence keeps its own CaptureScheduler and grid. The sequences are
+ * kept in a priority queue ordered by the time of their next slot, so
+ * finding the next capture takes constant time regardless of how many
+ * sequences are running. Slots that fall within a short window of each
+ * other are taken together so that the camera only needs to be woken once,
+ * and sequences with the same group key (the same camera settings) are
+ * grouped so that a single picture can be shared between them.
+ *
+ * @param <T> type used to identify a sequence
+ */
+public class MultiSequenceScheduler<T> {
+
+    /**
+     * Fraction of a sequence's interval by which a slot may be taken early
+     */
+    private static final long MAX_EARLY_DIVISOR = 4;
+
+    /**
+     * Sequence along with its scheduler
+     */
+    private static class Entry<T> {
+
+        private T mItem;
+        private CaptureScheduler mScheduler;
+        private String mGroupKey;
+        private long mOrder;
+
+        Entry(T item, CaptureScheduler scheduler, String groupKey, long order) {
+            mItem = item;
+            mScheduler = scheduler;
+            mGroupKey = groupKey;
+            mOrder = order;
+        }
+    }
+
+    // Data initialized in the constructor
+    private Clock mClock;
+
+    // Every sequence and those that are waiting for their next slot
+    private final Map<T, Entry<T>> mEntries = new IdentityHashMap<>();
+    private final PriorityQueue<Entry<T>> mQueue = new PriorityQueue<>(11, new Comparator<Entry<T>>() {
+
+        @Override
+        public int compare(Entry<T> lhs, Entry<T> rhs) {
+            long lhsTime = lhs.mScheduler.getNextSlotTime();
+            long rhsTime = rhs.mScheduler.getNextSlotTime();
+            if (lhsTime != rhsTime) {
+                return lhsTime < rhsTime ? -1 : 1;
+            }
+            return lhs.mOrder < rhs.mOrder ? -1 : lhs.mOrder == rhs.mOrder ? 0 : 1;
+        }
+    });
+    private long mNextOrder = 0;
+
+    /**
+     * Initialize the scheduler
+     * @param clock source of the current time
+     */
+    public MultiSequenceScheduler(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Add a sequence
+     * @param item sequence to add
+     * @param scheduler scheduler already positioned at the sequence's next slot
+     * @param groupKey sequences with equal keys may share a picture
+     */
+    public void add(T item, CaptureScheduler scheduler, String groupKey) {
+        Entry<T> entry = new Entry<>(item, scheduler, groupKey, mNextOrder++);
+        mEntries.put(item, entry);
+        mQueue.add(entry);
+    }
+
+    /**
+     * Remove a sequence
+     * @param item sequence to remove
+     */
+    public void remove(T item) {
+        Entry<T> entry = mEntries.remove(item);
+        if (entry != null) {
+            mQueue.remove(entry);
+        }
+    }
+
+    /**
+     * Determine whether any sequences remain
+     */
+    public boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * Retrieve every sequence in the order they were added
+     */
+    public List<T> getSequences() {
+
+        List<Entry<T>> entries = new ArrayList<>(mEntries.values());
+        Collections.sort(entries, new Comparator<Entry<T>>() {
+
+            @Override
+            public int compare(Entry<T> lhs, Entry<T> rhs) {
+                return lhs.mOrder < rhs.mOrder ? -1 : lhs.mOrder == rhs.mOrder ? 0 : 1;
+            }
+        });
+
+        List<T> items = new ArrayList<>(entries.size());
+        for (Entry<T> entry : entries) {
+            items.add(entry.mItem);
+        }
+        return items;
+    }
+
+    /**
+     * Retrieve the sequence that is due next
+     * @return sequence or null if none are waiting
+     */
+    public T peek() {
+        Entry<T> entry = mQueue.peek();
+        return entry == null ? null : entry.mItem;
+    }
+
+    /**
+     * Retrieve the time of the next slot of any sequence
+     * @return time or Long.MAX_VALUE if no sequence is waiting
+     */
+    public long getNextTime() {
+        Entry<T> entry = mQueue.peek();
+        return entry == null ? Long.MAX_VALUE : entry.mScheduler.getNextSlotTime();
+    }
+
+    /**
+     * Take every sequence whose slot is due
+     * @param mergeWindow how far ahead of its slot a sequence may be taken
+     * @return sequences grouped by key, each group ordered by slot time
+     *
+     * A sequence is never taken earlier than a quarter of its interval.
+     * The sequences taken are out of the queue until reschedule() is
+     * called for each of them.
+     */
+    public List<List<T>> takeDue(long mergeWindow) {
+
+        long now = mClock.elapsedRealtime();
+
+        // Keys are sorted so that groups using the same camera end up next to each other
+        Map<String, List<T>> groups = new TreeMap<>();
+        while (!mQueue.isEmpty()) {
+
+            Entry<T> entry = mQueue.peek();
+            long early = Math.min(mergeWindow, entry.mScheduler.getInterval() / MAX_EARLY_DIVISOR);
+            if (entry.mScheduler.getNextSlotTime() > now + early) {
+                break;
+            }
+            mQueue.poll();
+
+            List<T> group = groups.get(entry.mGroupKey);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(entry.mGroupKey, group);
+            }
+            group.add(entry.mItem);
+        }
+
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * Advance a sequence taken by takeDue() to its next slot and queue it again
+     * @param item sequence to reschedule
+     */
+    public void reschedule(T item) {
+        Entry<T> entry = mEntries.get(item);
+        if (entry != null && !mQueue.contains(entry)) {
+            entry.mScheduler.scheduleNext();
+            mQueue.add(entry);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Backs off the capture as the battery runs down or the device heats up
+ *
+ * Each level adds a measure on top of those of the levels before it:
+ * first the camera is kept closed between captures, then pictures are
+ * taken at a lower JPEG quality, and finally the interval is stretched.
+ * The level rises as soon as a threshold is crossed but only falls once
+ * the readings are clear of the threshold by a margin, so that a reading
+ * hovering around a threshold does not flip the level back and forth.
+ * While the device is charging, the battery level is ignored.
+ */
+public class PowerGovernor {
+
+    /**
+     * Measures taken to save power and shed heat
+     */
+    public enum Level {
+
+        /**
+         * Capture normally
+         */
+        NORMAL,
+
+        /**
+         * Close the camera between captures regardless of the interval
+         */
+        CLOSE_CAMERA,
+
+        /**
+         * Also take pictures at a lower JPEG quality
+         */
+        REDUCE_QUALITY,
+
+        /**
+         * Also stretch the interval between captures
+         */
+        STRETCH_INTERVAL
+    }
+
+    /**
+     * Battery levels (in percent) at or below which each level is entered
+     */
+    private static final int[] BATTERY_THRESHOLDS = { 50, 30, 15 };
+
+    /**
+     * Battery temperatures (in degrees Celsius) at or above which each level is entered
+     */
+    private static final double[] TEMPERATURE_THRESHOLDS = { 40, 43, 46 };
+
+    /**
+     * Margins the readings must clear before the level falls
+     */
+    private static final int BATTERY_HYSTERESIS = 5;
+    private static final double TEMPERATURE_HYSTERESIS = 2;
+
+    /**
+     * JPEG quality used from REDUCE_QUALITY upwards
+     */
+    private static final int REDUCED_JPEG_QUALITY = 70;
+
+    /**
+     * Factor the interval is multiplied by at STRETCH_INTERVAL
+     */
+    private static final int INTERVAL_FACTOR = 4;
+
+    // Data initialized in the constructor
+    private boolean mEnabled;
+
+    private Level mLevel = Level.NORMAL;
+
+    /**
+     * Initialize the governor
+     * @param enabled false for a governor that always stays at NORMAL
+     */
+    public PowerGovernor(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Create a governor from its preference value
+     * @param value "none" or "auto"
+     * @return governor
+     */
+    public static PowerGovernor parse(String value) {
+
+        if (value.equals("none")) {
+            return new PowerGovernor(false);
+        } else if (value.equals("auto")) {
+            return new PowerGovernor(true);
+        }
+
+        throw new IllegalArgumentException("Invalid power governor \"" + value + "\".");
+    }
+
+    /**
+     * Update the level from the latest readings
+     * @param batteryPercent battery level between 0 and 100 (-1 if unknown)
+     * @param charging true if the device is charging
+     * @param temperature battery temperature in degrees Celsius (NaN if unknown)
+     * @return new level
+     */
+    public Level update(int batteryPercent, boolean charging, double temperature) {
+
+        if (!mEnabled) {
+            return mLevel;
+        }
+
+        Level level = getLevel(batteryPercent, charging, temperature);
+        if (level.ordinal() < mLevel.ordinal()) {
+
+            // Only fall as far as the readings allow once the margins are applied
+            Level relaxed = getLevel(batteryPercent - BATTERY_HYSTERESIS, charging,
+                    temperature + TEMPERATURE_HYSTERESIS);
+            level = relaxed.ordinal() < mLevel.ordinal() ? relaxed : mLevel;
+        }
+
+        mLevel = level;
+        return mLevel;
+    }
+
+    /**
+     * Retrieve the current level
+     */
+    public Level getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Determine whether the camera should be closed between captures
+     */
+    public boolean shouldCloseCamera() {
+        return mLevel.ordinal() >= Level.CLOSE_CAMERA.ordinal();
+    }
+
+    /**
+     * Retrieve the JPEG quality that pictures should be taken at
+     * @return quality (1-100) or 0 to leave it up to the camera
+     */
+    public int getJpegQuality() {
+        return mLevel.ordinal() >= Level.REDUCE_QUALITY.ordinal() ? REDUCED_JPEG_QUALITY : 0;
+    }
+
+    /**
+     * Retrieve the factor that the interval should be multiplied by
+     */
+    public int getIntervalFactor() {
+        return mLevel == Level.STRETCH_INTERVAL ? INTERVAL_FACTOR : 1;
+    }
+
+    /**
+     * Determine the level called for by a set of readings
+     */
+    private static Level getLevel(int batteryPercent, boolean charging, double temperature) {
+
+        Level[] levels = Level.values();
+        for (int i = BATTERY_THRESHOLDS.length - 1; i >= 0; --i) {
+
+            // Unknown readings never cross a threshold (NaN compares false)
+            boolean battery = !charging && batteryPercent >= 0 &&
+                    batteryPercent <= BATTERY_THRESHOLDS[i];
+            boolean hot = temperature >= TEMPERATURE_THRESHOLDS[i];
+            if (battery || hot) {
+                return levels[i + 1];
+            }
+        }
+
+        return Level.NORMAL;
+    }
+}
@@ -0,0 +1,22 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+/**
+ * Reserves storage for a file ahead of the data being written
+ *
+ * Extending a file with RandomAccessFile.setLength() is all that plain Java
+ * offers, which on most filesystems only creates a hole. Platforms that can
+ * actually allocate the blocks provide their own implementation.
+ */
+public interface Preallocator {
+
+    /**
+     * Make sure that the file is at least the specified length
+     * @param file file to extend
+     * @param length new length of the file in bytes
+     */
+    void preallocate(RandomAccessFile file, long length) throws IOException;
+}
@@ -0,0 +1,54 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Single NV21 frame taken from the camera preview stream
+ *
+ * The data array belongs to a pool owned by the CameraBackend and must be
+ * returned with release() as soon as it is no longer needed, otherwise the
+ * stream runs out of buffers and stops delivering frames.
+ */
+public abstract class PreviewFrame {
+
+    private byte[] mData;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * Initialize the frame
+     * @param data NV21 image data
+     * @param width width of the image in pixels
+     * @param height height of the image in pixels
+     */
+    public PreviewFrame(byte[] data, int width, int height) {
+        mData = data;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Retrieve the NV21 image data
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * Retrieve the width of the image in pixels
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Retrieve the height of the image in pixels
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Return the data array to the pool it came from
+     */
+    public abstract void release();
+}
@@ -0,0 +1,100 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Determines how much of a sequence is kept on storage
+ *
+ * A sequence without a limit keeps growing until storage is full. With a
+ * frame or byte budget, the oldest frames are evicted as new ones are
+ * written so that the sequence can run indefinitely.
+ */
+public class RetentionPolicy {
+
+    // Budgets (0 if not used)
+    private int mFrames;
+    private long mBytes;
+
+    private RetentionPolicy(int frames, long bytes) {
+        mFrames = frames;
+        mBytes = bytes;
+    }
+
+    /**
+     * Keep every frame
+     */
+    public static RetentionPolicy unlimited() {
+        return new RetentionPolicy(0, 0);
+    }
+
+    /**
+     * Keep the newest frames up to the specified number
+     * @param frames maximum number of frames kept
+     */
+    public static RetentionPolicy maxFrames(int frames) {
+        return new RetentionPolicy(frames, 0);
+    }
+
+    /**
+     * Keep the newest frames up to the specified size
+     * @param bytes maximum total size of the frames kept
+     */
+    public static RetentionPolicy maxBytes(long bytes) {
+        return new RetentionPolicy(0, bytes);
+    }
+
+    /**
+     * Create a policy from its preference value
+     * @param value "none", "frames:N" or "megabytes:N"
+     * @return policy
+     */
+    public static RetentionPolicy parse(String value) {
+
+        if (value.equals("none")) {
+            return unlimited();
+        } else if (value.startsWith("frames:")) {
+            return maxFrames(Integer.parseInt(value.substring(7)));
+        } else if (value.startsWith("megabytes:")) {
+            return maxBytes(Long.parseLong(value.substring(10)) * 1024 * 1024);
+        }
+
+        throw new IllegalArgumentException("Invalid retention policy \"" + value + "\".");
+    }
+
+    /**
+     * Determine whether frames are ever evicted
+     */
+    public boolean isLimited() {
+        return mFrames != 0 || mBytes != 0;
+    }
+
+    /**
+     * Determine whether the frames kept are over budget
+     * @param frames number of frames kept
+     * @param bytes total size of the frames kept
+     * @return true if the oldest frame should be evicted
+     */
+    public boolean isExceeded(int frames, long bytes) {
+        return mFrames != 0 && frames > mFrames ||
+                mBytes != 0 && bytes > mBytes;
+    }
+
+    /**
+     * Estimate how much more the frames kept can grow before eviction begins
+     * @param frames number of frames kept
+     * @param bytes total size of the frames kept
+     * @param frameSize typical size of a frame
+     * @return bytes or Long.MAX_VALUE if the policy is unlimited
+     */
+    public long getHeadroom(int frames, long bytes, long frameSize) {
+
+        long headroom = Long.MAX_VALUE;
+        if (mFrames != 0) {
+            headroom = Math.max(0, mFrames - frames) * frameSize;
+        }
+        if (mBytes != 0) {
+            headroom = Math.min(headroom, Math.max(0, mBytes - bytes));
+        }
+
+        return headroom;
+    }
+}
@@ -0,0 +1,191 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Keeps a running index of the frames on storage and evicts the oldest
+ *
+ * The index and size of every frame kept is held in a ring in memory along
+ * with the total size, so enforcing the RetentionPolicy never needs to
+ * walk the sequence directory. This sink must come after the JpegFileSink
+ * that it evicts from. When a sequence is resumed, the index is rebuilt
+ * once from the files of the earlier frames.
+ *
+ * Frames written by other sinks (such as a container) cannot be evicted
+ * individually; without a JpegFileSink the sizes are only tracked.
+ */
+public class RetentionSink implements FrameSink {
+
+    /**
+     * Callback interface for eviction events
+     *
+     * Note that this is invoked on the writer thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called after a frame has been deleted
+         * @param index numerical index of the frame
+         * @param file file that was deleted
+         */
+        void onFrameEvicted(int index, File file);
+    }
+
+    // Data initialized in the constructor
+    private RetentionPolicy mPolicy;
+    private JpegFileSink mJpegFileSink;
+    private Listener mListener;
+
+    // Ring of frames kept (oldest first) and the running totals
+    private int[] mIndices = new int[256];
+    private int[] mSizes = new int[256];
+    private int mHead;
+    private int mCount;
+    private long mBytes;
+
+    // Totals over every frame written by this sink for the mean frame size
+    private long mWrittenBytes;
+    private long mWrittenFrames;
+
+    private boolean mRebuilt = false;
+
+    /**
+     * Initialize the sink
+     * @param policy determines how many frames are kept
+     * @param jpegFileSink sink whose files are evicted or null to only track sizes
+     * @param listener callback for eviction events or null
+     */
+    public RetentionSink(RetentionPolicy policy, JpegFileSink jpegFileSink, Listener listener) {
+        mPolicy = policy;
+        mJpegFileSink = jpegFileSink;
+        mListener = listener;
+    }
+
+    @Override
+    public void write(int index, long timestamp, ByteBuffer data) throws IOException {
+
+        // Frames from before a restart are picked up the first time round
+        if (!mRebuilt) {
+            mRebuilt = true;
+            if (mJpegFileSink != null) {
+                rebuild(index);
+            }
+        }
+
+        int size = data.remaining();
+        synchronized (this) {
+            add(index, size);
+            mWrittenBytes += size;
+            mWrittenFrames++;
+        }
+
+        if (mJpegFileSink != null) {
+            evict();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Retrieve the number of frames kept
+     */
+    public synchronized int getFrameCount() {
+        return mCount;
+    }
+
+    /**
+     * Retrieve the total size of the frames kept
+     */
+    public synchronized long getByteCount() {
+        return mBytes;
+    }
+
+    /**
+     * Retrieve the mean size of the frames written (0 if none were written yet)
+     */
+    public synchronized long getMeanFrameSize() {
+        return mWrittenFrames == 0 ? 0 : mWrittenBytes / mWrittenFrames;
+    }
+
+    /**
+     * Estimate how much more the frames kept can grow before they stop growing
+     * @return bytes or Long.MAX_VALUE if they grow indefinitely
+     */
+    public synchronized long getHeadroom() {
+
+        // Frames that cannot be evicted keep growing regardless of the policy
+        if (mJpegFileSink == null) {
+            return Long.MAX_VALUE;
+        }
+        return mPolicy.getHeadroom(mCount, mBytes, getMeanFrameSize());
+    }
+
+    /**
+     * Add the files of the frames before the first one written this time
+     */
+    private void rebuild(int firstIndex) {
+
+        for (int i = 0; i < firstIndex; ++i) {
+            long length = mJpegFileSink.getFile(i).length();
+            if (length > 0) {
+                synchronized (this) {
+                    add(i, (int) length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the oldest frames until the frames kept are within budget
+     */
+    private void evict() {
+
+        while (true) {
+
+            int index;
+            synchronized (this) {
+                if (mCount <= 1 || !mPolicy.isExceeded(mCount, mBytes)) {
+                    return;
+                }
+                index = mIndices[mHead];
+                mBytes -= mSizes[mHead];
+                mHead = (mHead + 1) % mIndices.length;
+                mCount--;
+            }
+
+            File file = mJpegFileSink.getFile(index);
+            if (file.delete() && mListener != null) {
+                mListener.onFrameEvicted(index, file);
+            }
+        }
+    }
+
+    /**
+     * Append a frame to the ring, growing it as needed
+     */
+    private void add(int index, int size) {
+
+        if (mCount == mIndices.length) {
+            int[] indices = new int[mIndices.length * 2];
+            int[] sizes = new int[mSizes.length * 2];
+            for (int i = 0; i < mCount; ++i) {
+                indices[i] = mIndices[(mHead + i) % mIndices.length];
+                sizes[i] = mSizes[(mHead + i) % mSizes.length];
+            }
+            mIndices = indices;
+            mSizes = sizes;
+            mHead = 0;
+        }
+
+        int tail = (mHead + mCount) % mIndices.length;
+        mIndices[tail] = index;
+        mSizes[tail] = size;
+        mCount++;
+        mBytes += size;
+    }
+}
@@ -0,0 +1,101 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Provides random access to the frames in a sequence container
+ *
+ * The index is memory-mapped when the container was closed cleanly and
+ * rebuilt from the chunk headers otherwise, so frames remain readable
+ * after the tail of the file has been lost. Looking up a frame does not
+ * read any other part of the file.
+ */
+public class SequenceContainerReader implements Closeable {
+
+    // Open container and its index
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private SequenceIndex mIndex;
+
+    /**
+     * Open a container for reading
+     * @param file container file
+     */
+    public SequenceContainerReader(File file) throws IOException {
+
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+
+        try {
+            mIndex = SequenceIndex.read(mChannel, true);
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Retrieve the number of frames in the container
+     */
+    public int getFrameCount() {
+        return mIndex.getCount();
+    }
+
+    /**
+     * Retrieve the index of the frame at the specified position
+     * @param position position of the frame in the container
+     */
+    public int getFrameIndex(int position) {
+        return mIndex.getFrameIndex(position);
+    }
+
+    /**
+     * Retrieve the capture timestamp of the frame at the specified position
+     * @param position position of the frame in the container
+     */
+    public long getTimestamp(int position) {
+        return mIndex.getTimestamp(position);
+    }
+
+    /**
+     * Find the position of a frame by its index
+     * @param frameIndex index the frame was captured with
+     * @return position of the frame or -1 if it is not in the container
+     */
+    public int find(int frameIndex) {
+        return mIndex.find(frameIndex);
+    }
+
+    /**
+     * Determine whether the frame at the specified position was skipped
+     * @param position position of the frame in the container
+     * @return true if only the index and timestamp of the frame were stored
+     *
+     * A skipped frame is nearly identical to the closest earlier frame that
+     * was not skipped.
+     */
+    public boolean isMarker(int position) {
+        return mIndex.getLength(position) == 0;
+    }
+
+    /**
+     * Map the JPEG data of the frame at the specified position
+     * @param position position of the frame in the container
+     * @return read-only buffer containing the JPEG data (empty for a marker)
+     */
+    public ByteBuffer getFrame(int position) throws IOException {
+        return mChannel.map(FileChannel.MapMode.READ_ONLY,
+                mIndex.getOffset(position), mIndex.getLength(position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
@@ -0,0 +1,182 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Stores every frame of the sequence in a single indexed container file
+ *
+ * Frames are appended as chunks and the index is written when the sink is
+ * closed (see SequenceIndex for the layout). If the container already
+ * exists, for example because capture is resumed after the process was
+ * killed, new frames are appended after the last complete chunk.
+ *
+ * The file can be grown in large steps ahead of the chunks so that storage
+ * is allocated in a few contiguous extents and syncing a frame does not
+ * also have to commit a change to the size of the file. Space that was
+ * preallocated but not used is trimmed when the container is closed or
+ * reopened. Frames that were skipped are recorded as chunks without data.
+ */
+public class SequenceContainerSink implements FrameSink, MarkerSink {
+
+    /**
+     * Name of the container within the sequence directory
+     */
+    public static final String FILENAME = "sequence.csq";
+
+    // Data initialized in the constructor
+    private File mSequencePath;
+    private DurabilityPolicy mDurability;
+    private long mPreallocateSize;
+    private Preallocator mPreallocator;
+
+    // Open container and its index
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private SequenceIndex mIndex;
+    private long mAllocated;
+    private int mUnsynced;
+    private ByteBuffer mHeader = ByteBuffer.allocate(SequenceIndex.CHUNK_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Initialize the sink without syncing or preallocating
+     * @param sequencePath directory that the container is written to
+     */
+    public SequenceContainerSink(File sequencePath) {
+        this(sequencePath, DurabilityPolicy.none(), 0, null);
+    }
+
+    /**
+     * Initialize the sink
+     * @param sequencePath directory that the container is written to
+     * @param durability determines how often written frames are synced
+     * @param preallocateSize number of bytes to grow the file by at a time (0 to grow it with each chunk)
+     * @param preallocator used to grow the file or null to simply extend it
+     */
+    public SequenceContainerSink(File sequencePath, DurabilityPolicy durability,
+                                 long preallocateSize, Preallocator preallocator) {
+        mSequencePath = sequencePath;
+        mDurability = durability;
+        mPreallocateSize = preallocateSize;
+        mPreallocator = preallocator;
+    }
+
+    /**
+     * Retrieve the container file
+     */
+    public File getFile() {
+        return new File(mSequencePath, FILENAME);
+    }
+
+    @Override
+    public void write(int index, long timestamp, ByteBuffer data) throws IOException {
+
+        if (mChannel == null) {
+            open();
+        }
+
+        // The header and data are written in a single call where possible
+        int length = data.remaining();
+        long position = mIndex.getEnd();
+        SequenceIndex.putChunkHeader(mHeader, index, timestamp, length);
+
+        // Grow the file ahead of the chunk if it doesn't fit
+        long end = position + SequenceIndex.CHUNK_HEADER_SIZE + length;
+        if (mPreallocateSize > 0 && end > mAllocated) {
+            preallocate(end + mPreallocateSize);
+        }
+
+        ByteBuffer[] buffers = {mHeader, data};
+        mChannel.position(position);
+        while (mHeader.hasRemaining() || data.hasRemaining()) {
+            mChannel.write(buffers);
+        }
+
+        mIndex.add(position + SequenceIndex.CHUNK_HEADER_SIZE, timestamp, length, index);
+
+        if (mDurability.shouldSync(++mUnsynced)) {
+            mChannel.force(false);
+            mUnsynced = 0;
+        }
+    }
+
+    @Override
+    public void writeMarker(int index, long timestamp) throws IOException {
+        write(index, timestamp, ByteBuffer.allocate(0));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel != null) {
+            try {
+
+                // Writing the index also trims any unused preallocated space
+                mIndex.write(mChannel);
+                if (mDurability.isEnabled()) {
+                    mChannel.force(false);
+                }
+
+            } finally {
+                mFile.close();
+                mFile = null;
+                mChannel = null;
+            }
+        }
+    }
+
+    /**
+     * Open the container, creating it or recovering its index as needed
+     */
+    private void open() throws IOException {
+
+        StorageDirectory.create(mSequencePath);
+
+        mFile = new RandomAccessFile(getFile(), "rw");
+        mChannel = mFile.getChannel();
+
+        try {
+            if (mChannel.size() == 0) {
+
+                ByteBuffer header = ByteBuffer.allocate(SequenceIndex.HEADER_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(SequenceIndex.MAGIC).putInt(SequenceIndex.VERSION).putLong(0);
+                header.flip();
+                while (header.hasRemaining()) {
+                    mChannel.write(header, header.position());
+                }
+                mIndex = new SequenceIndex();
+
+            } else {
+
+                // Drop the old index (or a damaged tail) and continue after the last chunk
+                mIndex = SequenceIndex.read(mChannel, false);
+                mChannel.truncate(mIndex.getEnd());
+            }
+            mAllocated = mChannel.size();
+            mUnsynced = 0;
+        } catch (IOException e) {
+            mFile.close();
+            mFile = null;
+            mChannel = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Grow the file to the specified length
+     */
+    private void preallocate(long length) throws IOException {
+        if (mPreallocator != null) {
+            mPreallocator.preallocate(mFile, length);
+        } else {
+            mFile.setLength(length);
+        }
+        mAllocated = length;
+    }
+}
@@ -0,0 +1,313 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+
+/**
+ * Index of the frames in a sequence container
+ *
+ * A container file has the following layout (all values little-endian):
+ *
+ *   header:  magic "CSEQ", version, 8 reserved bytes
+ *   chunks:  magic "FRME", frame index, timestamp (8), length, header CRC, data
+ *   index:   one 24-byte entry per chunk - data offset (8), timestamp (8), length, frame index
+ *   footer:  magic "CIDX", entry count, index offset (8), index CRC, 4 reserved bytes
+ *
+ * A chunk without any data is a marker for a frame that was captured but
+ * not stored because it was nearly identical to an earlier one.
+ *
+ * The index and footer are only written when the container is closed. If
+ * the footer is missing or damaged (for example after power loss), the
+ * index is rebuilt by walking the chunk headers and stops at the first
+ * chunk that is incomplete.
+ */
+public class SequenceIndex {
+
+    // Format constants shared with the writer and reader
+    static final int MAGIC = fourcc("CSEQ");
+    static final int CHUNK_MAGIC = fourcc("FRME");
+    static final int FOOTER_MAGIC = fourcc("CIDX");
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int CHUNK_HEADER_SIZE = 24;
+    static final int ENTRY_SIZE = 24;
+    static final int FOOTER_SIZE = 24;
+
+    // Entries (either mapped from the file or built on the heap)
+    private ByteBuffer mEntries;
+    private int mCount;
+
+    // Position immediately after the last complete chunk
+    private long mEnd;
+
+    /**
+     * Create an empty index for a new container
+     */
+    public SequenceIndex() {
+        mEntries = ByteBuffer.allocate(ENTRY_SIZE * 256).order(ByteOrder.LITTLE_ENDIAN);
+        mEnd = HEADER_SIZE;
+    }
+
+    private SequenceIndex(ByteBuffer entries, int count, long end) {
+        mEntries = entries.order(ByteOrder.LITTLE_ENDIAN);
+        mCount = count;
+        mEnd = end;
+    }
+
+    /**
+     * Load the index of an existing container
+     * @param channel channel for the container file
+     * @param map true to memory-map the stored index instead of copying it
+     * @return index of every complete chunk in the file
+     */
+    public static SequenceIndex read(FileChannel channel, boolean map) throws IOException {
+
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            throw new IOException("Container is truncated.");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a sequence container.");
+        }
+
+        // Use the stored index if the footer is intact
+        if (size >= HEADER_SIZE + FOOTER_SIZE) {
+
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, footer, size - FOOTER_SIZE);
+
+            int count = footer.getInt(4);
+            long indexOffset = footer.getLong(8);
+            if (footer.getInt(0) == FOOTER_MAGIC && count >= 0 &&
+                    indexOffset + (long) count * ENTRY_SIZE + FOOTER_SIZE == size) {
+
+                ByteBuffer entries;
+                if (map) {
+                    entries = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, count * ENTRY_SIZE);
+                } else {
+                    entries = ByteBuffer.allocate(Math.max(count, 256) * ENTRY_SIZE);
+                    entries.limit(count * ENTRY_SIZE);
+                    readFully(channel, entries, indexOffset);
+                    entries.clear();
+                }
+
+                if (crc(entries, count) == footer.getInt(16)) {
+                    return new SequenceIndex(entries, count, indexOffset);
+                }
+            }
+        }
+
+        // Otherwise walk the chunk headers
+        return scan(channel, size);
+    }
+
+    /**
+     * Retrieve the number of frames in the index
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Retrieve the file offset of the data for an entry
+     */
+    public long getOffset(int entry) {
+        return mEntries.getLong(entry * ENTRY_SIZE);
+    }
+
+    /**
+     * Retrieve the capture timestamp for an entry
+     */
+    public long getTimestamp(int entry) {
+        return mEntries.getLong(entry * ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Retrieve the data length for an entry
+     */
+    public int getLength(int entry) {
+        return mEntries.getInt(entry * ENTRY_SIZE + 16);
+    }
+
+    /**
+     * Retrieve the frame index for an entry
+     */
+    public int getFrameIndex(int entry) {
+        return mEntries.getInt(entry * ENTRY_SIZE + 20);
+    }
+
+    /**
+     * Find the entry for a frame index
+     * @param frameIndex frame index to look for
+     * @return entry or -1 if the frame is not in the index
+     *
+     * Frame indices are stored in ascending order, so this is a binary search.
+     */
+    public int find(int frameIndex) {
+
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = getFrameIndex(mid);
+            if (value < frameIndex) {
+                low = mid + 1;
+            } else if (value > frameIndex) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Retrieve the position immediately after the last complete chunk
+     */
+    public long getEnd() {
+        return mEnd;
+    }
+
+    /**
+     * Record a chunk that was appended to the container
+     * @param offset file offset of the data
+     * @param timestamp capture timestamp
+     * @param length data length
+     * @param frameIndex frame index
+     */
+    void add(long offset, long timestamp, int length, int frameIndex) {
+
+        if ((mCount + 1) * ENTRY_SIZE > mEntries.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(mEntries.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            mEntries.clear();
+            grown.put(mEntries);
+            mEntries = grown;
+        }
+
+        int position = mCount * ENTRY_SIZE;
+        mEntries.putLong(position, offset);
+        mEntries.putLong(position + 8, timestamp);
+        mEntries.putInt(position + 16, length);
+        mEntries.putInt(position + 20, frameIndex);
+        mCount++;
+
+        mEnd = offset + length;
+    }
+
+    /**
+     * Write the index and footer at the end of the chunks
+     * @param channel channel for the container file
+     */
+    void write(FileChannel channel) throws IOException {
+
+        ByteBuffer entries = mEntries.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        entries.position(0).limit(mCount * ENTRY_SIZE);
+
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        footer.putInt(FOOTER_MAGIC).putInt(mCount).putLong(mEnd).putInt(crc(mEntries, mCount)).putInt(0);
+        footer.flip();
+
+        channel.truncate(mEnd);
+        long position = mEnd;
+        while (entries.hasRemaining()) {
+            position += channel.write(entries, position);
+        }
+        while (footer.hasRemaining()) {
+            position += channel.write(footer, position);
+        }
+    }
+
+    /**
+     * Build the index by walking the chunk headers
+     */
+    private static SequenceIndex scan(FileChannel channel, long size) throws IOException {
+
+        SequenceIndex index = new SequenceIndex();
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long position = HEADER_SIZE;
+
+        while (position + CHUNK_HEADER_SIZE <= size) {
+
+            header.clear();
+            readFully(channel, header, position);
+
+            // Stop at the first chunk that is damaged or incomplete
+            int length = header.getInt(16);
+            long dataOffset = position + CHUNK_HEADER_SIZE;
+            if (header.getInt(0) != CHUNK_MAGIC || header.getInt(20) != chunkCrc(header) ||
+                    length < 0 || dataOffset + length > size) {
+                break;
+            }
+
+            index.add(dataOffset, header.getLong(8), length, header.getInt(4));
+            position = dataOffset + length;
+        }
+
+        return index;
+    }
+
+    /**
+     * Fill a chunk header for the specified frame
+     */
+    static void putChunkHeader(ByteBuffer header, int frameIndex, long timestamp, int length) {
+        header.clear();
+        header.putInt(CHUNK_MAGIC).putInt(frameIndex).putLong(timestamp).putInt(length).putInt(0);
+        header.putInt(20, chunkCrc(header));
+        header.flip();
+    }
+
+    /**
+     * Calculate the CRC of the first 20 bytes of a chunk header
+     */
+    private static int chunkCrc(ByteBuffer header) {
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), header.arrayOffset(), 20);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Calculate the CRC of the first count entries
+     */
+    private static int crc(ByteBuffer entries, int count) {
+
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[4096];
+        ByteBuffer source = entries.duplicate();
+        source.position(0).limit(count * ENTRY_SIZE);
+        while (source.hasRemaining()) {
+            int length = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Read until the buffer is full
+     */
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of container.");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Convert a FOURCC to its little-endian integer representation
+     */
+    private static int fourcc(String fourcc) {
+        return fourcc.charAt(0) | fourcc.charAt(1) << 8 | fourcc.charAt(2) << 16 | fourcc.charAt(3) << 24;
+    }
+}
@@ -0,0 +1,86 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Detects frames that are nearly identical to the last frame kept
+ *
+ * Long sequences of a mostly static scene produce many frames that differ
+ * only by sensor noise. Each frame is compared with the last frame that
+ * was kept (not the one immediately before it) so that a slow change such
+ * as the light fading is still recorded once it adds up. At least one
+ * frame is kept every maxSkipped frames regardless.
+ */
+public class StaticFrameDetector {
+
+    /**
+     * Default number of frames that may be skipped in a row
+     */
+    private static final int DEFAULT_MAX_SKIPPED = 60;
+
+    // Data initialized in the constructor
+    private double mThreshold;
+    private int mMaxSkipped;
+
+    // Thumbnail of the last frame kept and the number skipped since
+    private Thumbnail mReference;
+    private int mSkipped;
+
+    /**
+     * Create a detector
+     * @param threshold mean absolute luma difference below which a frame is static (0 to disable)
+     * @param maxSkipped maximum number of frames skipped in a row
+     */
+    public StaticFrameDetector(double threshold, int maxSkipped) {
+        mThreshold = threshold;
+        mMaxSkipped = maxSkipped;
+    }
+
+    /**
+     * Create a detector that never skips frames
+     */
+    public static StaticFrameDetector none() {
+        return new StaticFrameDetector(0, 0);
+    }
+
+    /**
+     * Create a detector from its preference value
+     * @param value "none" or "diff:T" where T is the luma difference threshold
+     * @return detector
+     */
+    public static StaticFrameDetector parse(String value) {
+
+        if (value.equals("none")) {
+            return none();
+        } else if (value.startsWith("diff:")) {
+            return new StaticFrameDetector(Double.parseDouble(value.substring(5)),
+                    DEFAULT_MAX_SKIPPED);
+        }
+
+        throw new IllegalArgumentException("Invalid static frame threshold \"" + value + "\".");
+    }
+
+    /**
+     * Determine whether frames are ever skipped
+     */
+    public boolean isEnabled() {
+        return mThreshold > 0;
+    }
+
+    /**
+     * Examine the thumbnail of a frame
+     * @param thumbnail thumbnail of the frame
+     * @return true if the frame should be skipped
+     */
+    public boolean isStatic(Thumbnail thumbnail) {
+
+        if (mReference != null && mSkipped < mMaxSkipped &&
+                thumbnail.getDifference(mReference) < mThreshold) {
+            mSkipped++;
+            return true;
+        }
+
+        mReference = thumbnail;
+        mSkipped = 0;
+        return false;
+    }
+}
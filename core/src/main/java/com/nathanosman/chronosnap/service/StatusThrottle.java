@@ -0,0 +1,70 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Limits how often status updates are delivered
+ *
+ * Any number of changes may be reported; they are coalesced so that at
+ * most one delivery happens per interval and the last change is always
+ * delivered eventually. The caller is responsible for actually scheduling
+ * the delivery after the delay returned by onChanged().
+ */
+public class StatusThrottle {
+
+    // Data initialized in the constructor
+    private Clock mClock;
+    private long mMinInterval;
+
+    // Delivery state
+    private long mLastDelivery;
+    private boolean mDelivered = false;
+    private boolean mScheduled = false;
+
+    /**
+     * Initialize the throttle
+     * @param clock source of the current time
+     * @param minInterval minimum time between deliveries in milliseconds (0 for no limit)
+     */
+    public StatusThrottle(Clock clock, long minInterval) {
+        mClock = clock;
+        mMinInterval = minInterval;
+    }
+
+    /**
+     * Change the minimum time between deliveries
+     * @param minInterval minimum time between deliveries in milliseconds (0 for no limit)
+     *
+     * A delivery that is already scheduled keeps its delay.
+     */
+    public void setMinInterval(long minInterval) {
+        mMinInterval = minInterval;
+    }
+
+    /**
+     * Record that the status has changed
+     * @return delay in milliseconds before the status should be delivered
+     *         or -1 if a delivery is already scheduled
+     */
+    public long onChanged() {
+
+        if (mScheduled) {
+            return -1;
+        }
+        mScheduled = true;
+
+        if (!mDelivered) {
+            return 0;
+        }
+        long elapsed = mClock.elapsedRealtime() - mLastDelivery;
+        return Math.max(0, mMinInterval - elapsed);
+    }
+
+    /**
+     * Record that the status was just delivered
+     */
+    public void onDelivered() {
+        mLastDelivery = mClock.elapsedRealtime();
+        mDelivered = true;
+        mScheduled = false;
+    }
+}
@@ -0,0 +1,38 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * Creates the directories that sequences are written to
+ *
+ * The core module has no access to Android resources, so the message
+ * reported when a directory cannot be created is passed in by the app
+ * through setErrorMessage(). Until then an English message is used.
+ */
+public class StorageDirectory {
+
+    private static volatile String sErrorMessage = "Unable to create storage directory.";
+
+    private StorageDirectory() {
+    }
+
+    /**
+     * Set the message reported when a directory cannot be created
+     * @param errorMessage human-readable description of the error
+     */
+    public static void setErrorMessage(String errorMessage) {
+        sErrorMessage = errorMessage;
+    }
+
+    /**
+     * Create a directory along with its parents unless it already exists
+     * @param directory directory to create
+     */
+    public static void create(File directory) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException(sErrorMessage);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.nathanosman.chronosnap.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Projects how long it will take for storage to fill up
+ *
+ * Every sequence writing to the storage grows at its own rate until it
+ * reaches its retention budget (if any), after which it stops growing
+ * since old frames are evicted as fast as new ones are written. The
+ * projection walks forward through the points at which sequences stop
+ * growing until the free space is used up.
+ */
+public class StorageForecast {
+
+    /**
+     * Sequence writing to the storage
+     */
+    private static class Writer {
+
+        private double mRate;
+        private double mStopTime;
+
+        Writer(double rate, double stopTime) {
+            mRate = rate;
+            mStopTime = stopTime;
+        }
+    }
+
+    private List<Writer> mWriters = new ArrayList<>();
+
+    /**
+     * Add a sequence that is writing to the storage
+     * @param frameSize typical size of a frame in bytes
+     * @param interval time between frames in milliseconds
+     * @param headroom bytes the sequence can grow by (Long.MAX_VALUE if unlimited)
+     */
+    public void add(long frameSize, long interval, long headroom) {
+
+        if (frameSize <= 0 || interval <= 0 || headroom <= 0) {
+            return;
+        }
+
+        double rate = (double) frameSize / interval;
+        double stopTime = headroom == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : headroom / rate;
+        mWriters.add(new Writer(rate, stopTime));
+    }
+
+    /**
+     * Calculate the time until the storage is full
+     * @param freeBytes space currently available
+     * @return time in milliseconds or -1 if the storage never fills up
+     */
+    public long getTimeToFull(long freeBytes) {
+
+        Collections.sort(mWriters, new Comparator<Writer>() {
+
+            @Override
+            public int compare(Writer lhs, Writer rhs) {
+                return Double.compare(lhs.mStopTime, rhs.mStopTime);
+            }
+        });
+
+        double rate = 0;
+        for (Writer writer : mWriters) {
+            rate += writer.mRate;
+        }
+
+        // Each time a sequence stops growing, the rest carry on without it
+        double remaining = freeBytes;
+        double time = 0;
+        for (Writer writer : mWriters) {
+
+            double growth = rate * (writer.mStopTime - time);
+            if (growth >= remaining) {
+                return (long) (time + remaining / rate);
+            }
+
+            remaining -= growth;
+            time = writer.mStopTime;
+            rate -= writer.mRate;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,95 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Small greyscale copy of a captured frame used for analyzing the scene
+ *
+ * Measurements on a thumbnail are cheap enough to be taken for every frame
+ * on the writer thread.
+ */
+public class Thumbnail {
+
+    // Data initialized in the constructor
+    private int mWidth;
+    private int mHeight;
+    private byte[] mLuma;
+
+    /**
+     * Create a thumbnail
+     * @param width width in pixels
+     * @param height height in pixels
+     * @param luma one unsigned luma value per pixel, row by row
+     */
+    public Thumbnail(int width, int height, byte[] luma) {
+        mWidth = width;
+        mHeight = height;
+        mLuma = luma;
+    }
+
+    /**
+     * Retrieve the width in pixels
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Retrieve the height in pixels
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Retrieve the luma of the specified pixel
+     * @return value from 0 to 255
+     */
+    public int getLuma(int x, int y) {
+        return mLuma[y * mWidth + x] & 0xff;
+    }
+
+    /**
+     * Measure how sharp the frame is
+     * @return mean absolute difference between neighboring pixels
+     *
+     * The value only means something relative to other thumbnails of the
+     * same scene - it drops as the image goes out of focus.
+     */
+    public double getSharpness() {
+
+        if (mWidth < 2 || mHeight < 2) {
+            return 0;
+        }
+
+        long total = 0;
+        for (int y = 0; y < mHeight - 1; ++y) {
+            int row = y * mWidth;
+            for (int x = 0; x < mWidth - 1; ++x) {
+                int value = mLuma[row + x] & 0xff;
+                total += Math.abs((mLuma[row + x + 1] & 0xff) - value);
+                total += Math.abs((mLuma[row + mWidth + x] & 0xff) - value);
+            }
+        }
+
+        return (double) total / (2 * (mWidth - 1) * (mHeight - 1));
+    }
+
+    /**
+     * Measure how different another frame is
+     * @param other thumbnail of another frame
+     * @return mean absolute luma difference (255 if the sizes differ)
+     */
+    public double getDifference(Thumbnail other) {
+
+        if (other.mWidth != mWidth || other.mHeight != mHeight) {
+            return 255;
+        }
+
+        long total = 0;
+        for (int i = 0; i < mLuma.length; ++i) {
+            total += Math.abs((mLuma[i] & 0xff) - (other.mLuma[i] & 0xff));
+        }
+
+        return mLuma.length == 0 ? 0 : (double) total / mLuma.length;
+    }
+}
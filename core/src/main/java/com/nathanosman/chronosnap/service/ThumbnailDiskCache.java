@@ -0,0 +1,182 @@
+package com.nathanosman.chronosnap.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Bounded cache of encoded thumbnails stored in a directory
+ *
+ * Entries are kept in least-recently-used order in memory along with their
+ * total size, so the directory is only listed once. The order survives a
+ * restart through the modification time of each file, which is updated
+ * whenever an entry is used.
+ */
+public class ThumbnailDiskCache {
+
+    // Data initialized in the constructor
+    private File mDirectory;
+    private long mMaxBytes;
+
+    // File name and size of every entry, least recently used first
+    private LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mBytes;
+    private boolean mLoaded = false;
+
+    /**
+     * Initialize the cache
+     * @param directory directory the entries are stored in
+     * @param maxBytes maximum total size of the entries
+     */
+    public ThumbnailDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Retrieve an entry
+     * @param key key the entry was stored with
+     * @return data or null if the entry is not in the cache
+     */
+    public synchronized byte[] get(String key) {
+
+        load();
+
+        String name = getName(key);
+        if (mEntries.get(name) == null) {
+            return null;
+        }
+
+        File file = new File(mDirectory, name);
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                byte[] data = new byte[(int) randomAccessFile.length()];
+                randomAccessFile.readFully(data);
+                file.setLastModified(System.currentTimeMillis());
+                return data;
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            mBytes -= mEntries.remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Store an entry, evicting the least recently used entries if needed
+     * @param key key identifying the entry
+     * @param data data to store
+     */
+    public synchronized void put(String key, byte[] data) {
+
+        load();
+
+        // Write to a temporary file so that readers never see part of an entry
+        String name = getName(key);
+        File temporary = new File(mDirectory, name + ".tmp");
+        try {
+            FileOutputStream outputStream = new FileOutputStream(temporary);
+            try {
+                outputStream.write(data);
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(new File(mDirectory, name))) {
+            temporary.delete();
+            return;
+        }
+
+        Long previous = mEntries.put(name, (long) data.length);
+        if (previous != null) {
+            mBytes -= previous;
+        }
+        mBytes += data.length;
+
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().equals(name)) {
+                continue;
+            }
+            new File(mDirectory, entry.getKey()).delete();
+            mBytes -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Retrieve the total size of the entries
+     */
+    public synchronized long getByteCount() {
+        load();
+        return mBytes;
+    }
+
+    /**
+     * Build the index from the directory the first time the cache is used
+     */
+    private void load() {
+
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        mDirectory.mkdirs();
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(File lhs, File rhs) {
+                long difference = lhs.lastModified() - rhs.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+
+            // Left behind if the process died while writing
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+
+            mEntries.put(file.getName(), file.length());
+            mBytes += file.length();
+        }
+    }
+
+    /**
+     * Convert a key to a file name
+     *
+     * Keys may contain any character, so the name is a 64-bit FNV-1a hash
+     * of the key.
+     */
+    private static String getName(String key) {
+
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); ++i) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return Long.toHexString(hash);
+    }
+}
@@ -0,0 +1,253 @@
+package com.nathanosman.chronosnap.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class CameraControllerTest {
+
+    private FakeCameraBackend mBackend;
+    private CameraController mController;
+
+    // Events received by the listener in the order they arrived
+    private List<String> mEvents;
+    private boolean mAutofocus;
+
+    @Before
+    public void setUp() {
+        mBackend = new FakeCameraBackend();
+        mEvents = new ArrayList<>();
+        mController = new CameraController(mBackend, new CameraController.Listener() {
+
+            @Override
+            public void onOpened() {
+                mEvents.add("opened");
+            }
+
+            @Override
+            public boolean onCaptureReady() {
+                mEvents.add("ready");
+                return mAutofocus;
+            }
+
+            @Override
+            public void onStreamReady() {
+                mEvents.add("stream");
+            }
+
+            @Override
+            public void onFocusFailed(int attempts, boolean retrying) {
+                mEvents.add("focus failed " + attempts + (retrying ? " retrying" : ""));
+            }
+
+            @Override
+            public void onPictureTaken(JpegFrame frame, boolean focused) {
+                mEvents.add(focused ? "picture focused" : "picture");
+                frame.release();
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                mEvents.add("error " + errorMessage);
+            }
+        });
+    }
+
+    @Test
+    public void capturesOnceTheCameraIsOpen() {
+
+        mController.startCapture();
+        assertEquals(CameraController.State.OPENING, mController.getState());
+        assertEquals(0, mBackend.getPictureCount());
+
+        mBackend.completeOpen();
+        assertEquals(CameraController.State.CAPTURING, mController.getState());
+        assertFalse(mBackend.wasAutofocusRequested());
+
+        mBackend.completePicture();
+        assertEquals(CameraController.State.PREVIEWING, mController.getState());
+        assertEquals(Arrays.asList("opened", "ready", "picture"), mEvents);
+    }
+
+    @Test
+    public void reusesAnOpenCamera() {
+
+        mController.startCapture();
+        mBackend.completeOpen();
+        mBackend.completePicture();
+
+        mController.startCapture();
+        mBackend.completePicture();
+
+        assertEquals(1, mBackend.getOpenCount());
+        assertEquals(Arrays.asList("opened", "ready", "picture", "ready", "picture"), mEvents);
+    }
+
+    @Test
+    public void opensOnlyOnceWhilePreparing() {
+
+        mController.prepare();
+        mController.prepare();
+        mController.startCapture();
+        assertEquals(1, mBackend.getOpenCount());
+
+        mBackend.completeOpen();
+        assertEquals(1, mBackend.getPictureCount());
+    }
+
+    @Test
+    public void reportsAnOpenError() {
+
+        mController.startCapture();
+        mBackend.failOpen("broken");
+
+        assertEquals(CameraController.State.CLOSED, mController.getState());
+        assertEquals(Arrays.asList("error broken"), mEvents);
+    }
+
+    @Test
+    public void ignoresAnOpenErrorWithNothingPending() {
+
+        mController.prepare();
+        mBackend.failOpen("broken");
+
+        assertEquals(CameraController.State.CLOSED, mController.getState());
+        assertTrue(mEvents.isEmpty());
+    }
+
+    @Test
+    public void focusesBeforeTheShutter() {
+
+        mAutofocus = true;
+        mController.startCapture();
+        mBackend.completeOpen();
+        assertEquals(CameraController.State.FOCUSING, mController.getState());
+        assertTrue(mBackend.wasAutofocusRequested());
+
+        mController.onStageComplete(CaptureStage.FOCUS);
+        assertEquals(CameraController.State.CAPTURING, mController.getState());
+
+        mBackend.completePicture();
+        assertEquals(Arrays.asList("opened", "ready", "picture focused"), mEvents);
+    }
+
+    @Test
+    public void retriesFocusAndThenCapturesWithoutIt() {
+
+        mAutofocus = true;
+        mController.startCapture();
+        mBackend.completeOpen();
+
+        for (int i = 1; i < CameraController.MAX_FOCUS_ATTEMPTS; ++i) {
+            mBackend.failFocus();
+            assertTrue(mBackend.wasAutofocusRequested());
+        }
+        mBackend.failFocus();
+        assertFalse(mBackend.wasAutofocusRequested());
+        assertEquals(CameraController.State.CAPTURING, mController.getState());
+
+        mBackend.completePicture();
+        assertEquals(Arrays.asList("opened", "ready", "focus failed 1 retrying",
+                "focus failed 2 retrying", "focus failed 3", "picture"), mEvents);
+    }
+
+    @Test
+    public void reportsAPictureError() {
+
+        mController.startCapture();
+        mBackend.completeOpen();
+        mBackend.failPicture("no picture");
+
+        assertEquals(CameraController.State.PREVIEWING, mController.getState());
+        assertEquals(Arrays.asList("opened", "ready", "error no picture"), mEvents);
+    }
+
+    @Test
+    public void dropsAPictureThatArrivesAfterClose() {
+
+        mController.startCapture();
+        mBackend.completeOpen();
+        mController.close();
+        mBackend.completePicture();
+
+        assertEquals(CameraController.State.CLOSED, mController.getState());
+        assertEquals(1, mBackend.getCloseCount());
+        assertEquals(1, mBackend.getReleasedCount());
+        assertEquals(Arrays.asList("opened", "ready"), mEvents);
+    }
+
+    @Test
+    public void ignoresAnOpenThatCompletesAfterClose() {
+
+        mController.startCapture();
+        mController.close();
+        mBackend.completeOpen();
+
+        assertEquals(CameraController.State.CLOSED, mController.getState());
+        assertEquals(0, mBackend.getPictureCount());
+        assertTrue(mEvents.isEmpty());
+    }
+
+    @Test
+    public void detachLeavesTheCameraOpen() {
+
+        mController.startCapture();
+        mBackend.completeOpen();
+        mController.detach();
+        mBackend.completePicture();
+
+        assertTrue(mBackend.isOpen());
+        assertEquals(0, mBackend.getCloseCount());
+        assertEquals(1, mBackend.getReleasedCount());
+        assertEquals(Arrays.asList("opened", "ready"), mEvents);
+    }
+
+    @Test
+    public void cancelsACaptureInProgress() {
+
+        mController.startCapture();
+        assertTrue(mController.cancel());
+        assertEquals(CameraController.State.CLOSED, mController.getState());
+
+        mController.startCapture();
+        mBackend.completeOpen();
+        assertTrue(mController.cancel());
+
+        // Late results of the cancelled capture are dropped
+        mBackend.failPicture("too late");
+        assertEquals(Arrays.asList("opened", "ready"), mEvents);
+    }
+
+    @Test
+    public void cancelDoesNothingWhenIdle() {
+
+        assertFalse(mController.cancel());
+
+        mController.startCapture();
+        mBackend.completeOpen();
+        mBackend.completePicture();
+        assertFalse(mController.cancel());
+        assertEquals(0, mBackend.getCloseCount());
+    }
+
+    @Test
+    public void streamsUntilClosed() {
+
+        mController.startStream();
+        mBackend.completeOpen();
+        assertTrue(mController.isStreaming());
+        assertFalse(mController.cancel());
+        assertEquals(Arrays.asList("opened", "stream"), mEvents);
+
+        mController.close();
+        assertFalse(mController.isStreaming());
+    }
+}
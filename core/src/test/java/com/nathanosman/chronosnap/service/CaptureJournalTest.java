@@ -0,0 +1,257 @@
+package com.nathanosman.chronosnap.service;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class CaptureJournalTest {
+
+    private static final int MAGIC = 0x4c4e524a;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mFolder.getRoot(), "0.journal");
+    }
+
+    private static CaptureJournal.State state() {
+        CaptureJournal.State state = new CaptureJournal.State();
+        state.sequenceName = "Sunset \u00e9t\u00e9";
+        state.startTime = 123456;
+        state.interval = 5000;
+        state.limit = 900;
+        state.streaming = false;
+        state.cameraId = 1;
+        state.cameraCount = 2;
+        state.bootEpoch = 1400000000000L;
+        return state;
+    }
+
+    @Test
+    public void resumesFromTheLastRecord() throws IOException {
+
+        CaptureJournal journal = new CaptureJournal(mFile);
+        journal.begin(state());
+        for (int i = 0; i < 25; ++i) {
+            journal.append(i, 1000, i + 1, i < 20 ? 5000 : 8000);
+        }
+        journal.close();
+
+        CaptureJournal.State state = new CaptureJournal(mFile).resume();
+        assertEquals("Sunset \u00e9t\u00e9", state.sequenceName.toString());
+        assertEquals(123456, state.startTime);
+        assertEquals(5000, state.interval);
+        assertEquals(900, state.limit);
+        assertFalse(state.streaming);
+        assertEquals(1, state.cameraId);
+        assertEquals(2, state.cameraCount);
+        assertEquals(1400000000000L, state.bootEpoch);
+        assertEquals(24, state.index);
+        assertEquals(1000, state.anchor);
+        assertEquals(25, state.slot);
+        assertEquals(8000, state.slotInterval);
+    }
+
+    @Test
+    public void resumesWithoutAnyRecords() throws IOException {
+
+        CaptureJournal journal = new CaptureJournal(mFile);
+        CaptureJournal.State begun = state();
+        begun.streaming = true;
+        journal.begin(begun);
+        journal.close();
+
+        CaptureJournal.State state = new CaptureJournal(mFile).resume();
+        assertTrue(state.streaming);
+        assertEquals(-1, state.index);
+    }
+
+    @Test
+    public void discardsATornRecord() throws IOException {
+
+        CaptureJournal journal = new CaptureJournal(mFile);
+        journal.begin(state());
+        journal.append(0, 1000, 1, 5000);
+        journal.append(1, 1000, 2, 5000);
+        journal.close();
+
+        // Damage the last byte of the last record and add half a record after it
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(file.length() - 1);
+        int last = file.read();
+        file.seek(file.length() - 1);
+        file.write(last ^ 0xff);
+        file.seek(file.length());
+        file.write(new byte[12]);
+        file.close();
+
+        journal = new CaptureJournal(mFile);
+        assertEquals(0, journal.resume().index);
+
+        // Appending continues after the intact record
+        journal.append(1, 1000, 2, 5000);
+        journal.close();
+        assertEquals(1, new CaptureJournal(mFile).resume().index);
+    }
+
+    @Test
+    public void readsVersionOne() throws IOException {
+
+        writeLegacyJournal(1, 3);
+
+        CaptureJournal.State state = new CaptureJournal(mFile).resume();
+        assertEquals("Legacy", state.sequenceName.toString());
+        assertEquals(777, state.startTime);
+        assertEquals(2000, state.interval);
+        assertEquals(50, state.limit);
+        assertEquals(-1, state.cameraId);
+        assertEquals(1, state.cameraCount);
+        assertEquals(2, state.index);
+        assertEquals(500, state.anchor);
+        assertEquals(3, state.slot);
+        assertEquals(0, state.slotInterval);
+    }
+
+    @Test
+    public void readsVersionTwo() throws IOException {
+
+        writeLegacyJournal(2, 3);
+
+        CaptureJournal.State state = new CaptureJournal(mFile).resume();
+        assertEquals("Legacy", state.sequenceName.toString());
+        assertEquals(3, state.cameraId);
+        assertEquals(2, state.cameraCount);
+        assertEquals(2, state.index);
+        assertEquals(0, state.slotInterval);
+    }
+
+    @Test
+    public void readsVersionThree() throws IOException {
+
+        writeLegacyJournal(3, 3);
+
+        CaptureJournal.State state = new CaptureJournal(mFile).resume();
+        assertEquals("Legacy", state.sequenceName.toString());
+        assertEquals(3, state.cameraId);
+        assertEquals(0, state.bootEpoch);
+        assertEquals(2, state.index);
+        assertEquals(3, state.slot);
+        assertEquals(4000, state.slotInterval);
+    }
+
+    @Test
+    public void keepsTheRecordFormatOfAnOlderJournal() throws IOException {
+
+        writeLegacyJournal(2, 3);
+
+        CaptureJournal journal = new CaptureJournal(mFile);
+        journal.resume();
+        journal.append(3, 500, 4, 9999);
+        journal.close();
+
+        CaptureJournal.State state = new CaptureJournal(mFile).resume();
+        assertEquals(3, state.index);
+        assertEquals(4, state.slot);
+        assertEquals(0, state.slotInterval);
+    }
+
+    @Test
+    public void ignoresOtherFiles() throws IOException {
+
+        assertNull(new CaptureJournal(mFile).resume());
+
+        FileOutputStream output = new FileOutputStream(mFile);
+        output.write(new byte[64]);
+        output.close();
+        assertNull(new CaptureJournal(mFile).resume());
+    }
+
+    @Test
+    public void endRemovesTheJournal() throws IOException {
+
+        CaptureJournal journal = new CaptureJournal(mFile);
+        journal.begin(state());
+        journal.end();
+
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void ignoresRecordsWhenTheJournalCannotBeCreated() throws IOException {
+
+        // The directory for the journal does not exist
+        File file = new File(new File(mFolder.getRoot(), "missing"), "0.journal");
+        CaptureJournal journal = new CaptureJournal(file);
+        try {
+            journal.begin(state());
+            fail("The journal should not have been created");
+        } catch (IOException e) {
+            // Capture goes ahead without the journal
+        }
+
+        journal.append(0, 1000, 1, 5000);
+        journal.close();
+        journal.end();
+        assertFalse(file.exists());
+    }
+
+    /**
+     * Write a journal in the format of an earlier version
+     * @param version 1 (no camera fields), 2 (no interval in records), or 3 (no boot epoch)
+     * @param records number of progress records to write
+     */
+    private void writeLegacyJournal(int version, int records) throws IOException {
+
+        byte[] name = "Legacy".getBytes("UTF-8");
+        int headerSize = (version == 1 ? 44 : 52) + name.length;
+        int recordSize = version < 3 ? 24 : 32;
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + records * recordSize).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC).putInt(version).putInt(headerSize);
+        buffer.putLong(777).putLong(2000).putInt(50).putInt(0);
+        if (version >= 2) {
+            buffer.putInt(3).putInt(2);
+        }
+        buffer.putInt(name.length).put(name);
+        buffer.putInt(crc(buffer.array(), 0, buffer.position()));
+
+        for (int i = 0; i < records; ++i) {
+            int start = buffer.position();
+            buffer.putInt(i).putLong(500).putLong(i + 1);
+            if (version >= 3) {
+                buffer.putLong(4000);
+            }
+            buffer.putInt(crc(buffer.array(), start, recordSize - 4));
+        }
+
+        FileOutputStream output = new FileOutputStream(mFile);
+        output.write(buffer.array());
+        output.close();
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,138 @@
+package com.nathanosman.chronosnap.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class CaptureSchedulerTest {
+
+    private static final long START = 1000;
+    private static final long INTERVAL = 100;
+
+    private FakeClock mClock = new FakeClock(START);
+
+    private CaptureScheduler create(CaptureScheduler.MissedSlotPolicy policy) {
+        return new CaptureScheduler(mClock, START, INTERVAL, policy);
+    }
+
+    @Test
+    public void lateCapturesDoNotDelayTheGrid() {
+
+        CaptureScheduler scheduler = create(CaptureScheduler.MissedSlotPolicy.SKIP);
+        assertEquals(START + INTERVAL, scheduler.getNextSlotTime());
+
+        // Every capture starts 30ms late and takes 40ms, yet the slots stay put
+        for (int slot = 1; slot <= 10; ++slot) {
+            mClock.set(START + slot * INTERVAL + 30);
+            assertTrue(scheduler.isSlotDue());
+            assertEquals(30, scheduler.onCaptureStarted());
+            mClock.advance(40);
+            assertEquals(START + (slot + 1) * INTERVAL, scheduler.scheduleNext());
+        }
+
+        assertEquals(10, scheduler.getLastSlot());
+        assertEquals(30, scheduler.getMaxError());
+        assertEquals(30, scheduler.getMeanError());
+        assertEquals(0, scheduler.getMissedSlots());
+    }
+
+    @Test
+    public void reportsEarlyCapturesAsNegativeErrors() {
+
+        CaptureScheduler scheduler = create(CaptureScheduler.MissedSlotPolicy.SKIP);
+
+        mClock.set(START + INTERVAL - 5);
+        assertFalse(scheduler.isSlotDue());
+        assertEquals(-5, scheduler.onCaptureStarted());
+        assertEquals(5, scheduler.getMaxError());
+    }
+
+    @Test
+    public void skipMovesOnToTheNextSlotInTheFuture() {
+
+        CaptureScheduler scheduler = create(CaptureScheduler.MissedSlotPolicy.SKIP);
+
+        // The capture for slot 1 overruns slots 2 and 3
+        mClock.set(START + INTERVAL);
+        scheduler.onCaptureStarted();
+        mClock.set(START + 3 * INTERVAL + 50);
+
+        assertEquals(START + 4 * INTERVAL, scheduler.scheduleNext());
+        assertEquals(2, scheduler.getMissedSlots());
+    }
+
+    @Test
+    public void catchUpCapturesEveryMissedSlot() {
+
+        CaptureScheduler scheduler = create(CaptureScheduler.MissedSlotPolicy.CATCH_UP);
+
+        mClock.set(START + INTERVAL);
+        scheduler.onCaptureStarted();
+        mClock.set(START + 3 * INTERVAL + 50);
+
+        // Slots 2 and 3 are already due and are taken back to back
+        assertEquals(START + 2 * INTERVAL, scheduler.scheduleNext());
+        assertTrue(scheduler.isSlotDue());
+        scheduler.onCaptureStarted();
+        assertEquals(START + 3 * INTERVAL, scheduler.scheduleNext());
+        assertTrue(scheduler.isSlotDue());
+        scheduler.onCaptureStarted();
+        assertEquals(START + 4 * INTERVAL, scheduler.scheduleNext());
+        assertFalse(scheduler.isSlotDue());
+        assertEquals(0, scheduler.getMissedSlots());
+    }
+
+    @Test
+    public void shiftGridRestartsTheGridFromNow() {
+
+        CaptureScheduler scheduler = create(CaptureScheduler.MissedSlotPolicy.SHIFT_GRID);
+
+        mClock.set(START + INTERVAL);
+        scheduler.onCaptureStarted();
+        long now = START + 3 * INTERVAL + 50;
+        mClock.set(now);
+
+        // The next capture happens right away and the ones after it follow from there
+        assertEquals(now, scheduler.scheduleNext());
+        scheduler.onCaptureStarted();
+        assertEquals(now + INTERVAL, scheduler.scheduleNext());
+        assertEquals(0, scheduler.getMissedSlots());
+    }
+
+    @Test
+    public void setIntervalKeepsTheCurrentSlot() {
+
+        CaptureScheduler scheduler = create(CaptureScheduler.MissedSlotPolicy.SKIP);
+
+        mClock.set(START + INTERVAL);
+        scheduler.onCaptureStarted();
+
+        // Changed after the capture: the time until the next one changes
+        scheduler.setInterval(250);
+        assertEquals(START + INTERVAL, scheduler.getNextSlotTime());
+        assertEquals(START + INTERVAL + 250, scheduler.scheduleNext());
+
+        mClock.set(START + INTERVAL + 250);
+        scheduler.onCaptureStarted();
+        assertEquals(START + INTERVAL + 500, scheduler.scheduleNext());
+        assertEquals(250, scheduler.getInterval());
+    }
+
+    @Test
+    public void restoreContinuesFromTheRecordedSlot() {
+
+        CaptureScheduler scheduler = create(CaptureScheduler.MissedSlotPolicy.SKIP);
+        mClock.set(START + INTERVAL);
+        scheduler.onCaptureStarted();
+        scheduler.setInterval(250);
+        scheduler.scheduleNext();
+
+        CaptureScheduler restored = new CaptureScheduler(mClock, 0, INTERVAL,
+                CaptureScheduler.MissedSlotPolicy.SKIP);
+        restored.restore(scheduler.getAnchor(), scheduler.getLastSlot(), scheduler.getInterval());
+        assertEquals(scheduler.getNextSlotTime(), restored.scheduleNext());
+    }
+}
@@ -0,0 +1,165 @@
+package com.nathanosman.chronosnap.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ExifThumbnailTest {
+
+    private static final byte[] THUMBNAIL = {
+            (byte) 0xff, (byte) 0xd8, 1, 2, 3, 4, (byte) 0xff, (byte) 0xd9
+    };
+
+    /**
+     * Offset of IFD1 in the TIFF data built by tiff()
+     */
+    private static final int IFD1 = 26;
+
+    /**
+     * Offset of the thumbnail in the TIFF data built by tiff()
+     */
+    private static final int THUMBNAIL_OFFSET = 56;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readsALittleEndianThumbnail() throws IOException {
+        File file = writeJpeg(app1(exif(tiff(ByteOrder.LITTLE_ENDIAN, IFD1, THUMBNAIL_OFFSET))));
+        assertTrue(Arrays.equals(THUMBNAIL, ExifThumbnail.read(file)));
+    }
+
+    @Test
+    public void readsABigEndianThumbnail() throws IOException {
+        File file = writeJpeg(app1(exif(tiff(ByteOrder.BIG_ENDIAN, IFD1, THUMBNAIL_OFFSET))));
+        assertTrue(Arrays.equals(THUMBNAIL, ExifThumbnail.read(file)));
+    }
+
+    @Test
+    public void skipsAnXmpSegment() throws IOException {
+        byte[] xmp = "http://ns.adobe.com/xap/1.0/\u0000<x:xmpmeta/>".getBytes("UTF-8");
+        File file = writeJpeg(app1(xmp), app1(exif(tiff(ByteOrder.BIG_ENDIAN, IFD1, THUMBNAIL_OFFSET))));
+        assertTrue(Arrays.equals(THUMBNAIL, ExifThumbnail.read(file)));
+    }
+
+    @Test
+    public void ignoresAnImageWithoutIfd1() throws IOException {
+        File file = writeJpeg(app1(exif(tiff(ByteOrder.LITTLE_ENDIAN, 0, THUMBNAIL_OFFSET))));
+        assertNull(ExifThumbnail.read(file));
+    }
+
+    @Test
+    public void ignoresAnImageWithoutExif() throws IOException {
+        File file = writeJpeg();
+        assertNull(ExifThumbnail.read(file));
+    }
+
+    @Test
+    public void ignoresOffsetsOutOfRange() {
+
+        // IFD1 past the end of the data
+        assertNull(find(tiff(ByteOrder.LITTLE_ENDIAN, 1000, THUMBNAIL_OFFSET)));
+        assertNull(find(tiff(ByteOrder.LITTLE_ENDIAN, -8, THUMBNAIL_OFFSET)));
+
+        // Thumbnail running past the end of the data
+        assertNull(find(tiff(ByteOrder.BIG_ENDIAN, IFD1, THUMBNAIL_OFFSET + 4)));
+        assertNull(find(tiff(ByteOrder.BIG_ENDIAN, IFD1, Integer.MAX_VALUE)));
+
+        // Offset pointing at something other than a JPEG image
+        assertNull(find(tiff(ByteOrder.BIG_ENDIAN, IFD1, THUMBNAIL_OFFSET - 2)));
+    }
+
+    @Test
+    public void ignoresTruncatedData() {
+
+        byte[] tiff = tiff(ByteOrder.LITTLE_ENDIAN, IFD1, THUMBNAIL_OFFSET);
+        for (int length = 0; length < tiff.length; ++length) {
+            assertNull(find(Arrays.copyOf(tiff, length)));
+        }
+    }
+
+    /**
+     * Look for the thumbnail in EXIF data wrapped around TIFF data
+     */
+    private static ByteBuffer find(byte[] tiff) {
+        return ExifThumbnail.find(ByteBuffer.wrap(exif(tiff)));
+    }
+
+    /**
+     * Build TIFF data with one entry in IFD0 and the thumbnail in IFD1
+     * @param order byte order of the data
+     * @param ifd1 offset of IFD1 recorded in IFD0 (0 for none)
+     * @param thumbnailOffset offset of the thumbnail recorded in IFD1
+     */
+    private static byte[] tiff(ByteOrder order, int ifd1, int thumbnailOffset) {
+
+        ByteBuffer buffer = ByteBuffer.allocate(THUMBNAIL_OFFSET + THUMBNAIL.length).order(order);
+        buffer.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        buffer.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        buffer.putShort((short) 42).putInt(8);
+
+        // IFD0 holds the orientation
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) 1).putShort((short) 0);
+        buffer.putInt(ifd1);
+
+        // IFD1 holds the offset (as a long) and length (as a short) of the thumbnail
+        buffer.putShort((short) 2);
+        buffer.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(thumbnailOffset);
+        buffer.putShort((short) 0x0202).putShort((short) 3).putInt(1)
+                .putShort((short) THUMBNAIL.length).putShort((short) 0);
+        buffer.putInt(0);
+
+        buffer.put(THUMBNAIL);
+        return buffer.array();
+    }
+
+    /**
+     * Prefix TIFF data with the EXIF identifier
+     */
+    private static byte[] exif(byte[] tiff) {
+        ByteBuffer buffer = ByteBuffer.allocate(6 + tiff.length);
+        buffer.put("Exif".getBytes()).putShort((short) 0).put(tiff);
+        return buffer.array();
+    }
+
+    /**
+     * Build an APP1 segment
+     */
+    private static byte[] app1(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + data.length);
+        buffer.put((byte) 0xff).put((byte) 0xe1).putShort((short) (data.length + 2)).put(data);
+        return buffer.array();
+    }
+
+    /**
+     * Write a JPEG file containing segments followed by the start of the image data
+     */
+    private File writeJpeg(byte[]... segments) throws IOException {
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(new byte[] { (byte) 0xff, (byte) 0xd8 });
+        for (byte[] segment : segments) {
+            data.write(segment);
+        }
+        data.write(new byte[] { (byte) 0xff, (byte) 0xda, 0, 2, 0, 0, (byte) 0xff, (byte) 0xd9 });
+
+        File file = mFolder.newFile("image.jpg");
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(data.toByteArray());
+        output.close();
+        return file;
+    }
+}
@@ -0,0 +1,153 @@
+package com.nathanosman.chronosnap.service;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Camera backend that does nothing until the test tells it what happened
+ *
+ * Each request is remembered until the test completes it with one of the
+ * methods below, so callbacks can be delivered in any order and at any
+ * time - including after the camera was closed.
+ */
+public class FakeCameraBackend implements CameraBackend {
+
+    // Requests waiting to be completed by the test
+    private OpenCallback mOpenCallback;
+    private PictureCallback mPictureCallback;
+    private boolean mAutofocus;
+
+    // State of the fake device
+    private boolean mOpen = false;
+    private int mOpenCount;
+    private int mCloseCount;
+    private int mPictureCount;
+    private int mReleasedCount;
+
+    @Override
+    public void setStageListener(StageListener listener) {
+    }
+
+    @Override
+    public void open(OpenCallback callback) {
+        mOpenCallback = callback;
+        mOpenCount++;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    @Override
+    public void takePicture(boolean autofocus, PictureCallback callback) {
+        mPictureCallback = callback;
+        mAutofocus = autofocus;
+        mPictureCount++;
+    }
+
+    @Override
+    public int getMinExposureCompensation() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxExposureCompensation() {
+        return 0;
+    }
+
+    @Override
+    public float getExposureCompensationStep() {
+        return 0;
+    }
+
+    @Override
+    public void setExposure(boolean lock, int compensation) {
+    }
+
+    @Override
+    public void setJpegQuality(int quality) {
+    }
+
+    @Override
+    public boolean setPictureLimit(int count) {
+        return false;
+    }
+
+    @Override
+    public void startPreviewStream(int bufferCount, PreviewCallback callback) {
+    }
+
+    @Override
+    public void close() {
+        mOpen = false;
+        mCloseCount++;
+    }
+
+    /**
+     * Report that the camera has opened
+     */
+    public void completeOpen() {
+        mOpen = true;
+        mOpenCallback.onOpened();
+    }
+
+    /**
+     * Report that the camera could not be opened
+     */
+    public void failOpen(String errorMessage) {
+        mOpenCallback.onError(errorMessage);
+    }
+
+    /**
+     * Deliver a picture for the most recent request
+     */
+    public void completePicture() {
+        mPictureCallback.onPictureTaken(new JpegFrame() {
+
+            @Override
+            public ByteBuffer getData() {
+                return ByteBuffer.allocate(0);
+            }
+
+            @Override
+            public void release() {
+                mReleasedCount++;
+            }
+        });
+    }
+
+    /**
+     * Report that the lens could not be focused for the most recent request
+     */
+    public void failFocus() {
+        mPictureCallback.onFocusFailed();
+    }
+
+    /**
+     * Report that the most recent request failed
+     */
+    public void failPicture(String errorMessage) {
+        mPictureCallback.onError(errorMessage);
+    }
+
+    public boolean wasAutofocusRequested() {
+        return mAutofocus;
+    }
+
+    public int getOpenCount() {
+        return mOpenCount;
+    }
+
+    public int getCloseCount() {
+        return mCloseCount;
+    }
+
+    public int getPictureCount() {
+        return mPictureCount;
+    }
+
+    public int getReleasedCount() {
+        return mReleasedCount;
+    }
+}
@@ -0,0 +1,33 @@
+package com.nathanosman.chronosnap.service;
+
+
+/**
+ * Clock that only moves when the test advances it
+ */
+public class FakeClock implements Clock {
+
+    private long mTime;
+
+    public FakeClock(long time) {
+        mTime = time;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return mTime;
+    }
+
+    /**
+     * Set the current time
+     */
+    public void set(long time) {
+        mTime = time;
+    }
+
+    /**
+     * Move the current time forward
+     */
+    public void advance(long millis) {
+        mTime += millis;
+    }
+}
@@ -0,0 +1,71 @@
+package com.nathanosman.chronosnap.service;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+
+public class FrameNamingTest {
+
+    private static final File SEQUENCE_PATH = new File("sequence");
+
+    private static File file(String... parts) {
+        File file = SEQUENCE_PATH;
+        for (String part : parts) {
+            file = new File(file, part);
+        }
+        return file;
+    }
+
+    @Test
+    public void widthFitsTheLimit() {
+        assertEquals(4, FrameNaming.widthFor(1));
+        assertEquals(4, FrameNaming.widthFor(10000));
+        assertEquals(5, FrameNaming.widthFor(10001));
+        assertEquals(6, FrameNaming.widthFor(1000000));
+        assertEquals(8, FrameNaming.widthFor(0));
+    }
+
+    @Test
+    public void padsNumbersToTheWidth() {
+        FrameNaming naming = new FrameNaming(SEQUENCE_PATH, 100000, 0);
+        assertEquals(file("00000.jpg"), naming.getFile(0));
+        assertEquals(file("00123.jpg"), naming.getFile(123));
+        assertEquals(file("99999.jpg"), naming.getFile(99999));
+    }
+
+    @Test
+    public void writesNumbersWiderThanTheLimitInFull() {
+        FrameNaming naming = new FrameNaming(SEQUENCE_PATH, 10, 0);
+        assertEquals(file("12345.jpg"), naming.getFile(12345));
+    }
+
+    @Test
+    public void usesTheSequenceDirectoryWithoutShards() {
+        FrameNaming naming = new FrameNaming(SEQUENCE_PATH, 0, 0);
+        assertEquals(SEQUENCE_PATH, naming.getDirectory(5));
+        assertEquals(file("00000005.jpg"), naming.getFile(5));
+    }
+
+    @Test
+    public void namesShardsAfterTheirFirstFrame() {
+        FrameNaming naming = new FrameNaming(SEQUENCE_PATH, 0, 1000);
+        assertEquals(file("00000000", "00000999.jpg"), naming.getFile(999));
+        assertEquals(file("00001000", "00001000.jpg"), naming.getFile(1000));
+        assertEquals(file("00010000", "00010123.jpg"), naming.getFile(10123));
+    }
+
+    @Test
+    public void reusesTheDirectoryWithinAShard() {
+        FrameNaming naming = new FrameNaming(SEQUENCE_PATH, 0, 1000);
+        File directory = naming.getDirectory(1000);
+        assertSame(directory, naming.getDirectory(1999));
+        assertEquals(file("00002000"), naming.getDirectory(2000));
+
+        // Going back to an earlier shard works too
+        assertEquals(file("00001000"), naming.getDirectory(1500));
+    }
+}
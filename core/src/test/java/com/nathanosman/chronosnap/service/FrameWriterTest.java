@@ -0,0 +1,252 @@
+package com.nathanosman.chronosnap.service;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class FrameWriterTest {
+
+    /**
+     * Listener that records write events and waits for the writer to finish
+     */
+    private static class RecordingListener implements FrameWriter.Listener {
+
+        final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch mFinished = new CountDownLatch(1);
+
+        @Override
+        public void onFrameWritten(int index, long durationMillis) {
+            mEvents.add("written " + index);
+        }
+
+        @Override
+        public void onFrameSkipped(int index) {
+            mEvents.add("skipped " + index);
+        }
+
+        @Override
+        public void onFrameDropped(int index) {
+            mEvents.add("dropped " + index);
+        }
+
+        @Override
+        public void onWriteFailed(int index, String errorMessage) {
+            mEvents.add("failed " + index);
+        }
+
+        @Override
+        public void onFinished() {
+            mFinished.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Sink that discards every frame
+     */
+    private static class NullSink implements FrameSink {
+
+        @Override
+        public void write(int index, long timestamp, ByteBuffer data) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Frame that counts how many times it was released
+     */
+    private static class CountingFrame extends JpegFrame {
+
+        private ByteBuffer mData;
+        int mReleased;
+
+        CountingFrame(int size) {
+            mData = ByteBuffer.allocate(size);
+        }
+
+        @Override
+        public ByteBuffer getData() {
+            return mData;
+        }
+
+        @Override
+        public void release() {
+            mReleased++;
+        }
+    }
+
+    private FrameWriter createWriter(MemoryBudget budget, RecordingListener listener) {
+        return createWriter(FrameWriter.Backpressure.FAIL, budget, listener);
+    }
+
+    private FrameWriter createWriter(FrameWriter.Backpressure backpressure, MemoryBudget budget,
+                                     RecordingListener listener) {
+        return new FrameWriter(4, backpressure,
+                Collections.<FrameSink>singletonList(new NullSink()), null, budget, listener);
+    }
+
+    @Test
+    public void reservesSharedFramesOnce() throws InterruptedException {
+
+        MemoryBudget budget = new MemoryBudget(1000);
+        RecordingListener ownerListener = new RecordingListener();
+        RecordingListener followerListener = new RecordingListener();
+        FrameWriter owner = createWriter(budget, ownerListener);
+        FrameWriter follower = createWriter(budget, followerListener);
+
+        CountingFrame frame = new CountingFrame(300);
+        assertNull(owner.submit(0, 0, frame,
+                Collections.singletonList(follower), new int[] { 5 }));
+
+        owner.shutdown();
+        follower.shutdown();
+        ownerListener.await();
+        followerListener.await();
+
+        assertEquals(Arrays.asList("written 0"), ownerListener.mEvents);
+        assertEquals(Arrays.asList("written 5"), followerListener.mEvents);
+        assertEquals(1, frame.mReleased);
+        assertEquals(300, budget.getPeak());
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void reservesEachFrame() throws InterruptedException {
+
+        MemoryBudget budget = new MemoryBudget(1000);
+        RecordingListener listener = new RecordingListener();
+        FrameWriter writer = createWriter(budget, listener);
+
+        CountingFrame frame = new CountingFrame(300);
+        assertNull(writer.submit(0, 0, frame));
+
+        writer.shutdown();
+        listener.await();
+
+        assertEquals(1, frame.mReleased);
+        assertEquals(300, budget.getPeak());
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void dropsTheNewFrameWhenOtherWritersHoldTheMemory() throws InterruptedException {
+
+        // Another writer holds most of the budget
+        MemoryBudget budget = new MemoryBudget(1000);
+        assertTrue(budget.tryReserve(900));
+
+        RecordingListener listener = new RecordingListener();
+        FrameWriter writer = createWriter(FrameWriter.Backpressure.DROP_OLDEST, budget, listener);
+
+        CountingFrame frame = new CountingFrame(300);
+        assertNull(writer.submit(7, 0, frame));
+
+        writer.shutdown();
+        listener.await();
+
+        assertEquals(Arrays.asList("dropped 7"), listener.mEvents);
+        assertEquals(1, frame.mReleased);
+        assertEquals(900, budget.getUsed());
+        assertEquals(1, budget.getHitCount());
+    }
+
+    @Test
+    public void rejectsTheFrameWhenTheBudgetIsFull() throws InterruptedException {
+
+        MemoryBudget budget = new MemoryBudget(1000);
+        assertTrue(budget.tryReserve(900));
+
+        RecordingListener listener = new RecordingListener();
+        FrameWriter writer = createWriter(budget, listener);
+
+        CountingFrame frame = new CountingFrame(300);
+        assertEquals("Not enough memory to queue the frame.", writer.submit(0, 0, frame));
+        assertEquals(1, frame.mReleased);
+        assertEquals(1, budget.getHitCount());
+
+        writer.shutdown();
+        listener.await();
+    }
+
+    @Test
+    public void admitsFramesWhenIdlePooledArraysFillTheBudget() throws InterruptedException {
+
+        FrameWriter.Backpressure[] policies = {
+                FrameWriter.Backpressure.BLOCK,
+                FrameWriter.Backpressure.DROP_OLDEST,
+                FrameWriter.Backpressure.FAIL
+        };
+        for (FrameWriter.Backpressure backpressure : policies) {
+
+            // Thumbnails decoded earlier leave their arrays idle in the pool
+            MemoryBudget budget = new MemoryBudget(1000);
+            BufferPool pool = new BufferPool(budget);
+            byte[] first = pool.acquire(500);
+            byte[] second = pool.acquire(500);
+            pool.release(first);
+            pool.release(second);
+            assertEquals(1000, budget.getUsed());
+
+            RecordingListener listener = new RecordingListener();
+            FrameWriter writer = createWriter(backpressure, budget, listener);
+            assertNull(writer.submit(0, 0, new CountingFrame(300)));
+
+            writer.shutdown();
+            listener.await();
+
+            assertEquals(Arrays.asList("written 0"), listener.mEvents);
+            assertEquals(0, pool.getIdleBytes());
+            assertEquals(0, budget.getUsed());
+            assertEquals(0, budget.getHitCount());
+        }
+    }
+
+    @Test
+    public void countsABlockedFrameOnce() throws InterruptedException {
+
+        final MemoryBudget budget = new MemoryBudget(1000);
+        assertTrue(budget.tryReserve(900));
+
+        RecordingListener listener = new RecordingListener();
+        final FrameWriter writer = createWriter(FrameWriter.Backpressure.BLOCK, budget, listener);
+
+        Thread submitter = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                writer.submit(0, 0, new CountingFrame(300));
+            }
+        });
+        submitter.start();
+
+        // Let the writer wait for the memory before it is released
+        while (budget.getHitCount() == 0) {
+            Thread.sleep(1);
+        }
+        budget.release(900);
+        submitter.join();
+
+        writer.shutdown();
+        listener.await();
+
+        assertEquals(Arrays.asList("written 0"), listener.mEvents);
+        assertEquals(1, budget.getHitCount());
+    }
+}
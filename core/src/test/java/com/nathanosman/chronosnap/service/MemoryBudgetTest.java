@@ -0,0 +1,144 @@
+package com.nathanosman.chronosnap.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class MemoryBudgetTest {
+
+    private MemoryBudget mBudget = new MemoryBudget(1000);
+
+    @Test
+    public void reservesUpToTheLimit() {
+        assertTrue(mBudget.tryReserve(600));
+        assertTrue(mBudget.tryReserve(400));
+        assertFalse(mBudget.tryReserve(1));
+        assertEquals(1000, mBudget.getUsed());
+        assertEquals(1, mBudget.getHitCount());
+    }
+
+    @Test
+    public void alwaysReservesWhenNothingIsReserved() {
+        assertTrue(mBudget.tryReserve(5000));
+        assertEquals(5000, mBudget.getPeak());
+        mBudget.release(5000);
+        assertEquals(0, mBudget.getUsed());
+        assertEquals(0, mBudget.getHitCount());
+    }
+
+    @Test
+    public void tracksThePeak() {
+        assertTrue(mBudget.tryReserve(300));
+        assertTrue(mBudget.tryReserve(500));
+        mBudget.release(500);
+        assertTrue(mBudget.tryReserve(100));
+        assertEquals(400, mBudget.getUsed());
+        assertEquals(800, mBudget.getPeak());
+    }
+
+    @Test
+    public void shrinksAndRestoresTheLimit() {
+        assertTrue(mBudget.tryReserve(300));
+
+        // Memory already reserved stays reserved
+        mBudget.shrink(4);
+        assertEquals(250, mBudget.getLimit());
+        assertEquals(300, mBudget.getUsed());
+        assertFalse(mBudget.tryReserve(1));
+
+        // A second shrink never raises the limit again
+        mBudget.shrink(2);
+        assertEquals(250, mBudget.getLimit());
+
+        mBudget.restore();
+        assertEquals(1000, mBudget.getLimit());
+        assertTrue(mBudget.tryReserve(700));
+    }
+
+    @Test
+    public void retriesWithoutCountingAnotherHit() {
+        assertTrue(mBudget.tryReserve(800));
+        assertFalse(mBudget.tryReserve(300));
+        assertFalse(mBudget.retryReserve(300));
+        mBudget.release(800);
+        assertTrue(mBudget.retryReserve(300));
+        assertEquals(1, mBudget.getHitCount());
+    }
+
+    @Test
+    public void waitsForMemoryToBeReleased() throws InterruptedException {
+
+        assertTrue(mBudget.tryReserve(900));
+        Thread releaser = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                // The budget is only released once the reservation is waiting for it
+                while (mBudget.getHitCount() == 0) {
+                    Thread.yield();
+                }
+                mBudget.release(900);
+            }
+        });
+        releaser.start();
+
+        mBudget.reserve(300);
+        releaser.join();
+        assertEquals(300, mBudget.getUsed());
+        assertEquals(1, mBudget.getHitCount());
+    }
+
+    @Test
+    public void reclaimsIdleMemoryBeforeGivingUp() {
+
+        // Idle pooled arrays fill the whole budget
+        BufferPool pool = new BufferPool(mBudget);
+        byte[] first = pool.acquire(600);
+        byte[] second = pool.acquire(400);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1000, mBudget.getUsed());
+
+        assertTrue(mBudget.tryReserve(300));
+        assertEquals(0, pool.getIdleBytes());
+        assertEquals(300, mBudget.getUsed());
+        assertEquals(0, mBudget.getHitCount());
+    }
+
+    @Test
+    public void reclaimsIdleMemoryWhileWaiting() throws InterruptedException {
+
+        final BufferPool pool = new BufferPool(mBudget);
+        final byte[] buffer = pool.acquire(900);
+        Thread releaser = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                // The array goes back to the pool rather than the budget
+                while (mBudget.getHitCount() == 0) {
+                    Thread.yield();
+                }
+                pool.release(buffer);
+            }
+        });
+        releaser.start();
+
+        mBudget.reserve(300);
+        releaser.join();
+        assertEquals(300, mBudget.getUsed());
+        assertEquals(1, mBudget.getHitCount());
+    }
+
+    @Test
+    public void fitsQueuesToTheCapacity() {
+        assertEquals(3, mBudget.getQueueCapacity(300, 10));
+        assertEquals(2, mBudget.getQueueCapacity(300, 2));
+        assertEquals(1, mBudget.getQueueCapacity(5000, 10));
+        assertEquals(250, MemoryBudget.forHeap(1000).getCapacity());
+    }
+}
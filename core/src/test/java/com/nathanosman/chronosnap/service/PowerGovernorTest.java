@@ -0,0 +1,95 @@
+package com.nathanosman.chronosnap.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class PowerGovernorTest {
+
+    private static final double COOL = 25;
+
+    private PowerGovernor mGovernor = new PowerGovernor(true);
+
+    @Test
+    public void risesAsSoonAsAThresholdIsCrossed() {
+        assertEquals(PowerGovernor.Level.NORMAL, mGovernor.update(51, false, COOL));
+        assertEquals(PowerGovernor.Level.CLOSE_CAMERA, mGovernor.update(50, false, COOL));
+        assertEquals(PowerGovernor.Level.STRETCH_INTERVAL, mGovernor.update(15, false, COOL));
+    }
+
+    @Test
+    public void fallsOnlyOnceTheBatteryClearsTheMargin() {
+        assertEquals(PowerGovernor.Level.REDUCE_QUALITY, mGovernor.update(30, false, COOL));
+
+        // Hovering just above the threshold keeps the level
+        assertEquals(PowerGovernor.Level.REDUCE_QUALITY, mGovernor.update(31, false, COOL));
+        assertEquals(PowerGovernor.Level.REDUCE_QUALITY, mGovernor.update(35, false, COOL));
+        assertEquals(PowerGovernor.Level.CLOSE_CAMERA, mGovernor.update(36, false, COOL));
+
+        assertEquals(PowerGovernor.Level.CLOSE_CAMERA, mGovernor.update(55, false, COOL));
+        assertEquals(PowerGovernor.Level.NORMAL, mGovernor.update(56, false, COOL));
+    }
+
+    @Test
+    public void fallsOnlyOnceTheTemperatureClearsTheMargin() {
+        assertEquals(PowerGovernor.Level.STRETCH_INTERVAL, mGovernor.update(100, false, 46));
+        assertEquals(PowerGovernor.Level.STRETCH_INTERVAL, mGovernor.update(100, false, 44.5));
+        assertEquals(PowerGovernor.Level.REDUCE_QUALITY, mGovernor.update(100, false, 43.5));
+        assertEquals(PowerGovernor.Level.NORMAL, mGovernor.update(100, false, 37.5));
+    }
+
+    @Test
+    public void fallsOnlyAsFarAsTheMarginAllows() {
+        assertEquals(PowerGovernor.Level.STRETCH_INTERVAL, mGovernor.update(10, false, COOL));
+
+        // The reading calls for NORMAL but is within the margin of CLOSE_CAMERA
+        assertEquals(PowerGovernor.Level.CLOSE_CAMERA, mGovernor.update(52, false, COOL));
+    }
+
+    @Test
+    public void ignoresTheBatteryWhileCharging() {
+        assertEquals(PowerGovernor.Level.NORMAL, mGovernor.update(5, true, COOL));
+        assertEquals(PowerGovernor.Level.CLOSE_CAMERA, mGovernor.update(5, true, 40));
+        assertEquals(PowerGovernor.Level.STRETCH_INTERVAL, mGovernor.update(5, false, 40));
+        assertEquals(PowerGovernor.Level.NORMAL, mGovernor.update(5, true, 30));
+    }
+
+    @Test
+    public void ignoresUnknownReadings() {
+        assertEquals(PowerGovernor.Level.NORMAL, mGovernor.update(-1, false, Double.NaN));
+        assertEquals(PowerGovernor.Level.CLOSE_CAMERA, mGovernor.update(40, false, Double.NaN));
+        assertEquals(PowerGovernor.Level.NORMAL, mGovernor.update(-1, false, Double.NaN));
+    }
+
+    @Test
+    public void appliesTheMeasuresOfEveryLevelBelow() {
+        assertFalse(mGovernor.shouldCloseCamera());
+        assertEquals(0, mGovernor.getJpegQuality());
+        assertEquals(1, mGovernor.getIntervalFactor());
+
+        mGovernor.update(30, false, COOL);
+        assertTrue(mGovernor.shouldCloseCamera());
+        assertTrue(mGovernor.getJpegQuality() > 0);
+        assertEquals(1, mGovernor.getIntervalFactor());
+
+        mGovernor.update(15, false, COOL);
+        assertTrue(mGovernor.shouldCloseCamera());
+        assertTrue(mGovernor.getJpegQuality() > 0);
+        assertTrue(mGovernor.getIntervalFactor() > 1);
+    }
+
+    @Test
+    public void staysAtNormalWhenDisabled() {
+        PowerGovernor governor = PowerGovernor.parse("none");
+        assertEquals(PowerGovernor.Level.NORMAL, governor.update(5, false, 50));
+        assertFalse(governor.shouldCloseCamera());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnInvalidValue() {
+        PowerGovernor.parse("sometimes");
+    }
+}
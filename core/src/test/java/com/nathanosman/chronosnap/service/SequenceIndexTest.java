@@ -0,0 +1,144 @@
+package com.nathanosman.chronosnap.service;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class SequenceIndexTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mSequencePath;
+
+    @Before
+    public void setUp() throws IOException {
+        mSequencePath = mFolder.newFolder();
+    }
+
+    /**
+     * Write frames 0, 2, 4, ... with a marker in place of every third one
+     */
+    private void writeFrames(int count) throws IOException {
+        SequenceContainerSink sink = new SequenceContainerSink(mSequencePath);
+        for (int i = 0; i < count; ++i) {
+            if (i % 3 == 2) {
+                sink.writeMarker(i * 2, 1000 + i);
+            } else {
+                sink.write(i * 2, 1000 + i, ByteBuffer.wrap(new byte[10 + i]));
+            }
+        }
+        sink.close();
+    }
+
+    private SequenceIndex readIndex(boolean map) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(mSequencePath,
+                SequenceContainerSink.FILENAME), "r");
+        try {
+            return SequenceIndex.read(file.getChannel(), map);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void assertFrames(SequenceIndex index, int count) {
+        assertEquals(count, index.getCount());
+        for (int i = 0; i < count; ++i) {
+            assertEquals(i * 2, index.getFrameIndex(i));
+            assertEquals(1000 + i, index.getTimestamp(i));
+            assertEquals(i % 3 == 2 ? 0 : 10 + i, index.getLength(i));
+        }
+    }
+
+    @Test
+    public void readsTheStoredIndex() throws IOException {
+        writeFrames(300);
+        assertFrames(readIndex(false), 300);
+    }
+
+    @Test
+    public void mapsTheStoredIndex() throws IOException {
+        writeFrames(300);
+        assertFrames(readIndex(true), 300);
+    }
+
+    @Test
+    public void findsFramesByIndex() throws IOException {
+        writeFrames(50);
+        SequenceIndex index = readIndex(false);
+
+        assertEquals(0, index.find(0));
+        assertEquals(17, index.find(34));
+        assertEquals(49, index.find(98));
+        assertEquals(-1, index.find(35));
+        assertEquals(-1, index.find(100));
+    }
+
+    @Test
+    public void rebuildsTheIndexWithoutAFooter() throws IOException {
+        writeFrames(20);
+        SequenceIndex stored = readIndex(false);
+
+        // Drop the index and footer as if the container was never closed
+        truncate(stored.getEnd());
+        SequenceIndex rebuilt = readIndex(false);
+        assertFrames(rebuilt, 20);
+        assertEquals(stored.getEnd(), rebuilt.getEnd());
+    }
+
+    @Test
+    public void stopsAtAnIncompleteChunk() throws IOException {
+        writeFrames(20);
+        SequenceIndex stored = readIndex(false);
+
+        // Cut the last chunk short
+        truncate(stored.getEnd() - 5);
+        assertFrames(readIndex(false), 19);
+    }
+
+    @Test
+    public void appendsAfterTheLastChunk() throws IOException {
+        writeFrames(10);
+        truncate(readIndex(false).getEnd() - 5);
+
+        SequenceContainerSink sink = new SequenceContainerSink(mSequencePath);
+        sink.write(100, 5000, ByteBuffer.wrap(new byte[7]));
+        sink.close();
+
+        SequenceIndex index = readIndex(false);
+        assertEquals(10, index.getCount());
+        assertEquals(100, index.getFrameIndex(9));
+        assertEquals(5000, index.getTimestamp(9));
+        assertEquals(7, index.getLength(9));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(mSequencePath,
+                SequenceContainerSink.FILENAME), "rw");
+        file.write(new byte[64]);
+        file.close();
+        readIndex(false);
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(mSequencePath,
+                SequenceContainerSink.FILENAME), "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            channel.truncate(length);
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.nathanosman.chronosnap.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class StatusThrottleTest {
+
+    private FakeClock mClock = new FakeClock(0);
+    private StatusThrottle mThrottle = new StatusThrottle(mClock, 1000);
+
+    @Test
+    public void deliversTheFirstChangeRightAway() {
+        assertEquals(0, mThrottle.onChanged());
+    }
+
+    @Test
+    public void coalescesChangesUntilDelivered() {
+        assertEquals(0, mThrottle.onChanged());
+        assertEquals(-1, mThrottle.onChanged());
+        mThrottle.onDelivered();
+
+        mClock.advance(300);
+        assertEquals(700, mThrottle.onChanged());
+        assertEquals(-1, mThrottle.onChanged());
+
+        mClock.advance(700);
+        mThrottle.onDelivered();
+        mClock.advance(5000);
+        assertEquals(0, mThrottle.onChanged());
+    }
+
+    @Test
+    public void changingTheIntervalKeepsTheDeliveryState() {
+        mThrottle.onChanged();
+        mThrottle.onDelivered();
+        mThrottle.onChanged();
+
+        // The delivery that is already scheduled is not scheduled twice
+        mThrottle.setMinInterval(200);
+        assertEquals(-1, mThrottle.onChanged());
+
+        mThrottle.onDelivered();
+        mClock.advance(50);
+        assertEquals(150, mThrottle.onChanged());
+    }
+}
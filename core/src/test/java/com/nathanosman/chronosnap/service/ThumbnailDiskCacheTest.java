@@ -0,0 +1,125 @@
+package com.nathanosman.chronosnap.service;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ThumbnailDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(mFolder.getRoot(), "thumbnails");
+    }
+
+    /**
+     * Build an entry of ten bytes, all set to a value
+     */
+    private static byte[] entry(int value) {
+        byte[] data = new byte[10];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    @Test
+    public void returnsWhatWasStored() {
+
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 100);
+        cache.put("/sequence/00001.jpg", entry(1));
+        assertTrue(Arrays.equals(entry(1), cache.get("/sequence/00001.jpg")));
+        assertNull(cache.get("/sequence/00002.jpg"));
+
+        // Replacing an entry does not count it twice
+        cache.put("/sequence/00001.jpg", entry(2));
+        assertTrue(Arrays.equals(entry(2), cache.get("/sequence/00001.jpg")));
+        assertEquals(10, cache.getByteCount());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntry() {
+
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 30);
+        cache.put("a", entry(1));
+        cache.put("b", entry(2));
+        cache.put("c", entry(3));
+
+        // Using "a" leaves "b" as the least recently used
+        cache.get("a");
+        cache.put("d", entry(4));
+
+        assertNull(cache.get("b"));
+        assertTrue(Arrays.equals(entry(1), cache.get("a")));
+        assertTrue(Arrays.equals(entry(3), cache.get("c")));
+        assertTrue(Arrays.equals(entry(4), cache.get("d")));
+        assertEquals(3, mDirectory.list().length);
+    }
+
+    @Test
+    public void staysWithinTheByteCap() {
+
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 25);
+        for (int i = 0; i < 10; ++i) {
+            cache.put(String.valueOf(i), entry(i));
+            assertTrue(cache.getByteCount() <= 25);
+        }
+        assertEquals(20, cache.getByteCount());
+
+        // An entry larger than the cap is kept on its own
+        cache.put("large", new byte[40]);
+        assertEquals(40, cache.getByteCount());
+        assertEquals(1, mDirectory.list().length);
+    }
+
+    @Test
+    public void reloadsTheOrderFromModificationTimes() throws IOException {
+
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 30);
+        cache.put("a", entry(1));
+        cache.put("b", entry(2));
+        cache.put("c", entry(3));
+
+        // Make "b" the most recently used, then "a", then "c"
+        for (File file : mDirectory.listFiles()) {
+            int value = readFirstByte(file);
+            assertTrue(file.setLastModified(value == 2 ? 3000000 : (value == 1 ? 2000000 : 1000000)));
+        }
+
+        // Left behind by a write that never finished
+        File temporary = new File(mDirectory, "0123.tmp");
+        assertTrue(temporary.createNewFile());
+
+        cache = new ThumbnailDiskCache(mDirectory, 30);
+        assertEquals(30, cache.getByteCount());
+        assertFalse(temporary.exists());
+
+        cache.put("d", entry(4));
+        assertNull(cache.get("c"));
+        assertTrue(Arrays.equals(entry(1), cache.get("a")));
+        assertTrue(Arrays.equals(entry(2), cache.get("b")));
+    }
+
+    private static int readFirstByte(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            return input.read();
+        } finally {
+            input.close();
+        }
+    }
+}